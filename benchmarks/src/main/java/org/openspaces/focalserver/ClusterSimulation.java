@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.lookup.ServiceItem;
+import net.jini.lookup.ServiceDiscoveryEvent;
+
+/**
+ * Runs a JMXConnectionFinder against many in-process remote mbeanservers
+ * exported over RMI on loopback, without a GigaSpaces grid or Jini lookup.
+ * Remotes are announced through the finder's ServiceDiscoveryListener
+ * methods, the way the ServiceDiscoveryManager would.
+ * <p>
+ * Reports time to full import, heap per proxied mbean, the time to apply
+ * registration churn and the time to re-import restarted hosts.
+ * <pre>
+ * java -Xmx8g -cp benchmarks.jar org.openspaces.focalserver.ClusterSimulation \
+ *     -hosts 500 -beans 2000 -churn 20000 -restarts 50
+ * </pre>
+ */
+public class ClusterSimulation {
+
+    private static final long TIMEOUT = 30 * 60 * 1000;
+
+    private final int hosts;
+    private final int beans;
+    private final int churn;
+    private final int restarts;
+    private final Random random = new Random(1);
+
+    private final MBeanServer local = MBeanServerFactory.newMBeanServer();
+    private final List<Host> cluster = new ArrayList<Host>();
+    private JMXConnectionFinder finder;
+
+    /**
+     * One simulated GSC: an mbeanserver and its RMI connector
+     */
+    private static class Host {
+        final MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+        final List<ObjectName> samples = new ArrayList<ObjectName>();
+        JMXConnectorServer connectorServer;
+        String url;
+
+        void start() throws Exception {
+            connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                    new JMXServiceURL("service:jmx:rmi://127.0.0.1"), null, mbeanServer
+            );
+            connectorServer.start();
+            url = connectorServer.getAddress().toString();
+        }
+
+        void stop() throws Exception {
+            connectorServer.stop();
+        }
+
+        ServiceItem serviceItem() {
+            return new ServiceItem(null, null, new Entry[]{new JMXServiceURLEntry(url)});
+        }
+    }
+
+    public ClusterSimulation(int hosts, int beans, int churn, int restarts) {
+        this.hosts = hosts;
+        this.beans = beans;
+        this.churn = churn;
+        this.restarts = restarts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int hosts = 50;
+        int beans = 200;
+        int churn = 1000;
+        int restarts = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            if ("-hosts".equals(args[i])) {
+                hosts = value;
+            } else if ("-beans".equals(args[i])) {
+                beans = value;
+            } else if ("-churn".equals(args[i])) {
+                churn = value;
+            } else if ("-restarts".equals(args[i])) {
+                restarts = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        new ClusterSimulation(hosts, beans, churn, restarts).run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        //the notification fetcher of a stopped host's old connection fails, as with a real GSC
+        Logger.getLogger("javax.management.remote.misc").setLevel(Level.OFF);
+        startHosts();
+        finder = new JMXConnectionFinder(false);
+        local.registerMBean(
+                finder, new ObjectName("com.gigaspaces.focalserver:type=JMXConnectionFinder")
+        );
+        long heapBefore = usedHeap();
+
+        long start = System.currentTimeMillis();
+        for (Host host : cluster) {
+            finder.serviceAdded(new ServiceDiscoveryEvent(this, null, host.serviceItem()));
+        }
+        awaitImport();
+        long importMillis = System.currentTimeMillis() - start;
+        int proxied = finder.getProxiedMBeanCount();
+        long heapAfter = usedHeap();
+        report("import", hosts + " hosts, " + proxied + " proxies in " + importMillis + "ms");
+        report("heap", (heapAfter - heapBefore) / Math.max(proxied, 1) + " bytes per proxy, "
+                + finder.getCachedMBeanInfoCount() + " distinct MBeanInfo");
+
+        if (churn > 0) {
+            start = System.currentTimeMillis();
+            simulateChurn();
+            awaitImport();
+            long churnMillis = System.currentTimeMillis() - start;
+            report("churn", churn + " registrations and unregistrations applied in "
+                    + churnMillis + "ms (" + churn * 1000L / Math.max(churnMillis, 1) + "/s), "
+                    + finder.getReceivedRegistrationNotifications() + " received, "
+                    + finder.getCoalescedRegistrationNotifications() + " coalesced, "
+                    + finder.getLostRegistrationNotifications() + " lost");
+        }
+
+        if (restarts > 0) {
+            start = System.currentTimeMillis();
+            restartHosts();
+            awaitImport();
+            report("restart", Math.min(restarts, hosts) + " hosts re-imported in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        for (Host host : cluster) {
+            host.stop();
+        }
+    }
+
+    /**
+     * starts the hosts in parallel, each with its sample mbeans registered
+     */
+    private void startHosts() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors()
+        );
+        List<Future<?>> started = new ArrayList<Future<?>>();
+        for (int i = 0; i < hosts; i++) {
+            final Host host = new Host();
+            cluster.add(host);
+            started.add(executor.submit(new java.util.concurrent.Callable<Object>() {
+                public Object call() throws Exception {
+                    for (int j = 0; j < beans; j++) {
+                        register(host, j);
+                    }
+                    host.start();
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : started) {
+            future.get();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * replaces random sample mbeans with new ones, half unregistrations
+     * and half registrations, so the expected proxy count stays the same
+     */
+    private void simulateChurn() throws Exception {
+        int next = beans;
+        for (int i = 0; i < churn / 2; i++) {
+            Host host = cluster.get(random.nextInt(cluster.size()));
+            int victim = random.nextInt(host.samples.size());
+            host.mbeanServer.unregisterMBean(host.samples.get(victim));
+            host.samples.set(victim, host.samples.get(host.samples.size() - 1));
+            host.samples.remove(host.samples.size() - 1);
+            register(host, next++);
+        }
+    }
+
+    /**
+     * stops hosts, announces their removal, then starts them on
+     * a new address and announces them again, like a restarted GSC
+     */
+    private void restartHosts() throws Exception {
+        for (int i = 0; i < restarts && i < cluster.size(); i++) {
+            Host host = cluster.get(i);
+            host.stop();
+            finder.serviceRemoved(new ServiceDiscoveryEvent(this, host.serviceItem(), null));
+            host.start();
+            finder.serviceAdded(new ServiceDiscoveryEvent(this, null, host.serviceItem()));
+        }
+    }
+
+    private void register(Host host, int index) throws Exception {
+        ObjectName name = new ObjectName("simulation:type=Sample,name=sample" + index);
+        host.mbeanServer.registerMBean(new Sample("sample" + index), name);
+        synchronized (host.samples) {
+            host.samples.add(name);
+        }
+    }
+
+    /**
+     * waits until every remote mbean, delegates included, has its proxy
+     */
+    private void awaitImport() throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            int expected = 0;
+            for (Host host : cluster) {
+                expected += host.mbeanServer.getMBeanCount().intValue();
+            }
+            if (finder.getProxiedMBeanCount() == expected
+                    && finder.getPendingBootstrapCount() == 0
+                    && finder.getRegistrationQueueDepth() == 0) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException(
+                "Import not complete after " + TIMEOUT + "ms, "
+                        + finder.getProxiedMBeanCount() + " proxies"
+        );
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void report(String phase, String result) {
+        System.out.println(phase + ": " + result);
+    }
+}
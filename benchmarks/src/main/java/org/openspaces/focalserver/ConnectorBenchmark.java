@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Connector throughput: calls on a remote mbeanserver straight through the
+ * connector client, RMI against fsnio. The threaded variant shows how the
+ * connector copes with concurrent callers sharing one connection, which
+ * fsnio pipelines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConnectorBenchmark {
+
+    private static final String[] ATTRIBUTES = {"Name", "Counter"};
+
+    @Param({InVmRemote.RMI, InVmRemote.FSNIO})
+    public String transport;
+
+    private InVmRemote remote;
+    private MBeanServerConnection connection;
+    private ObjectName sampleName;
+    private ObjectName samplePattern;
+    private ObjectName memoryName;
+
+    @Setup
+    public void setUp() throws Exception {
+        remote = new InVmRemote(transport);
+        sampleName = remote.registerSamples("benchmark", 1000)[0];
+        samplePattern = new ObjectName("benchmark:type=Sample,*");
+        memoryName = new ObjectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+        remote.getMBeanServer().registerMBean(ManagementFactory.getMemoryMXBean(), memoryName);
+        connection = remote.getConnection();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        remote.close();
+    }
+
+    @Benchmark
+    public Object getAttribute() throws Exception {
+        return connection.getAttribute(sampleName, "Counter");
+    }
+
+    @Benchmark
+    public AttributeList getAttributes() throws Exception {
+        return connection.getAttributes(sampleName, ATTRIBUTES);
+    }
+
+    /**
+     * CompositeData result
+     */
+    @Benchmark
+    public Object getHeapMemoryUsage() throws Exception {
+        return connection.getAttribute(memoryName, "HeapMemoryUsage");
+    }
+
+    /**
+     * 1000 names per call
+     */
+    @Benchmark
+    public Set<ObjectName> queryNames() throws Exception {
+        return connection.queryNames(samplePattern, null);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object getAttributeConcurrent() throws Exception {
+        return connection.getAttribute(sampleName, "Counter");
+    }
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.lookup.ServiceItem;
+import net.jini.lookup.ServiceDiscoveryEvent;
+
+/**
+ * Runs several federated FocalServers in one VM on loopback, each with its
+ * own mbeanserver, JMXConnectionFinder and Federation peer connector, against
+ * in-process remote mbeanservers announced to every finder.
+ * <p>
+ * Reports how the remotes are split, checks that every FocalServer answers
+ * for the whole namespace, then stops one FocalServer and starts it again
+ * and reports the time the others take to rebalance.
+ * <pre>
+ * java -cp benchmarks.jar org.openspaces.focalserver.FederationSimulation \
+ *     -focals 3 -hosts 30 -beans 50
+ * </pre>
+ */
+public class FederationSimulation {
+
+    private static final long TIMEOUT = 5 * 60 * 1000;
+    private static final long HEARTBEAT_MILLIS = 500;
+    /**
+     * held so the level set in run() is not lost when the logger is collected
+     */
+    private static final Logger LOGGER = Logger.getLogger("org.openspaces.focalserver");
+
+    private final int focals;
+    private final int hosts;
+    private final int beans;
+    private final int port;
+    private final List<InVmRemote> cluster = new ArrayList<InVmRemote>();
+    private final Focal[] members;
+    private final String[] peerUrls;
+
+    /**
+     * One FocalServer of the federation
+     */
+    private class Focal {
+        final MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+        final Federation federation = new Federation();
+        final JMXConnectionFinder finder;
+
+        Focal(int index) throws Exception {
+            finder = new JMXConnectionFinder(false);
+            federation.setSelfUrl(peerUrls[index]);
+            federation.setPeers(peerUrls);
+            federation.setHeartbeatMillis(HEARTBEAT_MILLIS);
+            finder.setFederation(federation);
+            mbeanServer.registerMBean(
+                    federation, new ObjectName("com.gigaspaces.focalserver:type=Federation")
+            );
+            mbeanServer.registerMBean(
+                    finder, new ObjectName("com.gigaspaces.focalserver:type=JMXConnectionFinder")
+            );
+            for (InVmRemote remote : cluster) {
+                ServiceItem item = new ServiceItem(
+                        null, null, new Entry[]{new JMXServiceURLEntry(remote.getUrl())}
+                );
+                finder.serviceAdded(new ServiceDiscoveryEvent(this, null, item));
+            }
+        }
+
+        void stop() throws Exception {
+            mbeanServer.unregisterMBean(new ObjectName("com.gigaspaces.focalserver:type=JMXConnectionFinder"));
+            mbeanServer.unregisterMBean(new ObjectName("com.gigaspaces.focalserver:type=Federation"));
+        }
+    }
+
+    public FederationSimulation(int focals, int hosts, int beans, int port) {
+        this.focals = focals;
+        this.hosts = hosts;
+        this.beans = beans;
+        this.port = port;
+        this.members = new Focal[focals];
+        this.peerUrls = new String[focals];
+        for (int i = 0; i < focals; i++) {
+            peerUrls[i] = "service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/focal" + i;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int focals = 3;
+        int hosts = 30;
+        int beans = 50;
+        int port = 19199;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            if ("-focals".equals(args[i])) {
+                focals = value;
+            } else if ("-hosts".equals(args[i])) {
+                hosts = value;
+            } else if ("-beans".equals(args[i])) {
+                beans = value;
+            } else if ("-port".equals(args[i])) {
+                port = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        new FederationSimulation(focals, hosts, beans, port).run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        Logger.getLogger("javax.management.remote.misc").setLevel(Level.OFF);
+        LOGGER.setLevel(Level.WARNING);
+        LocateRegistry.createRegistry(port);
+        for (int i = 0; i < hosts; i++) {
+            InVmRemote remote = new InVmRemote(InVmRemote.RMI);
+            remote.registerSamples("simulation", beans);
+            cluster.add(remote);
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < focals; i++) {
+            members[i] = new Focal(i);
+        }
+        awaitImport();
+        report("import", hosts + " hosts over " + focals + " FocalServers in "
+                + (System.currentTimeMillis() - start) + "ms");
+        for (Focal focal : members) {
+            report("split", focal.federation.getSelfUrl() + " owns "
+                    + focal.federation.getOwnedRemoteCount() + " remotes, "
+                    + focal.finder.getProxiedMBeanCount() + " proxies");
+        }
+        checkNamespace();
+
+        start = System.currentTimeMillis();
+        members[0].stop();
+        members[0] = null;
+        awaitImport();
+        report("leave", "rebalanced in " + (System.currentTimeMillis() - start) + "ms");
+        checkNamespace();
+
+        start = System.currentTimeMillis();
+        members[0] = new Focal(0);
+        awaitImport();
+        report("join", "rebalanced in " + (System.currentTimeMillis() - start) + "ms");
+        checkNamespace();
+
+        for (InVmRemote remote : cluster) {
+            remote.close();
+        }
+    }
+
+    /**
+     * Every FocalServer sees all the samples and reads one owned by each peer
+     */
+    private void checkNamespace() throws Exception {
+        ObjectName pattern = new ObjectName("*:remoteDomain=simulation,type=Sample,*");
+        for (Focal focal : members) {
+            if (focal == null) {
+                continue;
+            }
+            int seen = focal.federation.queryNames(pattern, null).size();
+            int read = 0;
+            for (InVmRemote remote : cluster) {
+                ObjectName name = JMXConnectionFinder.convertObjectName(
+                        JMXConnectionFinder.makeLegalName(remote.getUrl()),
+                        new ObjectName("simulation:type=Sample,name=sample0")
+                );
+                if ("sample0".equals(focal.federation.getAttribute(name, "Name"))) {
+                    read++;
+                }
+            }
+            report("namespace", focal.federation.getSelfUrl() + " sees " + seen + " of "
+                    + hosts * beans + " samples, read " + read + " of " + hosts + " remotes");
+        }
+    }
+
+    /**
+     * waits until the live FocalServers agree on the members and together
+     * proxy every remote mbean once
+     */
+    private void awaitImport() throws Exception {
+        int expected = 0;
+        for (InVmRemote remote : cluster) {
+            expected += remote.getMBeanServer().getMBeanCount().intValue();
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        int proxied = 0;
+        while (System.currentTimeMillis() < deadline) {
+            proxied = 0;
+            int live = 0;
+            for (Focal focal : members) {
+                if (focal != null) {
+                    live++;
+                }
+            }
+            boolean idle = true;
+            for (Focal focal : members) {
+                if (focal != null) {
+                    proxied += focal.finder.getProxiedMBeanCount();
+                    idle &= focal.finder.getPendingBootstrapCount() == 0;
+                    idle &= focal.federation.getMembers().length == live;
+                }
+            }
+            if (proxied == expected && idle) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException(
+                "Import not complete after " + TIMEOUT + "ms, " + proxied + " of " + expected + " proxies"
+        );
+    }
+
+    private static void report(String phase, String result) {
+        System.out.println(phase + ": " + result);
+    }
+}
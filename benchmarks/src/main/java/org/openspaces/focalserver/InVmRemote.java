@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * A remote mbeanserver running inside the benchmark VM. With the "local"
+ * transport the proxies call it directly, which isolates the proxy overhead,
+ * with "rmi" they go through an RMI connector like a discovered GSC and
+ * with "fsnio" through the NIO connector.
+ */
+class InVmRemote {
+
+    static final String LOCAL = "local";
+    static final String RMI = "rmi";
+    static final String FSNIO = "fsnio";
+
+    private final MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+    private final String url;
+    private final MBeanServerConnection connection;
+    private JMXConnectorServer connectorServer;
+    private JMXConnector connector;
+
+    InVmRemote(String transport) throws IOException {
+        if (RMI.equals(transport) || FSNIO.equals(transport)) {
+            Map<String, Object> environment = new HashMap<String, Object>();
+            environment.put(JMXConnectorFactory.PROTOCOL_PROVIDER_PACKAGES, "org.openspaces.focalserver");
+            connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                    new JMXServiceURL(RMI.equals(transport)
+                            ? "service:jmx:rmi://localhost" : "service:jmx:fsnio://localhost:0"),
+                    environment, mbeanServer
+            );
+            connectorServer.start();
+            JMXServiceURL address = connectorServer.getAddress();
+            connector = JMXConnectorFactory.connect(address, environment);
+            connection = connector.getMBeanServerConnection();
+            url = address.toString();
+        } else if (LOCAL.equals(transport)) {
+            connection = mbeanServer;
+            url = "service:jmx:local://localhost/benchmark";
+        } else {
+            throw new IllegalArgumentException("Unknown transport " + transport);
+        }
+    }
+
+    /**
+     * @return the connection proxies use, the connector client for rmi and fsnio
+     */
+    MBeanServerConnection getConnection() {
+        return connection;
+    }
+
+    MBeanServer getMBeanServer() {
+        return mbeanServer;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the remote names of the registered samples
+     */
+    ObjectName[] registerSamples(String domain, int count) throws Exception {
+        ObjectName[] names = new ObjectName[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = new ObjectName(domain + ":type=Sample,name=sample" + i);
+            mbeanServer.registerMBean(new Sample("sample" + i), names[i]);
+        }
+        return names;
+    }
+
+    /**
+     * @return a connected RemoteServer as the JMXConnectionFinder would create it
+     */
+    RemoteServer connect(CallPolicy callPolicy) {
+        RemoteServer remote = new RemoteServer(
+                url, JMXConnectionFinder.makeLegalName(url),
+                JMXConnectionFinder.DEFAULT_REGISTRATION_QUEUE_CAPACITY, callPolicy,
+                new CallMetrics(null)
+        );
+        remote.connected(connector, connection);
+        return remote;
+    }
+
+    void close() throws IOException {
+        if (connector != null) {
+            connector.close();
+        }
+        if (connectorServer != null) {
+            connectorServer.stop();
+        }
+    }
+}
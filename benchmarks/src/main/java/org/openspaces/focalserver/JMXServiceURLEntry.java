@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import net.jini.core.entry.Entry;
+
+/**
+ * Lookup attribute carrying the jmx service url, as registered by a GSC
+ */
+public class JMXServiceURLEntry implements Entry {
+    private static final long serialVersionUID = -7034941346685539241L;
+
+    public String jmxServiceURL;
+
+    public JMXServiceURLEntry() {
+    }
+
+    public JMXServiceURLEntry(String jmxServiceURL) {
+        this.jmxServiceURL = jmxServiceURL;
+    }
+}
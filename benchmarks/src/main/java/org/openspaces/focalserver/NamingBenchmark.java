@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.lookup.ServiceItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Naming done for every imported mbean and every discovery event
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NamingBenchmark {
+
+    private static final String URL
+            = "service:jmx:rmi:///jndi/rmi://10.0.0.12:10098/jmxrmi";
+
+    /**
+     * entries as found on a GSC service item, the url comes last
+     */
+    public static class NameEntry implements Entry {
+        private static final long serialVersionUID = 9133669682411573393L;
+
+        public String name;
+
+        public NameEntry() {
+        }
+
+        public NameEntry(String name) {
+            this.name = name;
+        }
+    }
+
+    private JMXConnectionFinder finder;
+    private ServiceItem serviceItem;
+    private ObjectName remoteName;
+    private String domainPrefix;
+
+    @Setup
+    public void setUp() throws Exception {
+        finder = new JMXConnectionFinder(false);
+        serviceItem = new ServiceItem(null, null, new Entry[]{
+                new NameEntry("gsc-1"), new NameEntry("host-12"), new JMXServiceURLEntry(URL)
+        });
+        remoteName = new ObjectName(
+                "com.gigaspaces:type=SpaceProxy,name=mySpace,container=gsc-1"
+        );
+        domainPrefix = JMXConnectionFinder.makeLegalName(URL);
+    }
+
+    @Benchmark
+    public ObjectName convertObjectName() throws Exception {
+        return JMXConnectionFinder.convertObjectName(domainPrefix, remoteName);
+    }
+
+    @Benchmark
+    public String makeLegalName() {
+        return JMXConnectionFinder.makeLegalName(URL);
+    }
+
+    @Benchmark
+    public String extractConnectionURL() {
+        return finder.extractConnectionURL(serviceItem);
+    }
+}
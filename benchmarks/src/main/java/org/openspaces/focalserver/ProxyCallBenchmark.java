@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request path: calls made on the local proxy mbean of a remote mbean,
+ * through the local mbeanserver, the proxy and the remote call guard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProxyCallBenchmark {
+
+    private static final String[] ATTRIBUTES = {"Name", "Counter"};
+    private static final Object[] PARAMS = {Integer.valueOf(1)};
+    private static final String[] SIGNATURE = {"int"};
+
+    @Param({InVmRemote.LOCAL, InVmRemote.RMI})
+    public String transport;
+
+    /**
+     * 0 runs calls on the caller thread, otherwise they are handed to the deadline executor
+     */
+    @Param({"0", "30000"})
+    public long callTimeout;
+
+    private InVmRemote remote;
+    private MBeanServer local;
+    private ObjectName localName;
+
+    @Setup
+    public void setUp() throws Exception {
+        remote = new InVmRemote(transport);
+        ObjectName remoteName = remote.registerSamples("benchmark", 1)[0];
+        CallPolicy callPolicy = new CallPolicy();
+        callPolicy.setCallTimeout(callTimeout);
+        RemoteServer server = remote.connect(callPolicy);
+        local = MBeanServerFactory.newMBeanServer();
+        localName = JMXConnectionFinder.convertObjectName(server.getDomainPrefix(), remoteName);
+        local.registerMBean(new MBeanProxy(remoteName, server, new MBeanInfoCache()), localName);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        remote.close();
+    }
+
+    @Benchmark
+    public Object getAttribute() throws Exception {
+        return local.getAttribute(localName, "Counter");
+    }
+
+    @Benchmark
+    public AttributeList getAttributes() throws Exception {
+        return local.getAttributes(localName, ATTRIBUTES);
+    }
+
+    @Benchmark
+    public Object invoke() throws Exception {
+        return local.invoke(localName, "increment", PARAMS, SIGNATURE);
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pattern queries over a proxied namespace, answered by the mbeanserver
+ * scanning every mbean or by the key property index of the IndexedNamespace
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class QueryBenchmark {
+
+    private static final int HOSTS = 100;
+    private static final String[][] TYPES = {
+            {"com.gigaspaces", "Space"},
+            {"com.gigaspaces", "Container"},
+            {"com.gigaspaces", "Cache"},
+            {"java.lang", "Memory"},
+            {"java.lang", "Threading"},
+    };
+
+    @Param({"10000", "100000"})
+    public int mbeans;
+
+    @Param({"*:type=Space,*", "*:remoteDomain=java.lang,type=Memory,*", "host_7:*"})
+    public String pattern;
+
+    private MBeanServer mbeanServer;
+    private IndexedNamespace namespace;
+    private ObjectName query;
+
+    @Setup
+    public void setUp() throws Exception {
+        mbeanServer = MBeanServerFactory.newMBeanServer();
+        namespace = new IndexedNamespace();
+        namespace.setMBeanServer(mbeanServer);
+        for (int i = 0; i < mbeans; i++) {
+            String[] type = TYPES[i % TYPES.length];
+            ObjectName name = new ObjectName("host_" + (i % HOSTS) + ":remoteDomain=" + type[0]
+                    + ",type=" + type[1] + ",name=mbean" + i);
+            mbeanServer.registerMBean(new Sample("mbean" + i), name);
+            namespace.add(name);
+        }
+        query = new ObjectName(pattern);
+    }
+
+    @Benchmark
+    public Set<ObjectName> scan() {
+        return mbeanServer.queryNames(query, null);
+    }
+
+    @Benchmark
+    public Set<ObjectName> indexed() {
+        return namespace.queryNames(query, null);
+    }
+}
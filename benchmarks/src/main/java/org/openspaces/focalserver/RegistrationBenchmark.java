@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Discovery path: proxy mbeans registered per second while importing
+ * a remote mbeanserver, including the remote MBeanInfo fetch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegistrationBenchmark {
+
+    private static final int MBEANS = 1000;
+
+    @Param({InVmRemote.LOCAL, InVmRemote.RMI})
+    public String transport;
+
+    private InVmRemote remote;
+    private MBeanServer local;
+    private JMXConnectionFinder finder;
+    private RemoteServer server;
+    private ObjectName[] remoteNames;
+
+    @Setup
+    public void setUp() throws Exception {
+        remote = new InVmRemote(transport);
+        remoteNames = remote.registerSamples("benchmark", MBEANS);
+        local = MBeanServerFactory.newMBeanServer();
+        finder = new JMXConnectionFinder(false);
+        local.registerMBean(finder, new ObjectName("com.gigaspaces.focalserver:type=JMXConnectionFinder"));
+        server = remote.connect(new CallPolicy());
+    }
+
+    @TearDown(Level.Invocation)
+    public void unregister() throws Exception {
+        List<ObjectName> localNames = new ArrayList<ObjectName>(server.getProxyNames());
+        for (ObjectName localName : localNames) {
+            server.removeProxy(localName);
+            local.unregisterMBean(localName);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        remote.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MBEANS)
+    public void registerProxyMBean() throws Exception {
+        for (ObjectName remoteName : remoteNames) {
+            finder.registerProxyMBean(server, remoteName);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+/**
+ * Non-blocking access to the mbeans of a connection, typically the local
+ * mbeanserver holding the proxy mbeans. Every call returns a future and runs
+ * on the executor, so reading thousands of mbeans across the cluster does
+ * not need a caller thread per call.
+ * <p>
+ * The executor is pluggable. newExecutor(true) uses a virtual thread per call
+ * on JDKs that have them, else and by default a bounded platform pool. Proxied
+ * calls made on a virtual thread also run the remote call on it.
+ * Bulk calls complete with a BulkResult holding the result or the failure
+ * of every mbean.
+ * <p>
+ * close() shuts down the executor only if the client created it. FocalServer
+ * and JMXConnectionFinder hand out clients of the local mbeanserver with
+ * newAsyncClient().
+ */
+public class AsyncMBeanClient implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncMBeanClient.class.getName());
+
+    public static final int DEFAULT_THREADS = 64;
+
+    /**
+     * Outcome of a bulk call, every mbean is either in the results or in the failures
+     */
+    public static class BulkResult<T> {
+        private final Map<ObjectName, T> results = new LinkedHashMap<ObjectName, T>();
+        private final Map<ObjectName, Throwable> failures = new LinkedHashMap<ObjectName, Throwable>();
+
+        public Map<ObjectName, T> getResults() {
+            return results;
+        }
+
+        public Map<ObjectName, Throwable> getFailures() {
+            return failures;
+        }
+
+        public String toString() {
+            return "results=" + results.size() + " failures=" + failures.size();
+        }
+    }
+
+    private final MBeanServerConnection connection;
+    private final Executor executor;
+    /**
+     * the executor when created by this client, shut down on close
+     */
+    private final ExecutorService ownExecutor;
+
+    /**
+     * @param connection usually the local mbeanserver
+     * @param executor   runs the blocking calls, left running on close
+     */
+    public AsyncMBeanClient(MBeanServerConnection connection, Executor executor) {
+        this(connection, executor, null);
+    }
+
+    /**
+     * Client with its own bounded platform pool, shut down on close
+     */
+    public AsyncMBeanClient(MBeanServerConnection connection) {
+        this(connection, false);
+    }
+
+    private AsyncMBeanClient(MBeanServerConnection connection, boolean virtualThreads) {
+        this(connection, null, newExecutor(virtualThreads));
+    }
+
+    private AsyncMBeanClient(
+            MBeanServerConnection connection, Executor executor, ExecutorService ownExecutor
+    ) {
+        this.connection = connection;
+        this.executor = ownExecutor != null ? ownExecutor : executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * @param virtualThreads a virtual thread per call if the JDK supports it
+     * @return a client with its own executor, shut down on close
+     */
+    public static AsyncMBeanClient create(MBeanServerConnection connection, boolean virtualThreads) {
+        return new AsyncMBeanClient(connection, virtualThreads);
+    }
+
+    /**
+     * Shuts down the executor if this client created it, the futures of
+     * calls made afterwards fail with a RejectedExecutionException
+     */
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @param virtualThreads a virtual thread per call if the JDK supports it
+     * @return an executor for the calls, a bounded platform pool otherwise
+     */
+    public static ExecutorService newExecutor(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                //JDK 21, looked up reflectively so older JDKs still run
+                Method factory = java.util.concurrent.Executors.class.getMethod(
+                        "newVirtualThreadPerTaskExecutor"
+                );
+                return (ExecutorService) factory.invoke(null);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Virtual threads not available, using a thread pool", e);
+            }
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("FocalServer-async")
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public CompletableFuture<Object> getAttributeAsync(
+            final ObjectName name, final String attribute
+    ) {
+        return submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return connection.getAttribute(name, attribute);
+            }
+        });
+    }
+
+    public CompletableFuture<AttributeList> getAttributesAsync(
+            final ObjectName name, final String[] attributes
+    ) {
+        return submit(new Callable<AttributeList>() {
+            public AttributeList call() throws Exception {
+                return connection.getAttributes(name, attributes);
+            }
+        });
+    }
+
+    public CompletableFuture<Object> invokeAsync(
+            final ObjectName name, final String operationName, final Object[] params,
+            final String[] signature
+    ) {
+        return submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return connection.invoke(name, operationName, params, signature);
+            }
+        });
+    }
+
+    public CompletableFuture<Set<ObjectName>> queryNamesAsync(
+            final ObjectName pattern, final QueryExp query
+    ) {
+        return submit(new Callable<Set<ObjectName>>() {
+            public Set<ObjectName> call() throws Exception {
+                return connection.queryNames(pattern, query);
+            }
+        });
+    }
+
+    /**
+     * reads the same attributes of many mbeans in parallel
+     *
+     * @return attributes by mbean and the failure of the mbeans that could not be read
+     */
+    public CompletableFuture<BulkResult<AttributeList>> getAttributesAsync(
+            Collection<ObjectName> names, String[] attributes
+    ) {
+        Map<ObjectName, CompletableFuture<AttributeList>> calls
+                = new LinkedHashMap<ObjectName, CompletableFuture<AttributeList>>();
+        for (ObjectName name : names) {
+            calls.put(name, getAttributesAsync(name, attributes));
+        }
+        return collect(calls);
+    }
+
+    /**
+     * reads the same attributes of every mbean matching the pattern
+     */
+    public CompletableFuture<BulkResult<AttributeList>> getAttributesAsync(
+            ObjectName pattern, QueryExp query, final String[] attributes
+    ) {
+        return queryNamesAsync(pattern, query).thenCompose(
+                new Function<Set<ObjectName>, CompletableFuture<BulkResult<AttributeList>>>() {
+                    public CompletableFuture<BulkResult<AttributeList>> apply(Set<ObjectName> names) {
+                        return getAttributesAsync(names, attributes);
+                    }
+                }
+        );
+    }
+
+    /**
+     * invokes the same operation on many mbeans in parallel
+     *
+     * @return results by mbean and the failure of the mbeans the call failed on
+     */
+    public CompletableFuture<BulkResult<Object>> invokeAsync(
+            Collection<ObjectName> names, String operationName, Object[] params,
+            String[] signature
+    ) {
+        Map<ObjectName, CompletableFuture<Object>> calls
+                = new LinkedHashMap<ObjectName, CompletableFuture<Object>>();
+        for (ObjectName name : names) {
+            calls.put(name, invokeAsync(name, operationName, params, signature));
+        }
+        return collect(calls);
+    }
+
+    /**
+     * @return completes once every call completed, with the result or failure of each
+     */
+    private static <T> CompletableFuture<BulkResult<T>> collect(
+            final Map<ObjectName, CompletableFuture<T>> calls
+    ) {
+        List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>(calls.values());
+        CompletableFuture<?>[] all = futures.toArray(new CompletableFuture<?>[futures.size()]);
+        return CompletableFuture.allOf(all).handle(
+                new BiFunction<Void, Throwable, BulkResult<T>>() {
+                    public BulkResult<T> apply(Void ignored, Throwable failure) {
+                        BulkResult<T> result = new BulkResult<T>();
+                        for (Map.Entry<ObjectName, CompletableFuture<T>> call : calls.entrySet()) {
+                            try {
+                                result.results.put(call.getKey(), call.getValue().join());
+                            } catch (CompletionException e) {
+                                result.failures.put(call.getKey(), e.getCause());
+                            } catch (CancellationException e) {
+                                result.failures.put(call.getKey(), e);
+                            }
+                        }
+                        return result;
+                    }
+                }
+        );
+    }
+
+    private <T> CompletableFuture<T> submit(final Callable<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete(call.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
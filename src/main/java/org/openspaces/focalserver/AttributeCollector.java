@@ -0,0 +1,544 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+
+/**
+ * Samples selected attributes of the local proxy mbeans on a schedule and
+ * keeps their recent history, so dashboards read local memory instead of
+ * fanning out to every remote mbeanserver. Each mbean is read with a single
+ * getAttributes call per round, numeric values are kept in SampleRings.
+ * <pre>
+ * &lt;property name="collections"&gt;
+ *     &lt;map&gt;
+ *         &lt;entry key="*:remoteDomain=java.lang,type=Memory" value="HeapMemoryUsage.used"/&gt;
+ *     &lt;/map&gt;
+ * &lt;/property&gt;
+ * </pre>
+ * Rollups aggregate one collected attribute over many mbeans, they are
+ * registered as com.gigaspaces.focalserver:type=Rollup,name=...
+ */
+public class AttributeCollector implements AttributeCollectorMBean, MBeanRegistration {
+
+    /**
+     * Receives collected samples and proxy registration changes
+     */
+    interface SampleListener {
+
+        void sampled(ObjectName name, String attribute, double value);
+
+        void registered(ObjectName name);
+
+        void unregistered(ObjectName name);
+
+        /**
+         * every mbean of the round was sampled
+         */
+        void roundCompleted();
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(AttributeCollector.class.getName());
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10000;
+    public static final int DEFAULT_CAPACITY = 360;
+    public static final int DEFAULT_THREADS = 8;
+
+    private static final String[] SAMPLES_ITEMS = {"timestamps", "values"};
+    private static final CompositeType SAMPLES_TYPE;
+
+    static {
+        try {
+            SAMPLES_TYPE = new CompositeType(
+                    "Samples", "history of one series, oldest first", SAMPLES_ITEMS, SAMPLES_ITEMS,
+                    new OpenType<?>[]{
+                            ArrayType.getPrimitiveArrayType(long[].class),
+                            ArrayType.getPrimitiveArrayType(double[].class)
+                    }
+            );
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private MBeanServer mbeanServer;
+    /**
+     * attribute paths to collect by ObjectName pattern
+     */
+    private final ConcurrentMap<ObjectName, String[]> collections
+            = new ConcurrentHashMap<ObjectName, String[]>();
+    /**
+     * history by canonical object name and attribute path
+     */
+    private final ConcurrentMap<String, SampleRing> series
+            = new ConcurrentHashMap<String, SampleRing>();
+    private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile boolean direct;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("FocalServer-collector")
+    );
+    /**
+     * reads the mbeans of one round in parallel, the calls go to different remotes
+     */
+    private final ThreadPoolExecutor collectExecutor = new ThreadPoolExecutor(
+            DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("FocalServer-collect")
+    );
+    private ScheduledFuture<?> schedule;
+    /**
+     * rollups by name
+     */
+    private final ConcurrentMap<String, Rollup> rollups = new ConcurrentHashMap<String, Rollup>();
+    private final NotificationListener membershipListener = new NotificationListener() {
+        public void handleNotification(Notification notification, Object handback) {
+            if (!(notification instanceof MBeanServerNotification)) {
+                return;
+            }
+            ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+            boolean registered = MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(
+                    notification.getType()
+            );
+            for (Rollup rollup : rollups.values()) {
+                if (registered) {
+                    rollup.registered(name);
+                } else {
+                    rollup.unregistered(name);
+                }
+            }
+        }
+    };
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long lastCollectionMillis;
+
+    public AttributeCollector() {
+        collectExecutor.allowCoreThreadTimeOut(true);
+    }
+
+// --------------------- Interface AttributeCollectorMBean ---------------------
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public synchronized void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("interval must be positive: " + intervalMillis);
+        }
+        this.intervalMillis = intervalMillis;
+        if (schedule != null) {
+            schedule.cancel(false);
+            start();
+        }
+    }
+
+    public String[] getCollections() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<ObjectName, String[]> entry : collections.entrySet()) {
+            StringBuilder sb = new StringBuilder(entry.getKey().toString()).append('=');
+            String[] attributes = entry.getValue();
+            for (int i = 0; i < attributes.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(attributes[i]);
+            }
+            result.add(sb.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public void addCollection(String pattern, String attributes)
+            throws MalformedObjectNameException {
+        List<String> paths = new ArrayList<String>();
+        for (String attribute : attributes.split(",")) {
+            if (attribute.trim().length() > 0) {
+                paths.add(attribute.trim());
+            }
+        }
+        collections.put(ObjectName.getInstance(pattern), paths.toArray(new String[paths.size()]));
+    }
+
+    public void removeCollection(String pattern) throws MalformedObjectNameException {
+        collections.remove(ObjectName.getInstance(pattern));
+    }
+
+    public String[] getSeries() {
+        Set<String> keys = series.keySet();
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    public double[] getValues(String objectName, String attribute) {
+        SampleRing ring = series.get(key(objectName, attribute));
+        return ring == null ? new double[0] : ring.getValues();
+    }
+
+    public long[] getTimestamps(String objectName, String attribute) {
+        SampleRing ring = series.get(key(objectName, attribute));
+        return ring == null ? new long[0] : ring.getTimestamps();
+    }
+
+    public CompositeData getSamples(String objectName, String attribute) {
+        SampleRing ring = series.get(key(objectName, attribute));
+        Object[] samples = ring == null ? new Object[]{new long[0], new double[0]} : ring.getSamples();
+        try {
+            return new CompositeDataSupport(SAMPLES_TYPE, SAMPLES_ITEMS, samples);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public double getLatest(String objectName, String attribute) {
+        SampleRing ring = series.get(key(objectName, attribute));
+        return ring == null ? Double.NaN : ring.getLatest();
+    }
+
+    public long getLastCollectionMillis() {
+        return lastCollectionMillis;
+    }
+
+    public long getCollectionErrors() {
+        return errors.get();
+    }
+
+    public String[] getRollups() {
+        List<String> result = new ArrayList<String>();
+        for (Rollup rollup : rollups.values()) {
+            result.add(rollup.getName() + " " + rollup.getFunction() + "(" + rollup.getAttribute()
+                    + ") of " + rollup.getPattern() + " = " + rollup.getValue());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public void addRollup(String name, String pattern, String attribute, String function)
+            throws JMException {
+        addRollup(new Rollup(name, pattern, attribute, function));
+    }
+
+    public void removeRollup(String name) throws JMException {
+        Rollup rollup = rollups.remove(name);
+        if (rollup != null && mbeanServer != null) {
+            mbeanServer.unregisterMBean(rollupName(rollup));
+        }
+    }
+
+// --------------------- Interface MBeanRegistration ---------------------
+
+    public ObjectName preRegister(MBeanServer mBeanServer, ObjectName objectName)
+            throws Exception {
+        mbeanServer = mBeanServer;
+        return objectName;
+    }
+
+    public void postRegister(Boolean registrationDone) {
+        if (!registrationDone.booleanValue()) {
+            return;
+        }
+        try {
+            mbeanServer.addNotificationListener(
+                    MBeanServerDelegate.DELEGATE_NAME, membershipListener, null, null
+            );
+            for (Rollup rollup : rollups.values()) {
+                registerRollup(rollup);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, e.toString(), e);
+        }
+        start();
+    }
+
+    /**
+     * Stops collecting, a deregistered collector cannot be registered again
+     */
+    public synchronized void preDeregister() throws Exception {
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+        scheduler.shutdownNow();
+        collectExecutor.shutdownNow();
+        mbeanServer.removeNotificationListener(
+                MBeanServerDelegate.DELEGATE_NAME, membershipListener
+        );
+        for (Rollup rollup : rollups.values()) {
+            try {
+                mbeanServer.unregisterMBean(rollupName(rollup));
+            } catch (InstanceNotFoundException e) {
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+        }
+    }
+
+    public void postDeregister() {
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * @param collections ObjectName pattern to comma separated attributes
+     */
+    public void setCollections(Map<String, String> collections)
+            throws MalformedObjectNameException {
+        for (Map.Entry<String, String> entry : collections.entrySet()) {
+            addCollection(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void setRollups(Collection<Rollup> rollups) throws JMException {
+        for (Rollup rollup : rollups) {
+            addRollup(rollup);
+        }
+    }
+
+    /**
+     * number of samples kept per series, applies to series created afterwards
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * keeps the samples in direct memory instead of the heap
+     */
+    public void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+
+    public void setThreads(int threads) {
+        if (threads > collectExecutor.getMaximumPoolSize()) {
+            collectExecutor.setMaximumPoolSize(threads);
+            collectExecutor.setCorePoolSize(threads);
+        } else {
+            collectExecutor.setCorePoolSize(threads);
+            collectExecutor.setMaximumPoolSize(threads);
+        }
+    }
+
+    private void addRollup(Rollup rollup) throws JMException {
+        if (rollups.putIfAbsent(rollup.getName(), rollup) != null) {
+            throw new IllegalArgumentException("Rollup already exists: " + rollup.getName());
+        }
+        if (mbeanServer != null) {
+            registerRollup(rollup);
+        }
+    }
+
+    /**
+     * registers the rollup mbean and its current members, values follow on the next round
+     */
+    private void registerRollup(Rollup rollup) throws JMException {
+        mbeanServer.registerMBean(rollup, rollupName(rollup));
+        for (ObjectName name : mbeanServer.queryNames(rollup.getLocalPattern(), null)) {
+            rollup.registered(name);
+        }
+    }
+
+    private static ObjectName rollupName(Rollup rollup) throws MalformedObjectNameException {
+        return ObjectName.getInstance(
+                "com.gigaspaces.focalserver:type=Rollup,name=" + rollup.getName()
+        );
+    }
+
+    private synchronized void start() {
+        schedule = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    collect();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Collection failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One collection round, every matching mbean is read once
+     * with the union of the attributes of its patterns
+     */
+    void collect() {
+        long start = System.currentTimeMillis();
+        Map<ObjectName, Set<String>> paths = new HashMap<ObjectName, Set<String>>();
+        for (Map.Entry<ObjectName, String[]> entry : collections.entrySet()) {
+            for (ObjectName name : mbeanServer.queryNames(entry.getKey(), null)) {
+                Set<String> attributes = paths.get(name);
+                if (attributes == null) {
+                    attributes = new LinkedHashSet<String>();
+                    paths.put(name, attributes);
+                }
+                for (String path : entry.getValue()) {
+                    attributes.add(path);
+                }
+            }
+        }
+        for (Rollup rollup : rollups.values()) {
+            for (ObjectName name : mbeanServer.queryNames(rollup.getLocalPattern(), null)) {
+                if (!rollup.matches(name)) {
+                    continue;
+                }
+                Set<String> attributes = paths.get(name);
+                if (attributes == null) {
+                    attributes = new LinkedHashSet<String>();
+                    paths.put(name, attributes);
+                }
+                attributes.add(rollup.getAttribute());
+            }
+        }
+        List<Future<?>> reads = new ArrayList<Future<?>>();
+        for (final Map.Entry<ObjectName, Set<String>> entry : paths.entrySet()) {
+            reads.add(collectExecutor.submit(new Runnable() {
+                public void run() {
+                    collect(entry.getKey(), entry.getValue());
+                }
+            }));
+        }
+        for (Future<?> read : reads) {
+            try {
+                read.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, e.toString(), e);
+            }
+        }
+        //drop the history of mbeans that are gone or no longer collected
+        Set<String> collected = new HashSet<String>();
+        for (Map.Entry<ObjectName, Set<String>> entry : paths.entrySet()) {
+            for (String path : entry.getValue()) {
+                collected.add(key(entry.getKey(), path));
+            }
+        }
+        series.keySet().retainAll(collected);
+        for (Rollup rollup : rollups.values()) {
+            rollup.roundCompleted();
+        }
+        lastCollectionMillis = System.currentTimeMillis() - start;
+    }
+
+    private void collect(ObjectName name, Set<String> paths) {
+        Set<String> attributes = new LinkedHashSet<String>();
+        for (String path : paths) {
+            int dot = path.indexOf('.');
+            attributes.add(dot < 0 ? path : path.substring(0, dot));
+        }
+        AttributeList values;
+        try {
+            values = mbeanServer.getAttributes(
+                    name, attributes.toArray(new String[attributes.size()])
+            );
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            LOGGER.log(Level.FINE, "Failed to collect " + name, e);
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        Map<String, Object> byName = new HashMap<String, Object>();
+        for (Object value : values) {
+            Attribute attribute = (Attribute) value;
+            byName.put(attribute.getName(), attribute.getValue());
+        }
+        for (String path : paths) {
+            Object value = select(byName, path);
+            if (!(value instanceof Number)) {
+                continue;
+            }
+            String key = key(name, path);
+            SampleRing ring = series.get(key);
+            if (ring == null) {
+                SampleRing created = new SampleRing(capacity, direct);
+                ring = series.putIfAbsent(key, created);
+                if (ring == null) {
+                    ring = created;
+                }
+            }
+            double sample = ((Number) value).doubleValue();
+            ring.add(timestamp, sample);
+            for (Rollup rollup : rollups.values()) {
+                rollup.sampled(name, path, sample);
+            }
+        }
+    }
+
+    /**
+     * @return the attribute value, or the CompositeData item for attribute.item
+     */
+    private static Object select(Map<String, Object> values, String path) {
+        int dot = path.indexOf('.');
+        if (dot < 0) {
+            return values.get(path);
+        }
+        Object value = values.get(path.substring(0, dot));
+        String item = path.substring(dot + 1);
+        if (value instanceof CompositeData && ((CompositeData) value).containsKey(item)) {
+            return ((CompositeData) value).get(item);
+        }
+        return null;
+    }
+
+    private static String key(ObjectName name, String path) {
+        return name.getCanonicalName() + "/" + path;
+    }
+
+    private static String key(String objectName, String path) {
+        try {
+            return key(ObjectName.getInstance(objectName), path);
+        } catch (MalformedObjectNameException e) {
+            return objectName + "/" + path;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Manage the AttributeCollector and read the collected history
+ */
+public interface AttributeCollectorMBean {
+
+    /**
+     * time between two collection rounds
+     *
+     * @return milliseconds
+     */
+    long getIntervalMillis();
+
+    void setIntervalMillis(long intervalMillis);
+
+    /**
+     * collected mbean patterns with their attributes, as pattern=attribute,attribute
+     *
+     * @return
+     */
+    String[] getCollections();
+
+    /**
+     * collects attributes of every mbean matching the pattern,
+     * CompositeData items are selected with attribute.item
+     *
+     * @param pattern    ObjectName pattern of the local (proxy) mbeans
+     * @param attributes comma separated attribute names
+     */
+    void addCollection(String pattern, String attributes)
+            throws MalformedObjectNameException;
+
+    void removeCollection(String pattern) throws MalformedObjectNameException;
+
+    /**
+     * collected series, as objectName/attribute
+     *
+     * @return
+     */
+    String[] getSeries();
+
+    /**
+     * @return values of one series, oldest first
+     */
+    double[] getValues(String objectName, String attribute);
+
+    /**
+     * @return sample times in milliseconds of one series, oldest first
+     */
+    long[] getTimestamps(String objectName, String attribute);
+
+    /**
+     * timestamps and values of one series read at once, so they describe the same samples
+     *
+     * @return timestamps (long[]) and values (double[]) items, oldest first
+     */
+    CompositeData getSamples(String objectName, String attribute);
+
+    /**
+     * @return most recent value of one series, NaN if none
+     */
+    double getLatest(String objectName, String attribute);
+
+    /**
+     * duration of the last collection round
+     *
+     * @return milliseconds
+     */
+    long getLastCollectionMillis();
+
+    /**
+     * number of getAttributes calls that failed
+     *
+     * @return
+     */
+    long getCollectionErrors();
+
+    /**
+     * name, function, attribute, pattern and value of every rollup
+     *
+     * @return
+     */
+    String[] getRollups();
+
+    /**
+     * registers a rollup mbean aggregating one attribute of every proxied mbean
+     * matching a remote pattern, as com.gigaspaces.focalserver:type=Rollup,name=...
+     *
+     * @param name      name of the rollup mbean
+     * @param pattern   remote ObjectName pattern, such as java.lang:type=Memory
+     * @param attribute attribute, or attribute.item for CompositeData items
+     * @param function  sum, min, max, avg, count or pNN such as p99
+     */
+    void addRollup(String name, String pattern, String attribute, String function)
+            throws JMException;
+
+    void removeRollup(String name) throws JMException;
+}
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeChangeNotification;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.NotificationListener;
+
+/**
+ * Emits AttributeChangeNotifications for remote mbeans that do not send them.
+ * Each watched mbean is polled with one getAttributes call whatever the
+ * number of local listeners, values are compared with the last ones and
+ * a notification is sent only when one changed.
+ * <p>
+ * Every attribute has its own interval: halved when the value changed,
+ * down to the minimum, and grown by half when it did not, up to the
+ * maximum, so attributes that rarely change are rarely polled.
+ * Failed polls count as unchanged, and values that changed several times
+ * between two polls are reported as one change.
+ */
+class AttributePoller {
+
+    public static final long DEFAULT_MIN_INTERVAL = 1000;
+    public static final long DEFAULT_MAX_INTERVAL = 60000;
+    public static final int DEFAULT_POLL_THREADS = 2;
+
+    private static final Logger LOGGER = Logger.getLogger(AttributePoller.class.getName());
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private volatile long minIntervalMillis = DEFAULT_MIN_INTERVAL;
+    private volatile long maxIntervalMillis = DEFAULT_MAX_INTERVAL;
+    private final AtomicInteger watchedAttributes = new AtomicInteger();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+
+    /**
+     * Last value and schedule of one polled attribute
+     */
+    private static class Polled {
+        final String type;
+        Object value;
+        boolean initialized;
+        long interval;
+        long due;
+
+        Polled(String type, long interval, long due) {
+            this.type = type;
+            this.interval = interval;
+            this.due = due;
+        }
+    }
+
+    /**
+     * The polled attributes of one proxy mbean, with the listener
+     * receiving the changes
+     */
+    class Watch implements Runnable {
+        private final MBeanProxy proxy;
+        private final NotificationListener listener;
+        private final AtomicLong sequence = new AtomicLong();
+        /**
+         * guarded by this
+         */
+        private final Map<String, Polled> attributes = new HashMap<String, Polled>();
+        private ScheduledFuture<?> next;
+        private long nextDue;
+        private boolean cancelled;
+
+        Watch(MBeanProxy proxy, NotificationListener listener) {
+            this.proxy = proxy;
+            this.listener = listener;
+        }
+
+        /**
+         * Polls added attributes right away, the others keep their last value
+         */
+        synchronized void setAttributes(Collection<String> names) {
+            if (cancelled) {
+                return;
+            }
+            Iterator<String> it = attributes.keySet().iterator();
+            while (it.hasNext()) {
+                if (!names.contains(it.next())) {
+                    it.remove();
+                    watchedAttributes.decrementAndGet();
+                }
+            }
+            long now = System.currentTimeMillis();
+            boolean added = false;
+            for (String name : names) {
+                if (!attributes.containsKey(name)) {
+                    attributes.put(name, new Polled(typeOf(name), minIntervalMillis, now));
+                    watchedAttributes.incrementAndGet();
+                    added = true;
+                }
+            }
+            if (added) {
+                schedule(now);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            watchedAttributes.addAndGet(-attributes.size());
+            attributes.clear();
+            if (next != null) {
+                next.cancel(false);
+                next = null;
+            }
+        }
+
+        public void run() {
+            String[] due;
+            synchronized (this) {
+                next = null;
+                if (cancelled || attributes.isEmpty()) {
+                    return;
+                }
+                //attributes past half their interval are polled along,
+                //so attributes with equal intervals end up sharing the call
+                long now = System.currentTimeMillis();
+                List<String> names = new ArrayList<String>();
+                for (Map.Entry<String, Polled> entry : attributes.entrySet()) {
+                    Polled polled = entry.getValue();
+                    if (polled.due - polled.interval / 2 <= now) {
+                        names.add(entry.getKey());
+                    }
+                }
+                due = names.toArray(new String[names.size()]);
+            }
+            Map<String, Object> values = null;
+            if (due.length > 0) {
+                polls.incrementAndGet();
+                try {
+                    AttributeList list = proxy.getAttributes(due);
+                    values = new HashMap<String, Object>();
+                    for (Object attribute : list) {
+                        values.put(((Attribute) attribute).getName(), ((Attribute) attribute).getValue());
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Failed to poll " + proxy.getRemoteObjectName(), e);
+                }
+            }
+            List<AttributeChangeNotification> changes = new ArrayList<AttributeChangeNotification>();
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for (String name : due) {
+                    Polled polled = attributes.get(name);
+                    if (polled == null) {
+                        continue;
+                    }
+                    boolean changed = false;
+                    if (values != null && values.containsKey(name)) {
+                        Object value = values.get(name);
+                        if (!polled.initialized) {
+                            polled.initialized = true;
+                        } else if (!equal(polled.value, value)) {
+                            changes.add(new AttributeChangeNotification(
+                                    proxy, sequence.incrementAndGet(), now,
+                                    name + " changed", name, polled.type, polled.value, value
+                            ));
+                            changed = true;
+                        }
+                        polled.value = value;
+                    }
+                    polled.interval = changed
+                            ? Math.max(minIntervalMillis, polled.interval / 2)
+                            : Math.min(maxIntervalMillis, polled.interval + polled.interval / 2);
+                    polled.due = now + polled.interval;
+                }
+                long earliest = Long.MAX_VALUE;
+                for (Polled polled : attributes.values()) {
+                    earliest = Math.min(earliest, polled.due);
+                }
+                if (earliest != Long.MAX_VALUE) {
+                    schedule(earliest);
+                }
+            }
+            for (AttributeChangeNotification change : changes) {
+                notifications.incrementAndGet();
+                listener.handleNotification(change, null);
+            }
+        }
+
+        /**
+         * runs the next poll at the given time unless one is planned earlier
+         */
+        private void schedule(long due) {
+            if (next != null) {
+                if (nextDue <= due) {
+                    return;
+                }
+                next.cancel(false);
+            }
+            nextDue = due;
+            next = scheduler.schedule(
+                    this, Math.max(0, due - System.currentTimeMillis()), TimeUnit.MILLISECONDS
+            );
+        }
+
+        private String typeOf(String name) {
+            MBeanInfo info = proxy.getCachedMBeanInfo();
+            if (info != null) {
+                for (MBeanAttributeInfo attribute : info.getAttributes()) {
+                    if (attribute.getName().equals(name)) {
+                        return attribute.getType();
+                    }
+                }
+            }
+            return Object.class.getName();
+        }
+    }
+
+    public AttributePoller() {
+        scheduler = new ScheduledThreadPoolExecutor(
+                DEFAULT_POLL_THREADS, new NamedThreadFactory("FocalServer-poll")
+        );
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts polling attributes of a proxy mbean
+     *
+     * @param listener receives an AttributeChangeNotification per changed value
+     */
+    public Watch watch(MBeanProxy proxy, Collection<String> attributes, NotificationListener listener) {
+        Watch watch = new Watch(proxy, listener);
+        watch.setAttributes(attributes);
+        return watch;
+    }
+
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    public void setMinIntervalMillis(long minIntervalMillis) {
+        if (minIntervalMillis < 1) {
+            throw new IllegalArgumentException("interval must be positive: " + minIntervalMillis);
+        }
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    public long getMaxIntervalMillis() {
+        return maxIntervalMillis;
+    }
+
+    public void setMaxIntervalMillis(long maxIntervalMillis) {
+        if (maxIntervalMillis < 1) {
+            throw new IllegalArgumentException("interval must be positive: " + maxIntervalMillis);
+        }
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Stops polling, the watches left are not run again
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return number of attributes polled for change notifications
+     */
+    public int getWatchedAttributeCount() {
+        return watchedAttributes.get();
+    }
+
+    /**
+     * @return getAttributes calls made so far
+     */
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * @return change notifications sent so far
+     */
+    public long getNotificationCount() {
+        return notifications.get();
+    }
+
+    private static boolean equal(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.getClass().isArray() && b.getClass().isArray()) {
+            return Arrays.deepEquals(new Object[]{a}, new Object[]{b});
+        }
+        return a.equals(b);
+    }
+}
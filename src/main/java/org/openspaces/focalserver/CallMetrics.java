@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and error counts of the calls made to remote mbeanservers,
+ * per operation. A per remote instance also records into its parent,
+ * which holds the totals over all remotes.
+ */
+class CallMetrics {
+
+    private static final RemoteOperation[] OPERATIONS = RemoteOperation.values();
+
+    private final CallMetrics parent;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final AtomicLong[] errors = new AtomicLong[OPERATIONS.length];
+    private final LatencyHistogram notificationDelivery = new LatencyHistogram();
+
+    /**
+     * @param parent also records every call, may be null
+     */
+    public CallMetrics(CallMetrics parent) {
+        this.parent = parent;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new AtomicLong();
+        }
+    }
+
+    public void record(RemoteOperation operation, long nanos, boolean failed) {
+        latencies[operation.ordinal()].record(nanos);
+        if (failed) {
+            errors[operation.ordinal()].incrementAndGet();
+        }
+        if (parent != null) {
+            parent.record(operation, nanos, failed);
+        }
+    }
+
+    /**
+     * records the time a local listener took to handle a remote notification
+     */
+    public void recordNotificationDelivery(long nanos) {
+        notificationDelivery.record(nanos);
+        if (parent != null) {
+            parent.recordNotificationDelivery(nanos);
+        }
+    }
+
+    public LatencyHistogram getLatency(RemoteOperation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public long getErrors(RemoteOperation operation) {
+        return errors[operation.ordinal()].get();
+    }
+
+    public LatencyHistogram getNotificationDelivery() {
+        return notificationDelivery;
+    }
+
+    public long getCallCount() {
+        long count = 0;
+        for (LatencyHistogram latency : latencies) {
+            count += latency.getCount();
+        }
+        return count;
+    }
+
+    public long getErrorCount() {
+        long count = 0;
+        for (AtomicLong error : errors) {
+            count += error.get();
+        }
+        return count;
+    }
+
+    /**
+     * @param prefix prepended to every line
+     * @return one line per operation that was called at least once
+     */
+    public List<String> describe(String prefix) {
+        List<String> lines = new ArrayList<String>();
+        for (RemoteOperation operation : OPERATIONS) {
+            LatencyHistogram latency = getLatency(operation);
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            lines.add(prefix + operation.getDisplayName() + " " + latency
+                    + " errors=" + getErrors(operation));
+        }
+        if (notificationDelivery.getCount() > 0) {
+            lines.add(prefix + "notificationDelivery " + notificationDelivery);
+        }
+        return lines;
+    }
+
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i].reset();
+            errors[i].set(0);
+        }
+        notificationDelivery.reset();
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Settings shared by the RemoteCallGuard of every remote mbeanserver:
+ * per operation deadlines, the per remote concurrency limit and the
+ * circuit breaker thresholds. Changes apply to calls made afterwards.
+ */
+class CallPolicy {
+
+    public static final long DEFAULT_CALL_TIMEOUT = 30000;
+    public static final int DEFAULT_MAX_CONCURRENT_CALLS = 32;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 10000;
+    public static final int DEFAULT_MAX_CALL_THREADS = 256;
+
+    /**
+     * Thread.isVirtual() on JDKs that have virtual threads, else null
+     */
+    private static final Method IS_VIRTUAL;
+
+    static {
+        Method isVirtual = null;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            //before JDK 21
+        }
+        IS_VIRTUAL = isVirtual;
+    }
+
+    /**
+     * deadline per RemoteOperation ordinal in milliseconds, 0 for none
+     */
+    private final AtomicLongArray timeouts
+            = new AtomicLongArray(RemoteOperation.values().length);
+    private volatile int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long openMillis = DEFAULT_OPEN_MILLIS;
+    /**
+     * runs calls that have a deadline, calls beyond its threads are rejected
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            0, DEFAULT_MAX_CALL_THREADS, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new NamedThreadFactory("FocalServer-call")
+    );
+    /**
+     * interrupts calls running on a virtual thread at their deadline
+     */
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+            1, new NamedThreadFactory("FocalServer-call-timer")
+    );
+
+    public CallPolicy() {
+        //most calls finish in time, do not keep their timers queued
+        timer.setRemoveOnCancelPolicy(true);
+        setCallTimeout(DEFAULT_CALL_TIMEOUT);
+    }
+
+    public long getTimeout(RemoteOperation operation) {
+        return timeouts.get(operation.ordinal());
+    }
+
+    public void setTimeout(RemoteOperation operation, long millis) {
+        timeouts.set(operation.ordinal(), Math.max(0, millis));
+    }
+
+    /**
+     * sets the deadline of every operation
+     */
+    public void setCallTimeout(long millis) {
+        for (RemoteOperation operation : RemoteOperation.values()) {
+            setTimeout(operation, millis);
+        }
+    }
+
+    /**
+     * @return operation=millis for every operation
+     */
+    public String[] getTimeouts() {
+        List<String> result = new ArrayList<String>();
+        for (RemoteOperation operation : RemoteOperation.values()) {
+            result.add(operation.getDisplayName() + "=" + getTimeout(operation));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("concurrent calls must be positive: " + maxConcurrentCalls);
+        }
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    public void setOpenMillis(long openMillis) {
+        this.openMillis = openMillis;
+    }
+
+    public int getMaxCallThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public void setMaxCallThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("call threads must be positive: " + threads);
+        }
+        executor.setMaximumPoolSize(threads);
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public ScheduledExecutorService getTimer() {
+        return timer;
+    }
+
+    /**
+     * Stops the call threads and the timer, calls made afterwards are rejected
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return true if the thread is a virtual thread
+     */
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return ((Boolean) IS_VIRTUAL.invoke(thread)).booleanValue();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
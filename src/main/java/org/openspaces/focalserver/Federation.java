@@ -0,0 +1,871 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Lets several FocalServers share the remote mbeanservers discovered by
+ * their JMXConnectionFinders. Each FocalServer is a member of a consistent
+ * hash ring keyed by the url of its peer connector, a remote mbeanserver
+ * is imported only by the member owning its service url. Peers are checked
+ * on every heartbeat, when one joins or leaves the ring is rebuilt and the
+ * finder imports or drops the remotes whose owner changed.
+ * <p>
+ * Installed as an MBeanServerForwarder on the client connector, it serves
+ * the whole namespace: pattern queries are merged with the local results
+ * of every peer, calls on a name of a remote owned by a peer are forwarded
+ * to it. Peers are reached through their peer connector, which serves only
+ * the local mbeanserver, so a forwarded call is never forwarded again.
+ */
+public class Federation extends MBeanServerForwarderSupport
+        implements FederationMBean, MBeanRegistration {
+
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 5000;
+    public static final int DEFAULT_MISSED_HEARTBEATS = 3;
+
+    private static final Logger LOGGER = Logger.getLogger(
+            Federation.class.getName()
+    );
+
+    /**
+     * A FocalServer sharing the remote mbeanservers
+     */
+    private static class Peer {
+        private final String url;
+        private volatile JMXConnector connector;
+        private volatile MBeanServerConnection connection;
+        private volatile boolean live;
+        private int missed;
+
+        Peer(String url) {
+            this.url = url;
+        }
+
+        public String toString() {
+            return url + (live ? " live" : " down") + (missed > 0 ? " missed=" + missed : "");
+        }
+    }
+
+    /**
+     * Notified when the remotes owned by this FocalServer changed
+     */
+    interface OwnershipListener {
+        void ownershipChanged();
+    }
+
+    private volatile String selfUrl;
+    private final ConcurrentMap<String, Peer> peers = new ConcurrentHashMap<String, Peer>();
+    private volatile int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+    private volatile long heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+    private volatile int missedHeartbeats = DEFAULT_MISSED_HEARTBEATS;
+    private volatile long peerCallTimeout = CallPolicy.DEFAULT_CALL_TIMEOUT;
+    /**
+     * self and the live peers, replaced as a whole when they change
+     */
+    private volatile ConsistentHashRing ring;
+    /**
+     * discovered remote service urls by local domain
+     */
+    private final ConcurrentMap<String, String> known = new ConcurrentHashMap<String, String>();
+    private volatile OwnershipListener ownershipListener;
+    private MBeanServer localServer;
+    private JMXConnectorServer peerServer;
+    private final ScheduledExecutorService heartbeatScheduler
+            = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("FocalServer-federation")
+            );
+    private ScheduledFuture<?> heartbeatTask;
+    /**
+     * one heartbeat at a time, held while the peers are called
+     */
+    private final Object heartbeatLock = new Object();
+    /**
+     * queries the peers of one pattern query in parallel
+     */
+    private final ExecutorService peerExecutor = Executors.newCachedThreadPool(
+            new NamedThreadFactory("FocalServer-peer")
+    );
+
+// -------------------------- configuration --------------------------
+
+    public String getSelfUrl() {
+        return selfUrl;
+    }
+
+    /**
+     * @param selfUrl service url of the peer connector, as the peers list it
+     */
+    public void setSelfUrl(String selfUrl) {
+        this.selfUrl = selfUrl;
+        rebuildRing();
+    }
+
+    /**
+     * @param urls peer connector service urls of all FocalServers, this one may be
+     *             included, it is skipped whenever the peers are used
+     */
+    public void setPeers(String[] urls) {
+        for (String url : urls) {
+            if (!peers.containsKey(url)) {
+                peers.put(url, new Peer(url));
+            }
+        }
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        rebuildRing();
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        if (heartbeatMillis < 1) {
+            throw new IllegalArgumentException("heartbeat must be positive: " + heartbeatMillis);
+        }
+        this.heartbeatMillis = heartbeatMillis;
+        synchronized (this) {
+            if (heartbeatTask != null) {
+                heartbeatTask.cancel(false);
+                scheduleHeartbeat();
+            }
+        }
+    }
+
+    /**
+     * @param missedHeartbeats failed checks after which a peer leaves the ring
+     */
+    public void setMissedHeartbeats(int missedHeartbeats) {
+        this.missedHeartbeats = missedHeartbeats;
+    }
+
+    /**
+     * @param millis deadline of a peer query
+     */
+    public void setPeerCallTimeout(long millis) {
+        this.peerCallTimeout = millis;
+    }
+
+    void setOwnershipListener(OwnershipListener ownershipListener) {
+        this.ownershipListener = ownershipListener;
+    }
+
+// -------------------------- ownership --------------------------
+
+    /**
+     * Records a discovered remote mbeanserver
+     *
+     * @return true if this FocalServer should import it
+     */
+    boolean discovered(String url) {
+        known.put(JMXConnectionFinder.makeLegalName(url), url);
+        return owns(url);
+    }
+
+    void removed(String url) {
+        known.remove(JMXConnectionFinder.makeLegalName(url), url);
+    }
+
+    boolean owns(String url) {
+        ConsistentHashRing current = ring;
+        return current == null || current.owner(url).equals(selfUrl);
+    }
+
+    /**
+     * @return the discovered remote service urls
+     */
+    List<String> getKnownUrls() {
+        return new ArrayList<String>(known.values());
+    }
+
+// --------------------- Interface FederationMBean ---------------------
+
+    public String[] getPeers() {
+        List<String> result = new ArrayList<String>();
+        for (Peer peer : otherPeers()) {
+            result.add(peer.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public String[] getMembers() {
+        ConsistentHashRing current = ring;
+        if (current == null) {
+            return new String[0];
+        }
+        return current.getMembers().toArray(new String[current.getMembers().size()]);
+    }
+
+    public int getKnownRemoteCount() {
+        return known.size();
+    }
+
+    public int getOwnedRemoteCount() {
+        int count = 0;
+        for (String url : known.values()) {
+            if (owns(url)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String getOwner(String url) {
+        ConsistentHashRing current = ring;
+        return current == null ? null : current.owner(url);
+    }
+
+    /**
+     * Connects to the peers that are down and pings the live ones.
+     * A peer joins on its first successful check and leaves after
+     * missedHeartbeats failed ones, either rebuilds the ring. The
+     * peers are checked in parallel within peerCallTimeout, outside
+     * the lock of the federation.
+     */
+    public void heartbeat() {
+        synchronized (heartbeatLock) {
+            Map<PeerCheck, Future<Boolean>> futures = new LinkedHashMap<PeerCheck, Future<Boolean>>();
+            for (Peer peer : otherPeers()) {
+                PeerCheck check = new PeerCheck(peer);
+                futures.put(check, peerExecutor.submit(check));
+            }
+            long deadline = System.currentTimeMillis() + peerCallTimeout;
+            Map<Peer, Boolean> results = new LinkedHashMap<Peer, Boolean>();
+            for (Map.Entry<PeerCheck, Future<Boolean>> future : futures.entrySet()) {
+                Peer peer = future.getKey().peer;
+                try {
+                    long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                    results.put(peer, future.getValue().get(remaining, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abandon(futures);
+                    return;
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.FINE, "Peer " + peer.url + " not reachable", e.getCause());
+                    results.put(peer, Boolean.FALSE);
+                } catch (TimeoutException e) {
+                    future.getKey().abandon();
+                    future.getValue().cancel(true);
+                    LOGGER.log(Level.FINE, "Peer " + peer.url + " did not answer in " + peerCallTimeout + "ms");
+                    results.put(peer, Boolean.FALSE);
+                }
+            }
+            boolean changed = false;
+            synchronized (this) {
+                for (Map.Entry<Peer, Boolean> result : results.entrySet()) {
+                    Peer peer = result.getKey();
+                    boolean live = peer.live;
+                    if (result.getValue().booleanValue()) {
+                        peer.missed = 0;
+                        peer.live = true;
+                    } else if (!live || ++peer.missed >= missedHeartbeats) {
+                        peer.live = false;
+                        disconnect(peer);
+                    }
+                    if (live != peer.live) {
+                        LOGGER.log(Level.INFO, "Peer " + peer.url + (peer.live ? " joined" : " left"));
+                        changed = true;
+                    }
+                }
+            }
+            if (changed) {
+                rebuildRing();
+            }
+        }
+    }
+
+// --------------------- Interface MBeanRegistration ---------------------
+
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        localServer = server;
+        if (getMBeanServer() == null) {
+            //not installed on a connector, forward to the local mbeanserver
+            setMBeanServer(server);
+        }
+        return name;
+    }
+
+    public void postRegister(Boolean registrationDone) {
+        if (registrationDone.booleanValue()) {
+            try {
+                start();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to start the peer connector " + selfUrl, e);
+            }
+        }
+    }
+
+    public void preDeregister() throws Exception {
+        stop();
+        heartbeatScheduler.shutdownNow();
+        peerExecutor.shutdownNow();
+    }
+
+    public void postDeregister() {
+    }
+
+// -------------------------- forwarded calls --------------------------
+
+    public Set<ObjectInstance> queryMBeans(final ObjectName name, final QueryExp query) {
+        Set<ObjectInstance> result = new HashSet<ObjectInstance>(super.queryMBeans(name, query));
+        for (Set<ObjectInstance> instances : queryPeers(new PeerQuery<Set<ObjectInstance>>() {
+            public Set<ObjectInstance> query(MBeanServerConnection connection) throws IOException {
+                return connection.queryMBeans(name, query);
+            }
+        })) {
+            result.addAll(instances);
+        }
+        return result;
+    }
+
+    public Set<ObjectName> queryNames(final ObjectName name, final QueryExp query) {
+        Set<ObjectName> result = new HashSet<ObjectName>(super.queryNames(name, query));
+        for (Set<ObjectName> names : queryPeers(new PeerQuery<Set<ObjectName>>() {
+            public Set<ObjectName> query(MBeanServerConnection connection) throws IOException {
+                return connection.queryNames(name, query);
+            }
+        })) {
+            result.addAll(names);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the local mbeans and, of each peer, only the proxies of the
+     * remotes it owns: the mbeans every FocalServer registers itself and
+     * the remotes still imported here while their ownership moves are
+     * counted once.
+     */
+    public Integer getMBeanCount() {
+        int count = super.getMBeanCount().intValue();
+        ConsistentHashRing current = ring;
+        if (current == null) {
+            return Integer.valueOf(count);
+        }
+        Map<String, Set<String>> owned = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, String> remote : known.entrySet()) {
+            String owner = current.owner(remote.getValue());
+            if (!owned.containsKey(owner)) {
+                owned.put(owner, new HashSet<String>());
+            }
+            owned.get(owner).add(remote.getKey());
+        }
+        Map<Peer, PeerQuery<Integer>> queries = new LinkedHashMap<Peer, PeerQuery<Integer>>();
+        for (Peer peer : otherPeers()) {
+            final Set<String> domains = owned.get(peer.url);
+            if (domains == null) {
+                continue;
+            }
+            queries.put(peer, new PeerQuery<Integer>() {
+                public Integer query(MBeanServerConnection connection) throws IOException {
+                    int local = 0;
+                    for (String domain : domains) {
+                        for (ObjectName name : connection.queryNames(domainPattern(domain), null)) {
+                            if (!Federation.super.isRegistered(name)) {
+                                local++;
+                            }
+                        }
+                    }
+                    return Integer.valueOf(local);
+                }
+            });
+        }
+        for (Integer peerCount : queryPeers(queries)) {
+            count += peerCount.intValue();
+        }
+        return Integer.valueOf(count);
+    }
+
+    public String[] getDomains() {
+        Set<String> domains = new HashSet<String>(Arrays.asList(super.getDomains()));
+        for (String[] peerDomains : queryPeers(new PeerQuery<String[]>() {
+            public String[] query(MBeanServerConnection connection) throws IOException {
+                return connection.getDomains();
+            }
+        })) {
+            domains.addAll(Arrays.asList(peerDomains));
+        }
+        return domains.toArray(new String[domains.size()]);
+    }
+
+    public ObjectInstance getObjectInstance(ObjectName name)
+            throws InstanceNotFoundException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.getObjectInstance(name);
+        }
+        try {
+            return peer.getObjectInstance(name);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public boolean isRegistered(ObjectName name) {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.isRegistered(name);
+        }
+        try {
+            return peer.isRegistered(name);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public Object getAttribute(ObjectName name, String attribute)
+            throws MBeanException, AttributeNotFoundException,
+            InstanceNotFoundException, ReflectionException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.getAttribute(name, attribute);
+        }
+        try {
+            return peer.getAttribute(name, attribute);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public AttributeList getAttributes(ObjectName name, String[] attributes)
+            throws InstanceNotFoundException, ReflectionException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.getAttributes(name, attributes);
+        }
+        try {
+            return peer.getAttributes(name, attributes);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void setAttribute(ObjectName name, Attribute attribute)
+            throws InstanceNotFoundException, AttributeNotFoundException,
+            InvalidAttributeValueException, MBeanException,
+            ReflectionException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            super.setAttribute(name, attribute);
+            return;
+        }
+        try {
+            peer.setAttribute(name, attribute);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public AttributeList setAttributes(ObjectName name, AttributeList attributes)
+            throws InstanceNotFoundException, ReflectionException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.setAttributes(name, attributes);
+        }
+        try {
+            return peer.setAttributes(name, attributes);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public Object invoke(
+            ObjectName name, String operationName, Object[] params,
+            String[] signature
+    ) throws InstanceNotFoundException, MBeanException, ReflectionException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.invoke(name, operationName, params, signature);
+        }
+        try {
+            return peer.invoke(name, operationName, params, signature);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public MBeanInfo getMBeanInfo(ObjectName name)
+            throws InstanceNotFoundException, IntrospectionException,
+            ReflectionException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.getMBeanInfo(name);
+        }
+        try {
+            return peer.getMBeanInfo(name);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public boolean isInstanceOf(ObjectName name, String className)
+            throws InstanceNotFoundException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            return super.isInstanceOf(name, className);
+        }
+        try {
+            return peer.isInstanceOf(name, className);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void addNotificationListener(
+            ObjectName name, NotificationListener listener,
+            NotificationFilter filter, Object handback
+    ) throws InstanceNotFoundException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            super.addNotificationListener(name, listener, filter, handback);
+            return;
+        }
+        try {
+            peer.addNotificationListener(name, listener, filter, handback);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void removeNotificationListener(
+            ObjectName name, NotificationListener listener
+    ) throws InstanceNotFoundException, ListenerNotFoundException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            super.removeNotificationListener(name, listener);
+            return;
+        }
+        try {
+            peer.removeNotificationListener(name, listener);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void removeNotificationListener(
+            ObjectName name, NotificationListener listener,
+            NotificationFilter filter, Object handback
+    ) throws InstanceNotFoundException, ListenerNotFoundException {
+        MBeanServerConnection peer = peerFor(name);
+        if (peer == null) {
+            super.removeNotificationListener(name, listener, filter, handback);
+            return;
+        }
+        try {
+            peer.removeNotificationListener(name, listener, filter, handback);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Starts the peer connector on the local mbeanserver and checks the peers once
+     */
+    public void start() throws IOException {
+        synchronized (this) {
+            if (selfUrl == null) {
+                throw new IllegalStateException("selfUrl is not set");
+            }
+            if (peerServer == null) {
+                MBeanServer server = localServer != null ? localServer : getMBeanServer();
+                peerServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                        new JMXServiceURL(selfUrl), null, server
+                );
+                peerServer.start();
+                LOGGER.log(Level.INFO, "Peer connector started on " + peerServer.getAddress());
+            }
+        }
+        heartbeat();
+        synchronized (this) {
+            if (heartbeatTask == null && peerServer != null) {
+                scheduleHeartbeat();
+            }
+        }
+    }
+
+    public synchronized void stop() throws IOException {
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+            heartbeatTask = null;
+        }
+        for (Peer peer : peers.values()) {
+            peer.live = false;
+            disconnect(peer);
+        }
+        if (peerServer != null) {
+            peerServer.stop();
+            peerServer = null;
+        }
+    }
+
+    private void scheduleHeartbeat() {
+        heartbeatTask = heartbeatScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                heartbeat();
+            }
+        }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Connects to a peer that is down, or pings it, on a peer thread
+     */
+    private class PeerCheck implements Callable<Boolean> {
+        private final Peer peer;
+        /**
+         * set when the heartbeat stopped waiting, a connector made later is closed
+         */
+        private boolean abandoned;
+
+        PeerCheck(Peer peer) {
+            this.peer = peer;
+        }
+
+        public Boolean call() throws IOException {
+            MBeanServerConnection connection = peer.connection;
+            if (connection == null) {
+                JMXConnector connector = JMXConnectorFactory.connect(new JMXServiceURL(peer.url), null);
+                connection = connector.getMBeanServerConnection();
+                synchronized (Federation.this) {
+                    if (!abandoned) {
+                        disconnect(peer);
+                        peer.connector = connector;
+                        peer.connection = connection;
+                        connector = null;
+                    }
+                }
+                if (connector != null) {
+                    closeQuietly(connector);
+                    return Boolean.FALSE;
+                }
+            }
+            connection.getMBeanCount();
+            return Boolean.TRUE;
+        }
+
+        void abandon() {
+            synchronized (Federation.this) {
+                abandoned = true;
+            }
+        }
+    }
+
+    private void abandon(Map<PeerCheck, Future<Boolean>> futures) {
+        for (Map.Entry<PeerCheck, Future<Boolean>> future : futures.entrySet()) {
+            future.getKey().abandon();
+            future.getValue().cancel(true);
+        }
+    }
+
+    private void disconnect(Peer peer) {
+        JMXConnector connector = peer.connector;
+        peer.connection = null;
+        peer.connector = null;
+        if (connector != null) {
+            closeQuietly(connector);
+        }
+    }
+
+    private static void closeQuietly(JMXConnector connector) {
+        try {
+            connector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+        }
+    }
+
+    private static ObjectName domainPattern(String domain) throws IOException {
+        try {
+            return new ObjectName(domain + ":*");
+        } catch (MalformedObjectNameException e) {
+            throw new IOException("Illegal domain " + domain, e);
+        }
+    }
+
+    /**
+     * @return the peers other than this FocalServer, which may be listed among them
+     */
+    private List<Peer> otherPeers() {
+        List<Peer> result = new ArrayList<Peer>();
+        String self = selfUrl;
+        for (Peer peer : peers.values()) {
+            if (!peer.url.equals(self)) {
+                result.add(peer);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the ring from self and the live peers and tells
+     * the finder to import or drop the remotes that moved
+     */
+    private void rebuildRing() {
+        if (selfUrl == null) {
+            return;
+        }
+        List<String> members = new ArrayList<String>();
+        members.add(selfUrl);
+        for (Peer peer : otherPeers()) {
+            if (peer.live) {
+                members.add(peer.url);
+            }
+        }
+        ring = new ConsistentHashRing(members, virtualNodes);
+        LOGGER.log(Level.INFO, "Federation members " + ring.getMembers());
+        OwnershipListener listener = ownershipListener;
+        if (listener != null) {
+            listener.ownershipChanged();
+        }
+    }
+
+    /**
+     * @return the connection to the peer owning the remote of the name,
+     *         null if the name is served locally
+     */
+    private MBeanServerConnection peerFor(ObjectName name) {
+        if (name == null || name.isPattern()) {
+            return null;
+        }
+        String url = known.get(name.getDomain());
+        ConsistentHashRing current = ring;
+        if (url == null || current == null) {
+            return null;
+        }
+        String owner = current.owner(url);
+        if (owner.equals(selfUrl) || super.isRegistered(name)) {
+            //owned here, or still imported here while the ownership moves
+            return null;
+        }
+        Peer peer = peers.get(owner);
+        MBeanServerConnection connection = peer == null ? null : peer.connection;
+        if (connection == null) {
+            throw new MBeanProxyException("Peer " + owner + " is not connected");
+        }
+        return connection;
+    }
+
+    /**
+     * A query answered by each live peer
+     */
+    private interface PeerQuery<T> {
+        T query(MBeanServerConnection connection) throws IOException;
+    }
+
+    /**
+     * Runs the query on every live peer in parallel, peers failing or
+     * exceeding peerCallTimeout are left out of the result
+     */
+    private <T> List<T> queryPeers(PeerQuery<T> query) {
+        Map<Peer, PeerQuery<T>> queries = new LinkedHashMap<Peer, PeerQuery<T>>();
+        for (Peer peer : otherPeers()) {
+            queries.put(peer, query);
+        }
+        return queryPeers(queries);
+    }
+
+    /**
+     * Runs the query of each live peer in parallel, peers failing or
+     * exceeding peerCallTimeout are left out of the result
+     */
+    private <T> List<T> queryPeers(Map<Peer, PeerQuery<T>> queries) {
+        Map<Peer, Future<T>> futures = new LinkedHashMap<Peer, Future<T>>();
+        for (Map.Entry<Peer, PeerQuery<T>> entry : queries.entrySet()) {
+            Peer peer = entry.getKey();
+            final PeerQuery<T> query = entry.getValue();
+            final MBeanServerConnection connection = peer.connection;
+            if (!peer.live || connection == null) {
+                continue;
+            }
+            futures.put(peer, peerExecutor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    return query.query(connection);
+                }
+            }));
+        }
+        List<T> result = new ArrayList<T>();
+        long deadline = System.currentTimeMillis() + peerCallTimeout;
+        for (Map.Entry<Peer, Future<T>> future : futures.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                result.add(future.getValue().get(remaining, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINE, "Peer query failed on " + future.getKey().url, e.getCause());
+            } catch (TimeoutException e) {
+                future.getValue().cancel(true);
+                LOGGER.log(Level.FINE, "Peer query timed out on " + future.getKey().url, e);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+/**
+ * Manage the FocalServer federation: the peers sharing the remote
+ * mbeanservers and the ownership of each remote
+ */
+public interface FederationMBean {
+
+    /**
+     * service url of the peer connector of this FocalServer, its identity on the ring
+     *
+     * @return
+     */
+    String getSelfUrl();
+
+    /**
+     * peer service urls with their state
+     *
+     * @return
+     */
+    String[] getPeers();
+
+    /**
+     * FocalServers currently sharing the remote mbeanservers, this one included
+     *
+     * @return
+     */
+    String[] getMembers();
+
+    /**
+     * number of remote mbeanservers discovered
+     *
+     * @return
+     */
+    int getKnownRemoteCount();
+
+    /**
+     * number of discovered remote mbeanservers imported by this FocalServer
+     *
+     * @return
+     */
+    int getOwnedRemoteCount();
+
+    /**
+     * the FocalServer importing a remote mbeanserver
+     *
+     * @return the self url of the owning FocalServer
+     */
+    String getOwner(String url);
+
+    /**
+     * time between two checks of the peers
+     *
+     * @return milliseconds
+     */
+    long getHeartbeatMillis();
+
+    void setHeartbeatMillis(long heartbeatMillis);
+
+    /**
+     * checks the peers now and rebalances if one joined or left
+     */
+    void heartbeat();
+}
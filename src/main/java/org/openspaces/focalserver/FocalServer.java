@@ -18,12 +18,28 @@ package org.openspaces.focalserver;
 import java.io.IOException;
 import java.rmi.RMISecurityManager;
 import java.security.Permission;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.management.InstanceNotFoundException;
+import javax.management.MBeanException;
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
 import javax.management.MBeanServerNotification;
@@ -45,13 +61,31 @@ FocalServerMBean
 {
 	public final static Logger LOGGER = Logger.getLogger(FocalServer.class.getName());
 
+	public static final int DEFAULT_INVOKE_CONCURRENCY = 4;
+	public static final int DEFAULT_INVOKE_THREADS = 64;
+	private static final int MAX_RESULT_LENGTH = 200;
+	private static final String OK = "ok ";
+
 	// ------------------------------ FIELDS ------------------------------
 	protected MBeanServer mbeanServer;
+	/**
+	 * invokeAll calls in progress per remote mbeanserver
+	 */
+	private volatile int invokeConcurrency = DEFAULT_INVOKE_CONCURRENCY;
+	/**
+	 * runs invokeAll, each task drains the targets of one remote
+	 */
+	private final ThreadPoolExecutor invokeExecutor;
 
 	// --------------------------- CONSTRUCTORS ---------------------------
 
 	public FocalServer() {
 		installSecurityManager();
+		invokeExecutor = new ThreadPoolExecutor(
+				DEFAULT_INVOKE_THREADS, DEFAULT_INVOKE_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("FocalServer-invoke")
+				);
+		invokeExecutor.allowCoreThreadTimeOut(true);
 	}
 
 	/**
@@ -84,6 +118,106 @@ FocalServerMBean
 		System.exit(0);
 	}
 
+	public String[] invokeAll(String pattern, String operationName)
+			throws MalformedObjectNameException {
+		return invokeAll(pattern, operationName, new Object[0], new String[0]);
+	}
+
+	public String[] invokeAll(
+			String pattern, final String operationName, final Object[] params,
+			final String[] signature
+			) throws MalformedObjectNameException {
+		long start = System.currentTimeMillis();
+		//targets by remote mbeanserver, which is the domain of its proxies
+		Map<String, Queue<ObjectName>> targets = new HashMap<String, Queue<ObjectName>>();
+		List<ObjectName> names = new ArrayList<ObjectName>();
+		for (ObjectName name : mbeanServer.queryNames(ObjectName.getInstance(pattern), null)) {
+			Queue<ObjectName> queue = targets.get(name.getDomain());
+			if (queue == null) {
+				queue = new ConcurrentLinkedQueue<ObjectName>();
+				targets.put(name.getDomain(), queue);
+			}
+			queue.add(name);
+			names.add(name);
+		}
+		final Map<String, String> results = new TreeMap<String, String>();
+		//set when the caller gives up, lanes then stop taking targets
+		final AtomicBoolean stopped = new AtomicBoolean();
+		List<Future<?>> lanes = new ArrayList<Future<?>>();
+		for (final Queue<ObjectName> queue : targets.values()) {
+			int width = Math.min(invokeConcurrency, queue.size());
+			for (int i = 0; i < width; i++) {
+				lanes.add(invokeExecutor.submit(new Runnable() {
+					public void run() {
+						ObjectName name;
+						while (!stopped.get() && (name = queue.poll()) != null) {
+							String result = invoke(name, operationName, params, signature);
+							synchronized (results) {
+								if (!stopped.get()) {
+									results.put(name.toString(), result);
+								}
+							}
+						}
+					}
+				}));
+			}
+		}
+		for (Future<?> lane : lanes) {
+			try {
+				lane.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				LOGGER.log(Level.WARNING, e.toString(), e);
+			}
+		}
+		List<String> summary = new ArrayList<String>();
+		synchronized (results) {
+			//results are final from here, even if interrupted while lanes still run
+			stopped.set(true);
+			int ok = 0;
+			int failed = 0;
+			for (String result : results.values()) {
+				if (result.startsWith(OK)) {
+					ok++;
+				} else {
+					failed++;
+				}
+			}
+			int skipped = names.size() - results.size();
+			summary.add(operationName + " on " + names.size() + " mbeans of " + targets.size() + " remotes: "
+					+ ok + " ok, " + failed + " failed" + (skipped > 0 ? ", " + skipped + " skipped" : "")
+					+ " in " + (System.currentTimeMillis() - start) + "ms");
+			for (Map.Entry<String, String> result : results.entrySet()) {
+				summary.add(result.getKey() + " " + result.getValue());
+			}
+			if (skipped > 0) {
+				Set<String> remaining = new TreeSet<String>();
+				for (ObjectName name : names) {
+					if (!results.containsKey(name.toString())) {
+						remaining.add(name.toString());
+					}
+				}
+				for (String name : remaining) {
+					summary.add(name + " skipped");
+				}
+			}
+		}
+		return summary.toArray(new String[summary.size()]);
+	}
+
+	public int getInvokeConcurrency() {
+		return invokeConcurrency;
+	}
+
+	public void setInvokeConcurrency(int invokeConcurrency) {
+		if (invokeConcurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be positive: " + invokeConcurrency);
+		}
+		this.invokeConcurrency = invokeConcurrency;
+	}
+
 	// --------------------- Interface MBeanRegistration ---------------------
 
 	public ObjectName preRegister(MBeanServer mBeanServer, ObjectName objectName) throws Exception {
@@ -98,6 +232,7 @@ FocalServerMBean
 	}
 
 	public void preDeregister() throws Exception {
+		invokeExecutor.shutdownNow();
 	}
 
 	public void postDeregister() {
@@ -124,6 +259,40 @@ FocalServerMBean
 
 	// -------------------------- OTHER METHODS --------------------------
 
+	/**
+	 * @param virtualThreads a virtual thread per call if the JDK supports it
+	 * @return a non-blocking client of the local mbeanserver, the caller closes it
+	 */
+	public AsyncMBeanClient newAsyncClient(boolean virtualThreads) {
+		if (mbeanServer == null) {
+			throw new IllegalStateException("Not registered");
+		}
+		return AsyncMBeanClient.create(mbeanServer, virtualThreads);
+	}
+
+	/**
+	 * @return the outcome line of one target, starting with OK if the call succeeded
+	 */
+	private String invoke(
+			ObjectName name, String operationName, Object[] params, String[] signature
+			) {
+		long start = System.currentTimeMillis();
+		try {
+			Object result = mbeanServer.invoke(name, operationName, params, signature);
+			return OK + (System.currentTimeMillis() - start) + "ms " + abbreviate(String.valueOf(result));
+		} catch (Exception e) {
+			Throwable cause = e;
+			if (e instanceof MBeanException && e.getCause() != null) {
+				cause = e.getCause();
+			}
+			return "failed " + (System.currentTimeMillis() - start) + "ms " + abbreviate(cause.toString());
+		}
+	}
+
+	private static String abbreviate(String text) {
+		return text.length() <= MAX_RESULT_LENGTH ? text : text.substring(0, MAX_RESULT_LENGTH) + "...";
+	}
+
 	private void listenForRegistration() {
 		Logger logger = Logger.getLogger(FocalServer.class.getName());
 		try {
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.openspaces.focalserver;
 
+import javax.management.MalformedObjectNameException;
+
 /**
  * MBean interface to manage the FocalServer itself
  */
@@ -24,4 +26,34 @@ public interface FocalServerMBean {
      * Shuts down FocalServer process
      */
     void shutdown();
+
+    /**
+     * Invokes an operation on every mbean matching the pattern in parallel,
+     * with at most invokeConcurrency calls in progress per remote mbeanserver
+     *
+     * @param pattern       ObjectName pattern of the proxy mbeans
+     * @param operationName operation to invoke
+     * @param params        operation arguments
+     * @param signature     class names of the arguments
+     * @return a summary line with the overall latency, then one line per target,
+     *         targets not called because the caller was interrupted are listed as skipped
+     */
+    String[] invokeAll(String pattern, String operationName, Object[] params, String[] signature)
+            throws MalformedObjectNameException;
+
+    /**
+     * invokes an operation without arguments, such as gc, on every matching mbean
+     *
+     * @return a summary line with the overall latency, then one line per target
+     */
+    String[] invokeAll(String pattern, String operationName) throws MalformedObjectNameException;
+
+    /**
+     * maximum number of invokeAll calls in progress per remote mbeanserver
+     *
+     * @return calls per remote mbeanserver
+     */
+    int getInvokeConcurrency();
+
+    void setInvokeConcurrency(int invokeConcurrency);
 }
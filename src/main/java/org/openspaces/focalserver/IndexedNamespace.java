@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+/**
+ * An MBeanServerForwarder that answers pattern queries on the proxy mbeans
+ * from an inverted index of their names, maintained by the
+ * JMXConnectionFinder as it registers and unregisters proxies. A pattern
+ * such as *:type=Space,* intersects the names having type=Space with the
+ * other literal parts of the pattern instead of scanning every mbean.
+ * Domains without proxies are still queried on the local mbeanserver,
+ * one domain at a time.
+ * <p>
+ * Install it on the connector server through the connectorServer property
+ * and hand it to the JMXConnectionFinder through its indexedNamespace property.
+ */
+public class IndexedNamespace extends MBeanServerForwarderSupport
+        implements IndexedNamespaceMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            IndexedNamespace.class.getName()
+    );
+
+    private final NameIndex index = new NameIndex();
+    private final AtomicLong indexedQueries = new AtomicLong();
+    private final AtomicLong unindexedQueries = new AtomicLong();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+// -------------------------- index maintenance --------------------------
+
+    void add(ObjectName localName) {
+        index.add(localName);
+    }
+
+    void remove(ObjectName localName) {
+        index.remove(localName);
+    }
+
+// --------------------- Interface IndexedNamespaceMBean ---------------------
+
+    public int getIndexedNameCount() {
+        return index.size();
+    }
+
+    public int getPostingCount() {
+        return index.getPostingCount();
+    }
+
+    public long getIndexedQueryCount() {
+        return indexedQueries.get();
+    }
+
+    public long getUnindexedQueryCount() {
+        return unindexedQueries.get();
+    }
+
+    public String getQueryLatency() {
+        return queryLatency.toString();
+    }
+
+    public String[] explain(String pattern) throws MalformedObjectNameException {
+        ObjectName name = ObjectName.getInstance(pattern);
+        List<String> result = new ArrayList<String>();
+        if (!isIndexed(name)) {
+            result.add("unindexed, answered by the mbeanserver");
+            return result.toArray(new String[result.size()]);
+        }
+        long start = System.nanoTime();
+        NameIndex.Result indexed = index.query(name);
+        long indexedNanos = System.nanoTime() - start;
+        result.add("intersect " + indexed.getPlan());
+        result.add("candidates=" + indexed.getCandidates() + " matched=" + indexed.getNames().size()
+                + " in " + indexedNanos / 1000 + "us");
+        List<String> domains = new ArrayList<String>();
+        start = System.nanoTime();
+        int matched = queryLocalNames(name, null, domains).size();
+        result.add("local domains " + domains + " matched=" + matched
+                + " in " + (System.nanoTime() - start) / 1000 + "us");
+        return result.toArray(new String[result.size()]);
+    }
+
+// -------------------------- indexed queries --------------------------
+
+    public void unregisterMBean(ObjectName name)
+            throws InstanceNotFoundException, MBeanRegistrationException {
+        super.unregisterMBean(name);
+        index.remove(name);
+    }
+
+    public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query) {
+        if (!isIndexed(name)) {
+            unindexedQueries.incrementAndGet();
+            return super.queryMBeans(name, query);
+        }
+        long start = System.nanoTime();
+        Set<ObjectInstance> result = new HashSet<ObjectInstance>();
+        for (ObjectName indexed : queryIndex(name, query)) {
+            try {
+                result.add(getMBeanServer().getObjectInstance(indexed));
+            } catch (InstanceNotFoundException e) {
+                //unregistered meanwhile
+                LOGGER.log(Level.FINEST, e.toString(), e);
+            }
+        }
+        for (String domain : localDomains(name)) {
+            result.addAll(super.queryMBeans(inDomain(domain, name), query));
+        }
+        queryLatency.record(System.nanoTime() - start);
+        return result;
+    }
+
+    public Set<ObjectName> queryNames(ObjectName name, QueryExp query) {
+        if (!isIndexed(name)) {
+            unindexedQueries.incrementAndGet();
+            return super.queryNames(name, query);
+        }
+        long start = System.nanoTime();
+        Set<ObjectName> result = queryIndex(name, query);
+        result.addAll(queryLocalNames(name, query, null));
+        queryLatency.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * @return true for a pattern with a literal key property, the mbeanserver
+     *         already looks up exact names and scans literal domains alone
+     */
+    private static boolean isIndexed(ObjectName name) {
+        if (name == null || !name.isPattern()) {
+            return false;
+        }
+        for (String key : name.getKeyPropertyList().keySet()) {
+            if (!name.isPropertyValuePattern(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<ObjectName> queryIndex(ObjectName name, QueryExp query) {
+        indexedQueries.incrementAndGet();
+        Set<ObjectName> names = index.query(name).getNames();
+        if (query == null) {
+            return names;
+        }
+        Set<ObjectName> result = new HashSet<ObjectName>();
+        for (ObjectName indexed : names) {
+            if (applyQuery(query, indexed)) {
+                result.add(indexed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Queries the domains without proxies one by one, the mbeanserver
+     * then only scans the mbeans of a matching domain
+     *
+     * @param queried collects the domains queried, may be null
+     */
+    private Set<ObjectName> queryLocalNames(
+            ObjectName name, QueryExp query, List<String> queried
+    ) {
+        Set<ObjectName> result = new HashSet<ObjectName>();
+        for (String domain : localDomains(name)) {
+            if (queried != null) {
+                queried.add(domain);
+            }
+            result.addAll(super.queryNames(inDomain(domain, name), query));
+        }
+        return result;
+    }
+
+    /**
+     * @return the local domains without proxies that match the domain of the pattern
+     */
+    private List<String> localDomains(ObjectName name) {
+        List<String> result = new ArrayList<String>();
+        if (!name.isDomainPattern()) {
+            if (!index.containsDomain(name.getDomain())) {
+                result.add(name.getDomain());
+            }
+            return result;
+        }
+        Set<String> indexed = index.getDomains();
+        for (String domain : getMBeanServer().getDomains()) {
+            if (!indexed.contains(domain) && NameIndex.matches(name.getDomain(), domain)) {
+                result.add(domain);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the pattern with its domain replaced by a literal domain
+     */
+    private static ObjectName inDomain(String domain, ObjectName name) {
+        String canonical = name.getCanonicalName();
+        try {
+            return ObjectName.getInstance(
+                    domain + canonical.substring(canonical.indexOf(':'))
+            );
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e.toString(), e);
+        }
+    }
+
+    private boolean applyQuery(QueryExp query, ObjectName name) {
+        if (query == null) {
+            return true;
+        }
+        try {
+            query.setMBeanServer(this);
+            return query.apply(name);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINEST, e.toString(), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import javax.management.MalformedObjectNameException;
+
+/**
+ * Manage the key property index of the proxy mbean names
+ */
+public interface IndexedNamespaceMBean {
+
+    /**
+     * number of proxy mbean names in the index
+     *
+     * @return
+     */
+    int getIndexedNameCount();
+
+    /**
+     * number of distinct key=value pairs in the index
+     *
+     * @return
+     */
+    int getPostingCount();
+
+    /**
+     * number of pattern queries answered by the index
+     *
+     * @return
+     */
+    long getIndexedQueryCount();
+
+    /**
+     * number of queries passed to the mbeanserver, names and patterns without a literal part
+     *
+     * @return
+     */
+    long getUnindexedQueryCount();
+
+    /**
+     * count, p50, p99 and max of the indexed queries
+     *
+     * @return
+     */
+    String getQueryLatency();
+
+    /**
+     * runs a query and shows how it was answered: the postings intersected
+     * with their sizes, the candidates matched and the local domains queried
+     *
+     * @return
+     */
+    String[] explain(String pattern) throws MalformedObjectNameException;
+}
@@ -17,15 +17,34 @@ package org.openspaces.focalserver;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.rmi.RMISecurityManager;
 import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
+import javax.management.JMRuntimeException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanInfo;
 import javax.management.MBeanRegistration;
 import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
@@ -36,6 +55,7 @@ import javax.management.NotCompliantMBeanException;
 import javax.management.Notification;
 import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
@@ -68,12 +88,42 @@ public class JMXConnectionFinder
      * mbeans must not use this key to avoid conflict
      */
     public static final String REMOTE_DOMAIN = "remoteDomain";
+    /**
+     * registered by every FocalServer, a remote that has it is an upstream FocalServer
+     */
+    static final String FINDER_NAME = "com.gigaspaces.focalserver:type=JMXConnectionFinder";
+    public static final int DEFAULT_BOOTSTRAP_THREADS = 16;
+    public static final int DEFAULT_NOTIFICATION_THREADS = 4;
+    public static final int DEFAULT_REGISTRATION_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_REGISTRATION_BATCH_SIZE = 500;
+    public static final long DEFAULT_RECONNECT_INITIAL_DELAY = 1000;
+    public static final long DEFAULT_RECONNECT_MAX_DELAY = 60000;
+    public static final int DEFAULT_PASS_THROUGH_ATTEMPTS = 5;
 
     final public static String[] DEFAULT_GROUPS = LookupDiscovery.ALL_GROUPS;
     final public static LookupLocator[] DEFAULT_LOCATORS = new LookupLocator[0];
     private static final Logger LOGGER = Logger.getLogger(
             JMXConnectionFinder.class.getName()
     );
+    /**
+     * jmxServiceURL field per Entry class, null if it has none.
+     * Unlike a map keyed by class it does not keep codebase classes
+     * of discovered services from being unloaded.
+     */
+    private static final ClassValue<Field> SERVICE_URL_FIELDS = new ClassValue<Field>() {
+        protected Field computeValue(Class<?> entryClass) {
+            try {
+                Field field = entryClass.getField("jmxServiceURL");
+                if (field.getType() != String.class
+                        || Modifier.isStatic(field.getModifiers())) {
+                    return null;
+                }
+                return field;
+            } catch (NoSuchFieldException e) {
+                return null;
+            }
+        }
+    };
 
     /**
      * controls Jini group and locators
@@ -85,6 +135,75 @@ public class JMXConnectionFinder
      * reference to local mbeanserver that is currently registered to
      */
     private MBeanServer mbeanServer;
+    /**
+     * MBeanInfo shared by all proxies, identical infos are stored once
+     */
+    private final MBeanInfoCache infoCache = new MBeanInfoCache();
+    /**
+     * discovered remote mbeanservers by jmx service url
+     */
+    private final ConcurrentMap<String, RemoteServer> remotes
+            = new ConcurrentHashMap<String, RemoteServer>();
+    /**
+     * urls learned only from an upstream FocalServer, to the url of that upstream
+     */
+    private final ConcurrentMap<String, String> learnedRemotes
+            = new ConcurrentHashMap<String, String>();
+    /**
+     * connects and imports remote mbeanservers off the discovery thread
+     */
+    private final ThreadPoolExecutor bootstrapExecutor;
+    /**
+     * applies queued remote registration changes
+     */
+    private final ThreadPoolExecutor notificationExecutor;
+    private volatile int registrationQueueCapacity = DEFAULT_REGISTRATION_QUEUE_CAPACITY;
+    private volatile int registrationBatchSize = DEFAULT_REGISTRATION_BATCH_SIZE;
+    /**
+     * deadlines, concurrency limit and circuit breaker settings of remote calls
+     */
+    private final CallPolicy callPolicy = new CallPolicy();
+    /**
+     * emits attribute change notifications for remote mbeans that do not
+     */
+    private final AttributePoller attributePoller = new AttributePoller();
+    /**
+     * call latencies and bootstrap timings, published as a separate mbean
+     */
+    private volatile Metrics metrics = new Metrics();
+    /**
+     * delays reconnect attempts, the attempts run on the bootstrap pool
+     */
+    private final ScheduledExecutorService reconnectScheduler
+            = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("FocalServer-reconnect")
+            );
+    private final Random jitter = new Random();
+    private volatile long reconnectInitialDelay = DEFAULT_RECONNECT_INITIAL_DELAY;
+    private volatile long reconnectMaxDelay = DEFAULT_RECONNECT_MAX_DELAY;
+    private volatile int passThroughAttempts = DEFAULT_PASS_THROUGH_ATTEMPTS;
+    /**
+     * when set, remote mbeans are served by the namespace instead of
+     * registering a proxy mbean for each of them
+     */
+    private VirtualNamespace virtualNamespace;
+    /**
+     * selects the remote mbeans to import, replaced as a whole when changed
+     */
+    private volatile ObjectNameFilter importFilter = ObjectNameFilter.ALL;
+    /**
+     * persists the imported topology so a restart serves it before
+     * discovery, may be null
+     */
+    private WarmStartCache warmStartCache;
+    /**
+     * indexes the names of the registered proxy mbeans, may be null
+     */
+    private volatile IndexedNamespace indexedNamespace;
+    /**
+     * when set, only the remotes owned by this FocalServer are imported
+     */
+    private volatile Federation federation;
 
 // --------------------------- CONSTRUCTORS ---------------------------
 
@@ -94,12 +213,37 @@ public class JMXConnectionFinder
      * Get a reference to the MBeanServer running in this VM
      */
     public JMXConnectionFinder() throws Exception {
-        if (System.getSecurityManager() == null) {
-            System.setSecurityManager(new RMISecurityManager());
+        this(true);
+    }
+
+    /**
+     * @param discovery false for a finder that only imports the remotes
+     *                  passed to its ServiceDiscoveryListener methods, used by benchmarks
+     */
+    JMXConnectionFinder(boolean discovery) throws Exception {
+        if (discovery) {
+            if (System.getSecurityManager() == null) {
+                System.setSecurityManager(new RMISecurityManager());
+            }
+            ldm = new LookupDiscoveryManager(
+                    DEFAULT_GROUPS, DEFAULT_LOCATORS, this, ServiceConfigLoader.getConfiguration()
+            );
         }
-        ldm = new LookupDiscoveryManager(
-                DEFAULT_GROUPS, DEFAULT_LOCATORS, this, ServiceConfigLoader.getConfiguration()
+        bootstrapExecutor = new ThreadPoolExecutor(
+                DEFAULT_BOOTSTRAP_THREADS, DEFAULT_BOOTSTRAP_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("FocalServer-bootstrap"),
+                //the queue is unbounded, only the tasks submitted after stop are dropped
+                new ThreadPoolExecutor.DiscardPolicy()
+        );
+        bootstrapExecutor.allowCoreThreadTimeOut(true);
+        notificationExecutor = new ThreadPoolExecutor(
+                DEFAULT_NOTIFICATION_THREADS, DEFAULT_NOTIFICATION_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("FocalServer-registration"),
+                new ThreadPoolExecutor.DiscardPolicy()
         );
+        notificationExecutor.allowCoreThreadTimeOut(true);
     }
 
 // ------------------------ INTERFACE METHODS ------------------------
@@ -186,6 +330,316 @@ public class JMXConnectionFinder
         ldm.setLocators(locators);
     }
 
+// --------------------- Interface JMXConnectionFinderMBean ---------------------
+
+    public int getCachedMBeanInfoCount() {
+        return infoCache.size();
+    }
+
+    public int getBootstrapThreads() {
+        return bootstrapExecutor.getMaximumPoolSize();
+    }
+
+    public void setBootstrapThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("bootstrap threads must be positive: " + threads);
+        }
+        if (threads > bootstrapExecutor.getMaximumPoolSize()) {
+            bootstrapExecutor.setMaximumPoolSize(threads);
+            bootstrapExecutor.setCorePoolSize(threads);
+        } else {
+            bootstrapExecutor.setCorePoolSize(threads);
+            bootstrapExecutor.setMaximumPoolSize(threads);
+        }
+    }
+
+    public int getPendingBootstrapCount() {
+        return bootstrapExecutor.getQueue().size();
+    }
+
+    public String[] getRemoteServers() {
+        List<String> result = new ArrayList<String>();
+        for (RemoteServer remote : remotes.values()) {
+            result.add(remote.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public int getProxiedMBeanCount() {
+        int count = 0;
+        for (RemoteServer remote : remotes.values()) {
+            count += remote.getProxyCount();
+        }
+        return count;
+    }
+
+    public String[] getProxiedMBeanCounts() {
+        List<String> result = new ArrayList<String>();
+        for (RemoteServer remote : remotes.values()) {
+            result.add(remote.getUrl() + "=" + remote.getProxyCount());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public String[] getProxiedRemoteUrls() {
+        Set<String> urls = remotes.keySet();
+        return urls.toArray(new String[urls.size()]);
+    }
+
+    public String[] listProxiedMBeans(String url) {
+        RemoteServer remote = remotes.get(url);
+        if (remote == null) {
+            return new String[0];
+        }
+        List<String> result = new ArrayList<String>();
+        for (ObjectName name : remote.getProxyNames()) {
+            result.add(name.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public int getRegistrationQueueCapacity() {
+        return registrationQueueCapacity;
+    }
+
+    public void setRegistrationQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be positive: " + capacity);
+        }
+        registrationQueueCapacity = capacity;
+    }
+
+    public int getRegistrationBatchSize() {
+        return registrationBatchSize;
+    }
+
+    public void setRegistrationBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        registrationBatchSize = batchSize;
+    }
+
+    public int getRegistrationQueueDepth() {
+        int depth = 0;
+        for (RemoteServer remote : remotes.values()) {
+            depth += remote.getRegistrationQueue().size();
+        }
+        return depth;
+    }
+
+    public long getReceivedRegistrationNotifications() {
+        long count = 0;
+        for (RemoteServer remote : remotes.values()) {
+            count += remote.getRegistrationQueue().getReceived();
+        }
+        return count;
+    }
+
+    public long getCoalescedRegistrationNotifications() {
+        long count = 0;
+        for (RemoteServer remote : remotes.values()) {
+            count += remote.getRegistrationQueue().getCoalesced();
+        }
+        return count;
+    }
+
+    public long getLostRegistrationNotifications() {
+        long count = 0;
+        for (RemoteServer remote : remotes.values()) {
+            count += remote.getRegistrationQueue().getLost();
+        }
+        return count;
+    }
+
+    public String[] getCallTimeouts() {
+        return callPolicy.getTimeouts();
+    }
+
+    public void setOperationTimeout(String operation, long millis) {
+        callPolicy.setTimeout(RemoteOperation.forName(operation), millis);
+    }
+
+    /**
+     * sets the deadline of all remote calls, 0 for none
+     */
+    public void setCallTimeout(long millis) {
+        callPolicy.setCallTimeout(millis);
+    }
+
+    /**
+     * sets the deadline of individual operations
+     *
+     * @param timeouts operation name (getAttribute, invoke...) to milliseconds
+     */
+    public void setOperationTimeouts(Map<String, Long> timeouts) {
+        for (Map.Entry<String, Long> entry : timeouts.entrySet()) {
+            setOperationTimeout(entry.getKey(), entry.getValue().longValue());
+        }
+    }
+
+    public int getMaxConcurrentCallsPerRemote() {
+        return callPolicy.getMaxConcurrentCalls();
+    }
+
+    public void setMaxConcurrentCallsPerRemote(int maxConcurrentCalls) {
+        callPolicy.setMaxConcurrentCalls(maxConcurrentCalls);
+    }
+
+    public int getMaxCallThreads() {
+        return callPolicy.getMaxCallThreads();
+    }
+
+    public void setMaxCallThreads(int threads) {
+        callPolicy.setMaxCallThreads(threads);
+    }
+
+    public int getCircuitFailureThreshold() {
+        return callPolicy.getFailureThreshold();
+    }
+
+    public void setCircuitFailureThreshold(int failures) {
+        callPolicy.setFailureThreshold(failures);
+    }
+
+    public long getCircuitOpenMillis() {
+        return callPolicy.getOpenMillis();
+    }
+
+    public void setCircuitOpenMillis(long millis) {
+        callPolicy.setOpenMillis(millis);
+    }
+
+    public long getReconnectInitialDelay() {
+        return reconnectInitialDelay;
+    }
+
+    public void setReconnectInitialDelay(long millis) {
+        reconnectInitialDelay = millis;
+    }
+
+    public long getReconnectMaxDelay() {
+        return reconnectMaxDelay;
+    }
+
+    public void setReconnectMaxDelay(long millis) {
+        reconnectMaxDelay = millis;
+    }
+
+    public int getPassThroughAttempts() {
+        return passThroughAttempts;
+    }
+
+    public void setPassThroughAttempts(int attempts) {
+        if (attempts < 1) {
+            throw new IllegalArgumentException("attempts must be positive: " + attempts);
+        }
+        passThroughAttempts = attempts;
+    }
+
+    public long getChangePollMinMillis() {
+        return attributePoller.getMinIntervalMillis();
+    }
+
+    public void setChangePollMinMillis(long millis) {
+        attributePoller.setMinIntervalMillis(millis);
+    }
+
+    public long getChangePollMaxMillis() {
+        return attributePoller.getMaxIntervalMillis();
+    }
+
+    public void setChangePollMaxMillis(long millis) {
+        attributePoller.setMaxIntervalMillis(millis);
+    }
+
+    public int getPolledAttributeCount() {
+        return attributePoller.getWatchedAttributeCount();
+    }
+
+    public long getChangePollCount() {
+        return attributePoller.getPollCount();
+    }
+
+    public long getEmulatedChangeNotificationCount() {
+        return attributePoller.getNotificationCount();
+    }
+
+    public int getStaleMBeanCount() {
+        int count = 0;
+        for (RemoteServer remote : remotes.values()) {
+            for (MBeanProxy proxy : remote.getProxies()) {
+                if (proxy.isStale()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public String[] getIncludePatterns() {
+        return importFilter.getIncludes();
+    }
+
+    public void setIncludePatterns(String[] patterns)
+            throws MalformedObjectNameException {
+        setImportFilter(ObjectNameFilter.parse(patterns, importFilter.getExcludes()));
+    }
+
+    public String[] getExcludePatterns() {
+        return importFilter.getExcludes();
+    }
+
+    public void setExcludePatterns(String[] patterns)
+            throws MalformedObjectNameException {
+        setImportFilter(ObjectNameFilter.parse(importFilter.getIncludes(), patterns));
+    }
+
+    /**
+     * replaces the metrics, so they can be exported as an mbean of their own
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setVirtualNamespace(VirtualNamespace virtualNamespace) {
+        this.virtualNamespace = virtualNamespace;
+        virtualNamespace.setImportFilter(importFilter);
+    }
+
+    public void setIndexedNamespace(IndexedNamespace indexedNamespace) {
+        this.indexedNamespace = indexedNamespace;
+    }
+
+    public void setFederation(Federation federation) {
+        this.federation = federation;
+        federation.setOwnershipListener(new Federation.OwnershipListener() {
+            public void ownershipChanged() {
+                bootstrapExecutor.execute(new Runnable() {
+                    public void run() {
+                        rebalance();
+                    }
+                });
+            }
+        });
+    }
+
+    public void setWarmStartCache(WarmStartCache warmStartCache) {
+        this.warmStartCache = warmStartCache;
+    }
+
+    /**
+     * @param virtualThreads a virtual thread per call if the JDK supports it
+     * @return a non-blocking client of the local mbeanserver and its proxies,
+     *         the caller closes it
+     */
+    public AsyncMBeanClient newAsyncClient(boolean virtualThreads) {
+        if (mbeanServer == null) {
+            throw new IllegalStateException("Not registered");
+        }
+        return AsyncMBeanClient.create(mbeanServer, virtualThreads);
+    }
+
 // --------------------- Interface MBeanRegistration ---------------------
 
     /**
@@ -204,6 +658,7 @@ public class JMXConnectionFinder
     public void postRegister(Boolean successful) {
         if (successful.booleanValue()) {
             try {
+                restoreWarmStart();
                 start();
             } catch (Exception e) {
                 LOGGER.log(Level.WARNING, "Failed to start", e);
@@ -212,6 +667,10 @@ public class JMXConnectionFinder
     }
 
     public void preDeregister() throws Exception {
+        if (warmStartCache != null) {
+            saveWarmStart();
+        }
+        stop();
     }
 
     public void postDeregister() {
@@ -226,7 +685,8 @@ public class JMXConnectionFinder
         ServiceItem item = event.getPostEventServiceItem();
         String url = extractConnectionURL(item);
         if (url != null) {
-            handleNewConnection(url);
+            learnedRemotes.remove(url);
+            handleAddedService(url);
         }
     }
 
@@ -234,12 +694,26 @@ public class JMXConnectionFinder
         ServiceItem item = event.getPreEventServiceItem();
         String url = extractConnectionURL(item);
         if (url != null) {
-            String domain_prefix = makeLegalName(url);
-            unregisterAllProxyMBeans(domain_prefix);
+            handleRemovedService(url);
         }
     }
 
+    /**
+     * Attributes of a service changed, follow a changed jmxServiceURL
+     */
     public void serviceChanged(ServiceDiscoveryEvent event) {
+        String oldUrl = extractConnectionURL(event.getPreEventServiceItem());
+        String newUrl = extractConnectionURL(event.getPostEventServiceItem());
+        if (oldUrl == null ? newUrl == null : oldUrl.equals(newUrl)) {
+            return;
+        }
+        if (oldUrl != null) {
+            handleRemovedService(oldUrl);
+        }
+        if (newUrl != null) {
+            learnedRemotes.remove(newUrl);
+            handleAddedService(newUrl);
+        }
     }
 
 // -------------------------- OTHER METHODS --------------------------
@@ -248,112 +722,862 @@ public class JMXConnectionFinder
      * Look for the jmxServiceURL attribute
      */
     String extractConnectionURL(ServiceItem serviceItem) {
+        if (serviceItem == null || serviceItem.attributeSets == null) {
+            return null;
+        }
         String url = null;
         for (int i = 0; i < serviceItem.attributeSets.length; i++) {
             Entry entry = serviceItem.attributeSets[i];
-            try {
-                Field field = entry.getClass().getField("jmxServiceURL");
-                url = (String) field.get(entry);
-                //don't have to look at any more entries
-                break;
-            } catch (NoSuchFieldException e1) {
-            } catch (IllegalAccessException e11) {
+            if (entry == null) {
+                continue;
+            }
+            Field field = serviceURLField(entry.getClass());
+            if (field != null) {
+                try {
+                    url = (String) field.get(entry);
+                    //don't have to look at any more entries
+                    break;
+                } catch (IllegalAccessException e) {
+                    LOGGER.log(Level.FINEST, e.toString(), e);
+                }
             }
         }
         return url;
     }
 
+    /**
+     * The jmxServiceURL field of an Entry class, looked up once per class.
+     * Classes without the field are cached too, they are the common case.
+     *
+     * @return null if the class has no public String jmxServiceURL field
+     */
+    static Field serviceURLField(Class<?> entryClass) {
+        return SERVICE_URL_FIELDS.get(entryClass);
+    }
+
+    /**
+     * Imports a discovered remote unless a federation peer owns it
+     */
+    private void handleAddedService(String url) {
+        Federation current = federation;
+        if (current != null && !current.discovered(url)) {
+            LOGGER.log(Level.FINE, "Not importing " + url + ", owned by " + current.getOwner(url));
+            return;
+        }
+        scheduleNewConnection(url);
+    }
+
+    private void handleRemovedService(String url) {
+        Federation current = federation;
+        if (current != null) {
+            current.removed(url);
+        }
+        handleRemovedConnection(url);
+    }
+
+    /**
+     * The federation members changed, imports the remotes now owned
+     * by this FocalServer and drops the ones owned by a peer
+     */
+    private void rebalance() {
+        Federation current = federation;
+        int imported = 0;
+        int dropped = 0;
+        for (String url : current.getKnownUrls()) {
+            boolean owned = current.owns(url);
+            if (owned && !remotes.containsKey(url)) {
+                scheduleNewConnection(url);
+                imported++;
+            } else if (!owned && remotes.containsKey(url)) {
+                handleRemovedConnection(url);
+                dropped++;
+            }
+        }
+        LOGGER.log(Level.INFO, "Rebalanced, importing " + imported + " and dropping " + dropped + " remotes");
+    }
+
+    /**
+     * Remote service went away, drop its proxies
+     */
+    private void handleRemovedConnection(String url) {
+        RemoteServer remote = remotes.remove(url);
+        if (remote != null) {
+            removeRemote(remote);
+        }
+    }
+
+    /**
+     * Queues the bootstrap of a newly discovered remote mbeanserver
+     * so the discovery thread is never blocked by a slow host
+     */
+    private void scheduleNewConnection(String url) {
+        RemoteServer current = remotes.get(url);
+        if (current != null && current.discovered()) {
+            //restored from the warm start cache, already revalidating
+            return;
+        }
+        final RemoteServer remote = new RemoteServer(
+                url, makeLegalName(url), registrationQueueCapacity, callPolicy,
+                metrics.addRemote(url)
+        );
+        remote.setAttributePoller(attributePoller);
+        RemoteServer previous = remotes.put(url, remote);
+        if (previous != null) {
+            removeRemote(previous);
+        }
+        scheduleNewConnection(remote);
+    }
+
+    private void scheduleNewConnection(final RemoteServer remote) {
+        bootstrapExecutor.execute(new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                handleNewConnection(remote);
+                if (remote.getState() == RemoteServer.State.IMPORTED) {
+                    metrics.recordBootstrap(System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
     /**
      * Discovered new remote connections
      * Register local proxy mbeans for all remote mbeans
      * Listen for connections failure
      *
-     * @param url used to connect to remote mbeanserver
+     * @param remote the remote mbeanserver to connect to
      */
-    private void handleNewConnection(String url) {
+    private void handleNewConnection(RemoteServer remote) {
+        if (!remote.transition(RemoteServer.State.CONNECTING)) {
+            return;
+        }
         //connect to remote mbeanServer
+        String url = remote.getUrl();
         LOGGER.log(Level.INFO, "Registering " + url);
-        String domain_prefix = makeLegalName(url);
+        JMXConnector jmxConnector = null;
         try {
-            JMXServiceURL jmxServiceURL = new JMXServiceURL(url);
-            JMXConnector jmxConnector = JMXConnectorFactory.connect(
-                    jmxServiceURL, null
-            );
-
-            //listen for disconnect
-            jmxConnector.addConnectionNotificationListener(
-                new ConnectionNotificationHandler(domain_prefix), null, null
-            );
-
-            MBeanServerConnection connection = jmxConnector.getMBeanServerConnection();
-            listenForRegistrationChanges(connection, domain_prefix);
+            jmxConnector = connect(remote);
+            MBeanServerConnection connection = remote.getConnection();
+            if (!remote.transition(RemoteServer.State.IMPORTING)) {
+                closeQuietly(jmxConnector);
+                return;
+            }
+            releasePassThrough(remote);
+            if (virtualNamespace != null) {
+                //names are resolved per call, nothing to register
+                virtualNamespace.addRemote(remote);
+                remote.setImportedCount(connection.getMBeanCount().intValue());
+                remote.revalidated();
+                remote.transition(RemoteServer.State.IMPORTED);
+                LOGGER.log(Level.INFO, "Serving " + remote);
+                return;
+            }
+            if (connection.isRegistered(ObjectName.getInstance(FINDER_NAME))) {
+                //another FocalServer, import its remotes directly
+                remote.setUpstream(true);
+                refreshUpstreamRemotes(remote);
+            }
+            if (remote.isStale()) {
+                //restored from the warm start cache, apply only the difference
+                resyncProxyMBeans(remote);
+                revalidateProxyMBeans(remote);
+                remote.transition(RemoteServer.State.IMPORTED);
+                LOGGER.log(Level.INFO, "Revalidated " + remote);
+                return;
+            }
+            listenForRegistrationChanges(remote);
 
-            //register remote mbeans
-            Iterator it = connection.queryNames(null, null).iterator();
+            //register remote mbeans, the filter is evaluated remotely
+            int imported = 0;
+            Iterator it = queryImportedNames(remote).iterator();
             while (it.hasNext()) {
                 ObjectName remoteName = (ObjectName) it.next();
                 try {
-                    registerProxyMBean(domain_prefix, remoteName, connection);
+                    if (!registerProxyMBean(remote, remoteName)) {
+                        return;
+                    }
+                    remote.setImportedCount(++imported);
                 } catch (InstanceAlreadyExistsException e) {
                     LOGGER.log(Level.WARNING, e.toString(), e);
                 } catch (MBeanRegistrationException e) {
                     LOGGER.log(Level.WARNING, e.toString(), e);
                 } catch (NotCompliantMBeanException e) {
-                    LOGGER.log(Level.WARNING, e.toString(), e);
+                    logRegistrationFailure(e);
+                } catch (JMRuntimeException e) {
+                    logRegistrationFailure(e);
                 }
             }
+            remote.transition(RemoteServer.State.IMPORTED);
+            LOGGER.log(Level.INFO, "Registered " + remote);
         } catch (MalformedObjectNameException e) {
+            remote.failed(e);
             LOGGER.log(Level.WARNING, e.toString(), e);
+            closeFailedBootstrap(remote, jmxConnector);
         } catch (MalformedURLException e) {
+            remote.failed(e);
             LOGGER.log(Level.WARNING, e.toString(), e);
         } catch (IOException e) {
+            remote.failed(e);
             LOGGER.log(Level.WARNING, e.toString(), e);
+            closeFailedBootstrap(remote, jmxConnector);
+            //unreachable or dropped while importing, retry until serviceRemoved
+            remote.reconnectFailed(e);
+            scheduleReconnect(remote);
         } catch (InstanceNotFoundException e) {
+            remote.failed(e);
             LOGGER.log(Level.WARNING, e.toString(), e);
+            closeFailedBootstrap(remote, jmxConnector);
         }
     }
 
     /**
-     * Listens to remote mbeanserver ur/registration
+     * Closes the connection of a bootstrap that failed after connecting.
+     * It is detached from the remote first, so its listener
+     * takes the close for ours and does not reconnect.
      */
-    private void listenForRegistrationChanges(
-            MBeanServerConnection connection, String domain_prefix
-    )
-            throws MalformedObjectNameException, InstanceNotFoundException,
-            IOException {
-        //listen for remove events
-        ObjectName delegateName = ObjectName.getInstance(
-                "JMImplementation:type=MBeanServerDelegate"
+    private void closeFailedBootstrap(RemoteServer remote, JMXConnector connector) {
+        if (connector == null) {
+            return;
+        }
+        synchronized (remote) {
+            if (remote.getConnector() == connector) {
+                remote.connected(null, null);
+            }
+        }
+        closeQuietly(connector);
+    }
+
+    /**
+     * Opens a connection to the remote mbeanserver and
+     * listens for its failure
+     */
+    private JMXConnector connect(RemoteServer remote) throws IOException {
+        JMXServiceURL jmxServiceURL = new JMXServiceURL(remote.getUrl());
+        JMXConnector jmxConnector = JMXConnectorFactory.connect(
+                jmxServiceURL, null
         );
-        connection.addNotificationListener(
-                delegateName, new RemoteRegistrationHandler(
-                domain_prefix, connection
-        ), null, domain_prefix
+
+        //listen for disconnect
+        jmxConnector.addConnectionNotificationListener(
+            new ConnectionNotificationHandler(remote, jmxConnector), null, null
         );
+        remote.connected(jmxConnector, jmxConnector.getMBeanServerConnection());
+        return jmxConnector;
     }
 
     /**
-     * Register a local proxy mbean for a remote mbean
+     * Schedules the next reconnect attempt using exponential backoff
+     * with jitter, so remotes dropped together do not reconnect together.
+     * A failure seen both by the bootstrap and by the connection listener
+     * schedules one attempt only.
      */
-    private void registerProxyMBean(
-            String domain_prefix, ObjectName remoteName,
-            MBeanServerConnection connection
+    private void scheduleReconnect(final RemoteServer remote) {
+        if (remote.isRemoved() || !remote.requestReconnect()) {
+            return;
+        }
+        int attempts = Math.min(remote.getReconnectAttempts(), 30);
+        long delay = Math.min(reconnectMaxDelay, reconnectInitialDelay << attempts);
+        if (delay <= 0) {
+            delay = reconnectMaxDelay;
+        }
+        long half = delay / 2;
+        synchronized (jitter) {
+            delay = half + (long) (jitter.nextDouble() * (delay - half));
+        }
+        LOGGER.log(Level.FINE, "Reconnecting " + remote.getUrl() + " in " + delay + "ms");
+        try {
+            reconnectScheduler.schedule(new Runnable() {
+                public void run() {
+                    bootstrapExecutor.execute(new Runnable() {
+                        public void run() {
+                            reconnect(remote);
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //the finder was deregistered
+            LOGGER.log(Level.FINE, "Not reconnecting " + remote.getUrl() + ", stopped");
+        }
+    }
+
+    /**
+     * Replaces the failed connection. Existing proxies follow the new
+     * connection through the remote, only mbeans that changed while
+     * disconnected are registered or unregistered.
+     */
+    private void reconnect(RemoteServer remote) {
+        remote.reconnectStarted();
+        if (remote.isRemoved()) {
+            return;
+        }
+        JMXConnector previous = remote.getConnector();
+        try {
+            connect(remote);
+        } catch (IOException e) {
+            remote.reconnectFailed(e);
+            LOGGER.log(Level.FINE, "Failed to reconnect " + remote.getUrl(), e);
+            scheduleReconnect(remote);
+            if (reconnectGaveUp(remote)) {
+                passThrough(remote);
+            }
+            return;
+        }
+        if (previous != null) {
+            closeQuietly(previous);
+        }
+        if (remote.isRemoved()) {
+            closeQuietly(remote.getConnector());
+            return;
+        }
+        remote.reconnected();
+        LOGGER.log(Level.INFO, "Reconnected " + remote.getUrl());
+        releasePassThrough(remote);
+        if (virtualNamespace != null) {
+            virtualNamespace.addRemote(remote);
+            remote.revalidated();
+        } else {
+            //the listeners belonged to the old connection
+            remote.setRegistrationListener(null);
+            if (remote.isUpstream()) {
+                refreshUpstreamRemotes(remote);
+            }
+            resyncProxyMBeans(remote);
+            if (remote.isStale()) {
+                revalidateProxyMBeans(remote);
+            }
+            for (MBeanProxy proxy : remote.getProxies()) {
+                proxy.resubscribe();
+            }
+        }
+        remote.transition(RemoteServer.State.IMPORTED);
+    }
+
+    /**
+     * Listens to remote mbeanserver ur/registration.
+     * The import filter is sent along so the remote only reports
+     * imported mbeans, if the remote cannot load the filter class
+     * the handler filters locally.
+     */
+    private void listenForRegistrationChanges(RemoteServer remote)
+            throws MalformedObjectNameException, InstanceNotFoundException,
+            IOException {
+        //listen for remove events
+        ObjectName delegateName = ObjectName.getInstance(
+                "JMImplementation:type=MBeanServerDelegate"
+        );
+        MBeanServerConnection connection = remote.getConnection();
+        NotificationListener previous = remote.getRegistrationListener();
+        if (previous != null) {
+            try {
+                connection.removeNotificationListener(delegateName, previous);
+            } catch (ListenerNotFoundException e) {
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+        }
+        RemoteRegistrationHandler handler = new RemoteRegistrationHandler(remote);
+        ObjectNameFilter filter = importFilter;
+        if (filter.isAll() || remote.isUpstream()) {
+            //proxies of an upstream FocalServer are filtered by their original name
+            connection.addNotificationListener(
+                    delegateName, handler, null, remote.getDomainPrefix()
+            );
+        } else {
+            try {
+                connection.addNotificationListener(
+                        delegateName, handler, filter, remote.getDomainPrefix()
+                );
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Remote filtering not available for "
+                        + remote.getUrl() + ", filtering locally", e);
+                connection.addNotificationListener(
+                        delegateName, handler, null, remote.getDomainPrefix()
+                );
+            }
+        }
+        remote.setRegistrationListener(handler);
+    }
+
+    /**
+     * Applies a new import filter to the imported remote mbeanservers
+     */
+    private void setImportFilter(ObjectNameFilter filter) {
+        importFilter = filter;
+        if (virtualNamespace != null) {
+            virtualNamespace.setImportFilter(filter);
+            return;
+        }
+        for (final RemoteServer remote : remotes.values()) {
+            if (remote.getConnection() == null) {
+                //not connected yet, the bootstrap will use the new filter
+                continue;
+            }
+            bootstrapExecutor.execute(new Runnable() {
+                public void run() {
+                    resyncProxyMBeans(remote);
+                }
+            });
+        }
+    }
+
+    /**
+     * Applies queued registration changes of a remote in batches
+     * on the notification pool, one drain per remote at a time
+     */
+    private void scheduleDrain(final RemoteServer remote) {
+        if (remote.getRegistrationQueue().startDrain()) {
+            notificationExecutor.execute(new Runnable() {
+                public void run() {
+                    drainRegistrations(remote);
+                }
+            });
+        }
+    }
+
+    private void drainRegistrations(RemoteServer remote) {
+        RegistrationQueue queue = remote.getRegistrationQueue();
+        do {
+            List<Map.Entry<ObjectName, Boolean>> batch = queue.drain(registrationBatchSize);
+            while (!batch.isEmpty()) {
+                if (remote.isRemoved()) {
+                    queue.reset();
+                    break;
+                }
+                applyRegistrations(remote, batch);
+                batch = queue.drain(registrationBatchSize);
+            }
+        } while (queue.finishDrain());
+    }
+
+    /**
+     * Registers or unregisters the proxy mbeans of one batch.
+     * The changes that still apply are picked under the remote lock,
+     * the proxies are registered outside it so loading their MBeanInfo
+     * does not hold up removal of the remote.
+     */
+    private void applyRegistrations(
+            RemoteServer remote, List<Map.Entry<ObjectName, Boolean>> batch
+    ) {
+        List<ObjectName> added = new ArrayList<ObjectName>();
+        List<ObjectName> removed = new ArrayList<ObjectName>();
+        synchronized (remote) {
+            if (remote.isRemoved()) {
+                return;
+            }
+            for (Map.Entry<ObjectName, Boolean> change : batch) {
+                ObjectName remoteName = change.getKey();
+                if (change.getValue().booleanValue()) {
+                    if (imports(remote, remoteName)) {
+                        added.add(remoteName);
+                    }
+                    continue;
+                }
+                try {
+                    ObjectName localName = localName(remote, remoteName);
+                    if (remote.getProxyNames().contains(localName)) {
+                        removed.add(localName);
+                    }
+                } catch (MalformedObjectNameException e) {
+                    LOGGER.log(Level.WARNING, e.toString(), e);
+                }
+            }
+        }
+        for (ObjectName localName : removed) {
+            unregisterProxyMBean(remote, localName);
+        }
+        for (ObjectName remoteName : added) {
+            try {
+                if (!registerProxyMBean(remote, remoteName)) {
+                    return;
+                }
+            } catch (MalformedObjectNameException e) {
+                LOGGER.log(Level.WARNING, e.toString(), e);
+            } catch (MBeanRegistrationException e) {
+                LOGGER.log(Level.WARNING, e.toString(), e);
+            } catch (InstanceAlreadyExistsException e) {
+                LOGGER.log(Level.WARNING, e.toString(), e);
+            } catch (NotCompliantMBeanException e) {
+                logRegistrationFailure(e);
+            } catch (JMRuntimeException e) {
+                logRegistrationFailure(e);
+            }
+        }
+    }
+
+    /**
+     * A remote mbean unregistered before its proxy was registered
+     * is normal churn, anything else is a warning
+     */
+    private void logRegistrationFailure(Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InstanceNotFoundException) {
+                LOGGER.log(Level.FINE, e.toString(), e);
+                return;
+            }
+        }
+        LOGGER.log(Level.WARNING, e.toString(), e);
+    }
+
+    /**
+     * Registration changes were lost, the queued ones are dropped
+     * and the remote is resynced as a whole
+     */
+    private void scheduleResync(final RemoteServer remote) {
+        if (virtualNamespace != null || !remote.requestResync()) {
+            return;
+        }
+        bootstrapExecutor.execute(new Runnable() {
+            public void run() {
+                remote.resyncStarted();
+                remote.getRegistrationQueue().reset();
+                resyncProxyMBeans(remote);
+            }
+        });
+    }
+
+    /**
+     * Brings the local proxy mbeans of a remote in line with the current
+     * import filter and the remote names, registering and unregistering
+     * only the difference
+     */
+    private void resyncProxyMBeans(RemoteServer remote) {
+        if (remote.isRemoved()) {
+            return;
+        }
+        try {
+            listenForRegistrationChanges(remote);
+            Set<ObjectName> remoteNames = queryImportedNames(remote);
+            Set<ObjectName> localNames = new HashSet<ObjectName>(remote.getProxyNames());
+            Set<ObjectName> wanted = new HashSet<ObjectName>();
+            for (ObjectName remoteName : remoteNames) {
+                ObjectName localName = localName(remote, remoteName);
+                wanted.add(localName);
+                if (!localNames.contains(localName)) {
+                    try {
+                        registerProxyMBean(remote, remoteName);
+                    } catch (MBeanRegistrationException e) {
+                        //also the remote mbean unregistered since the query
+                        logRegistrationFailure(e);
+                    } catch (InstanceAlreadyExistsException e) {
+                        LOGGER.log(Level.WARNING, e.toString(), e);
+                    } catch (NotCompliantMBeanException e) {
+                        logRegistrationFailure(e);
+                    } catch (JMRuntimeException e) {
+                        logRegistrationFailure(e);
+                    }
+                }
+            }
+            for (ObjectName localName : localNames) {
+                if (!wanted.contains(localName)) {
+                    unregisterProxyMBean(remote, localName);
+                }
+            }
+            remote.setImportedCount(remoteNames.size());
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to resync " + remote.getUrl(), e);
+        }
+    }
+
+    /**
+     * Reloads the MBeanInfo of the proxies restored from the warm start cache
+     */
+    private void revalidateProxyMBeans(RemoteServer remote) {
+        for (MBeanProxy proxy : remote.getProxies()) {
+            if (remote.isRemoved()) {
+                return;
+            }
+            if (proxy.isStale()) {
+                try {
+                    proxy.refreshMBeanInfo();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, e.toString(), e);
+                }
+            }
+        }
+        remote.revalidated();
+    }
+
+    private void unregisterProxyMBean(RemoteServer remote, ObjectName localName) {
+        remote.removeProxy(localName);
+        IndexedNamespace index = indexedNamespace;
+        if (index != null) {
+            index.remove(localName);
+        }
+        try {
+            mbeanServer.unregisterMBean(localName);
+        } catch (InstanceNotFoundException e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+        } catch (MBeanRegistrationException e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+        }
+    }
+
+    /**
+     * Remote mbeanserver went away, drop its proxies and
+     * close the connection off the discovery thread
+     */
+    private void removeRemote(final RemoteServer remote) {
+        remote.remove();
+        releasePassThrough(remote);
+        metrics.removeRemote(remote.getUrl(), remote.getMetrics());
+        if (virtualNamespace != null) {
+            virtualNamespace.removeRemote(remote);
+        } else {
+            unregisterAllProxyMBeans(remote);
+        }
+        final JMXConnector connector = remote.getConnector();
+        if (connector != null) {
+            bootstrapExecutor.execute(new Runnable() {
+                public void run() {
+                    closeQuietly(connector);
+                }
+            });
+        }
+    }
+
+    private void closeQuietly(JMXConnector connector) {
+        try {
+            connector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+        }
+    }
+
+    /**
+     * Register a local proxy mbean for a remote mbean.
+     * The proxy loads the remote MBeanInfo once while registering,
+     * a new remote registration creates a new proxy and so refreshes it.
+     *
+     * @return false if the remote was removed and nothing was registered
+     */
+    boolean registerProxyMBean(
+            RemoteServer remote, ObjectName remoteName
     ) throws MalformedObjectNameException, MBeanRegistrationException,
             NotCompliantMBeanException, InstanceAlreadyExistsException
     {
-        ObjectName localName = convertObjectName(domain_prefix, remoteName);
-        MBeanProxy mBeanProxy = new MBeanProxy(remoteName, connection);
-        try {
-            mbeanServer.registerMBean(mBeanProxy, localName);
-        } catch (InstanceAlreadyExistsException e) {
-            //if already exist, first unregister it then retry
-            LOGGER.log(Level.FINE, e.toString(), e);
+        return registerProxyMBean(remote, remoteName, new MBeanProxy(remoteName, remote, infoCache));
+    }
+
+    private boolean registerProxyMBean(
+            RemoteServer remote, ObjectName remoteName, MBeanProxy mBeanProxy
+    ) throws MalformedObjectNameException, MBeanRegistrationException,
+            NotCompliantMBeanException, InstanceAlreadyExistsException
+    {
+        ObjectName localName = localName(remote, remoteName);
+        if (remote.isRemoved()) {
+            return false;
+        }
+        if (!imports(remote, remoteName)) {
+            return true;
+        }
+        if (mBeanProxy.getCachedMBeanInfo() == null) {
+            //a slow remote call must not hold the remote lock
+            mBeanProxy.refreshMBeanInfo();
+        }
+        synchronized (remote) {
+            if (remote.isRemoved()) {
+                return false;
+            }
+            if (!imports(remote, remoteName)) {
+                return true;
+            }
+            long start = System.nanoTime();
             try {
-                mbeanServer.unregisterMBean(localName);
-            } catch (InstanceNotFoundException e1) {
-                LOGGER.log(Level.WARNING, e1.toString(), e1);
+                mbeanServer.registerMBean(mBeanProxy, localName);
+            } catch (InstanceAlreadyExistsException e) {
+                //if already exist, first unregister it then retry
+                LOGGER.log(Level.FINE, e.toString(), e);
+                try {
+                    mbeanServer.unregisterMBean(localName);
+                } catch (InstanceNotFoundException e1) {
+                    LOGGER.log(Level.WARNING, e1.toString(), e1);
+                }
+                mbeanServer.registerMBean(mBeanProxy, localName);
+            }
+            metrics.recordRegistration(System.nanoTime() - start);
+            remote.addProxy(localName, mBeanProxy);
+            IndexedNamespace index = indexedNamespace;
+            if (index != null) {
+                index.add(localName);
             }
-            mbeanServer.registerMBean(mBeanProxy, localName);
+        }
+        return true;
+    }
+
+    /**
+     * @return the local name of a remote mbean, proxies of an upstream
+     *         FocalServer keep their name so names are never nested
+     */
+    private static ObjectName localName(RemoteServer remote, ObjectName remoteName)
+            throws MalformedObjectNameException {
+        if (remote.isUpstreamProxy(remoteName)) {
+            return remoteName;
+        }
+        return convertObjectName(remote.getDomainPrefix(), remoteName);
+    }
+
+    /**
+     * Proxies of an upstream FocalServer are imported only while their
+     * original remote is passed through, and are filtered by their original name
+     */
+    private boolean imports(RemoteServer remote, ObjectName remoteName) {
+        if (!remote.isUpstreamProxy(remoteName)) {
+            return importFilter.matches(remoteName);
+        }
+        if (!remote.isPassThrough(remoteName.getDomain())) {
+            return false;
+        }
+        try {
+            return importFilter.matches(VirtualNamespace.toRemoteName(remoteName));
+        } catch (InstanceNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return names of the remote mbeans to import, the filter is evaluated
+     *         remotely. Proxies of an upstream FocalServer are queried per
+     *         passed through domain since their names do not carry the original domain.
+     */
+    private Set<ObjectName> queryImportedNames(RemoteServer remote)
+            throws IOException, MalformedObjectNameException {
+        MBeanServerConnection connection = remote.getConnection();
+        Set<ObjectName> names = new HashSet<ObjectName>();
+        for (ObjectName remoteName : importFilter.queryNames(connection)) {
+            if (!remote.isUpstreamProxy(remoteName) && importFilter.matches(remoteName)) {
+                names.add(remoteName);
+            }
+        }
+        for (String domainPrefix : remote.getPassThrough()) {
+            for (ObjectName remoteName : connection.queryNames(
+                    ObjectName.getInstance(domainPrefix + ":*"), null)) {
+                if (imports(remote, remoteName)) {
+                    names.add(remoteName);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Learns the remotes proxied by an upstream FocalServer and imports
+     * them directly, so calls take one hop and names are not nested.
+     * Remotes that cannot be reached from here are passed through.
+     */
+    private void refreshUpstreamRemotes(RemoteServer upstream) {
+        upstream.upstreamRefreshStarted();
+        String[] urls;
+        try {
+            urls = (String[]) upstream.getConnection().getAttribute(
+                    ObjectName.getInstance(FINDER_NAME), "ProxiedRemoteUrls"
+            );
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to list the remotes of upstream " + upstream.getUrl(), e);
+            return;
+        }
+        Map<String, String> byPrefix = new HashMap<String, String>();
+        for (String url : urls) {
+            if (!url.equals(upstream.getUrl())) {
+                byPrefix.put(makeLegalName(url), url);
+            }
+        }
+        upstream.setUpstreamRemotes(byPrefix);
+        int added = 0;
+        for (String url : byPrefix.values()) {
+            RemoteServer original = remotes.get(url);
+            if (original == null) {
+                learnedRemotes.put(url, upstream.getUrl());
+                handleAddedService(url);
+                added++;
+            } else if (reconnectGaveUp(original)) {
+                passThrough(original);
+            }
+        }
+        int dropped = 0;
+        for (Map.Entry<String, String> learned : learnedRemotes.entrySet()) {
+            String url = learned.getKey();
+            if (learned.getValue().equals(upstream.getUrl()) && !byPrefix.containsValue(url)
+                    && learnedRemotes.remove(url, upstream.getUrl())) {
+                handleRemovedService(url);
+                dropped++;
+            }
+        }
+        LOGGER.log(Level.INFO, "Upstream FocalServer " + upstream.getUrl() + " proxies "
+                + byPrefix.size() + " remotes, " + added + " of them not known before, "
+                + dropped + " learned ones gone");
+    }
+
+    private void scheduleUpstreamRefresh(final RemoteServer upstream) {
+        if (!upstream.requestUpstreamRefresh()) {
+            return;
+        }
+        bootstrapExecutor.execute(new Runnable() {
+            public void run() {
+                if (!upstream.isRemoved()) {
+                    refreshUpstreamRemotes(upstream);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true once passThroughAttempts reconnects of the remote failed in a row,
+     *         a shorter outage keeps its proxies and their listeners
+     */
+    private boolean reconnectGaveUp(RemoteServer remote) {
+        RemoteServer.State state = remote.getState();
+        return (state == RemoteServer.State.FAILED || state == RemoteServer.State.RECONNECTING)
+                && remote.getReconnectAttempts() >= passThroughAttempts;
+    }
+
+    /**
+     * The original remote cannot be reached directly, its mbeans are
+     * served by the proxies of an upstream FocalServer with their names unchanged
+     */
+    private void passThrough(RemoteServer original) {
+        if (original.isRemoved()) {
+            return;
+        }
+        String domainPrefix = original.getDomainPrefix();
+        RemoteServer upstream = null;
+        for (RemoteServer candidate : remotes.values()) {
+            if (candidate.isUpstream() && !candidate.isRemoved()
+                    && original.getUrl().equals(candidate.getUpstreamRemote(domainPrefix))) {
+                upstream = candidate;
+                break;
+            }
+        }
+        if (upstream == null || !upstream.addPassThrough(domainPrefix)) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "Passing " + original.getUrl() + " through upstream " + upstream.getUrl());
+        //the names are registered again by the upstream
+        unregisterAllProxyMBeans(original);
+        resyncProxyMBeans(upstream);
+    }
+
+    /**
+     * The original remote is reachable again, drops the proxies
+     * passed through an upstream FocalServer before importing it directly
+     */
+    private void releasePassThrough(RemoteServer original) {
+        String domainPrefix = original.getDomainPrefix();
+        for (RemoteServer upstream : remotes.values()) {
+            if (!upstream.isUpstream()) {
+                continue;
+            }
+            synchronized (upstream) {
+                if (!upstream.removePassThrough(domainPrefix)) {
+                    continue;
+                }
+                for (ObjectName localName : upstream.getProxyNames()) {
+                    if (localName.getDomain().equals(domainPrefix)) {
+                        unregisterProxyMBean(upstream, localName);
+                    }
+                }
+            }
+            LOGGER.log(Level.INFO, "Importing " + original.getUrl()
+                    + " directly instead of through upstream " + upstream.getUrl());
         }
     }
 
@@ -362,7 +1586,7 @@ public class JMXConnectionFinder
      * by using the host:ip as new domain
      * and putting orginal domain as remoteDomain value
      */
-    private ObjectName convertObjectName(
+    static ObjectName convertObjectName(
             String domain_prefix, ObjectName oldName
     ) throws MalformedObjectNameException {
         String name = domain_prefix + ":" + REMOTE_DOMAIN + "=" + oldName.getDomain() + ","
@@ -377,15 +1601,110 @@ public class JMXConnectionFinder
      * @param url
      * @return
      */
-    private String makeLegalName(String url) {
+    static String makeLegalName(String url) {
         return url.replace(':', '_').replace('/', '_').replace('.', '_');
     }
 
+    /**
+     * Registers the remotes saved by the warm start cache with stale proxies
+     * that serve the saved MBeanInfo, then revalidates them in the background.
+     * Restored remotes that discovery does not find again expire.
+     */
+    private void restoreWarmStart() {
+        if (warmStartCache == null) {
+            return;
+        }
+        int restored = 0;
+        List<WarmStartCache.Remote> cached = warmStartCache.load();
+        for (WarmStartCache.Remote entry : cached) {
+            final String url = entry.getUrl();
+            final RemoteServer remote = new RemoteServer(
+                    url, makeLegalName(url), registrationQueueCapacity, callPolicy,
+                    metrics.addRemote(url)
+            );
+            remote.setAttributePoller(attributePoller);
+            remote.restored();
+            if (remotes.putIfAbsent(url, remote) != null) {
+                metrics.removeRemote(url, remote.getMetrics());
+                continue;
+            }
+            if (virtualNamespace == null) {
+                restored += registerStaleProxyMBeans(remote, entry.getMBeans());
+            }
+            scheduleNewConnection(remote);
+            reconnectScheduler.schedule(new Runnable() {
+                public void run() {
+                    if (remote.expire() && remotes.remove(url, remote)) {
+                        LOGGER.log(Level.INFO, "Expired " + url + ", not discovered since restart");
+                        removeRemote(remote);
+                    }
+                }
+            }, warmStartCache.getExpireMillis(), TimeUnit.MILLISECONDS);
+        }
+        LOGGER.log(Level.INFO, "Restored " + cached.size() + " remotes and " + restored
+                + " mbeans from " + warmStartCache.getFile());
+        long interval = warmStartCache.getSaveIntervalMillis();
+        reconnectScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                saveWarmStart();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of proxies registered, mbeans without a saved MBeanInfo
+     *         are left to the revalidation
+     */
+    private int registerStaleProxyMBeans(RemoteServer remote, Map<ObjectName, MBeanInfo> mbeans) {
+        int count = 0;
+        for (Map.Entry<ObjectName, MBeanInfo> mbean : mbeans.entrySet()) {
+            ObjectName remoteName = mbean.getKey();
+            if (mbean.getValue() == null || !importFilter.matches(remoteName)) {
+                continue;
+            }
+            try {
+                registerProxyMBean(remote, remoteName,
+                        new MBeanProxy(remoteName, remote, infoCache, mbean.getValue()));
+                count++;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, e.toString(), e);
+            }
+        }
+        remote.setImportedCount(count);
+        return count;
+    }
+
+    private void saveWarmStart() {
+        List<WarmStartCache.Remote> snapshot = new ArrayList<WarmStartCache.Remote>();
+        for (RemoteServer remote : remotes.values()) {
+            if (remote.isRemoved()) {
+                continue;
+            }
+            Map<ObjectName, MBeanInfo> mbeans = new LinkedHashMap<ObjectName, MBeanInfo>();
+            for (MBeanProxy proxy : remote.getProxies()) {
+                if (remote.isUpstreamProxy(proxy.getRemoteObjectName())) {
+                    //passed through only while the original is unreachable
+                    continue;
+                }
+                mbeans.put(proxy.getRemoteObjectName(), proxy.getCachedMBeanInfo());
+            }
+            snapshot.add(new WarmStartCache.Remote(remote.getUrl(), mbeans));
+        }
+        try {
+            warmStartCache.save(snapshot);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + warmStartCache.getFile(), e);
+        }
+    }
+
     /**
      * Create the ServiceDiscoveryManager and LookupCache to begin
      * looking for jini services within Multicast range.
      */
     private void start() throws Exception {
+        if (ldm == null) {
+            return;
+        }
         try {
             sdm = new ServiceDiscoveryManager(ldm, null, ServiceConfigLoader.getConfiguration());
             cache = sdm.createLookupCache(null, null, this);
@@ -394,27 +1713,37 @@ public class JMXConnectionFinder
         }
     }
 
+    /**
+     * Ends discovery and stops the threads of the finder, so no
+     * reconnect or resync registers proxies once it is deregistered
+     */
+    private void stop() {
+        if (cache != null) {
+            cache.terminate();
+            cache = null;
+        }
+        if (sdm != null) {
+            sdm.terminate();
+            sdm = null;
+        }
+        if (ldm != null) {
+            ldm.terminate();
+        }
+        reconnectScheduler.shutdownNow();
+        bootstrapExecutor.shutdownNow();
+        notificationExecutor.shutdownNow();
+        attributePoller.shutdown();
+        callPolicy.shutdown();
+    }
+
     /**
      * Remote connection lost
      * Unregistering all proxy mbeans
      */
-    private void unregisterAllProxyMBeans(String domain_prefix) {
-        LOGGER.log(Level.INFO, "Unregistering " + domain_prefix);
-        try {
-            ObjectName query = ObjectName.getInstance(domain_prefix + "*:*");
-            Set result = mbeanServer.queryNames(query, null);
-            for (Iterator iterator = result.iterator(); iterator.hasNext();) {
-                ObjectName objectName = (ObjectName) iterator.next();
-                try {
-                    mbeanServer.unregisterMBean(objectName);
-                } catch (InstanceNotFoundException e) {
-                    LOGGER.log(Level.FINE, e.toString(), e);
-                } catch (MBeanRegistrationException e) {
-                    LOGGER.log(Level.FINE, e.toString(), e);
-                }
-            }
-        } catch (MalformedObjectNameException e) {
-            LOGGER.log(Level.WARNING, e.toString(), e);
+    private void unregisterAllProxyMBeans(RemoteServer remote) {
+        LOGGER.log(Level.INFO, "Unregistering " + remote.getDomainPrefix());
+        for (ObjectName objectName : remote.getProxyNames()) {
+            unregisterProxyMBean(remote, objectName);
         }
     }
 
@@ -422,18 +1751,14 @@ public class JMXConnectionFinder
 
     /**
      * Handles remote mbeanserver registration and unregistration events
-     * Register and unregister local proxy mbeans accordingly
+     * Queues them for batched registration and unregistration of the
+     * local proxy mbeans, so the notification thread is never blocked
      */
     private class RemoteRegistrationHandler implements NotificationListener {
-        private String domain_prefix;
-        private MBeanServerConnection connection;
+        private RemoteServer remote;
 
-        public RemoteRegistrationHandler(
-                String domain_prefix,
-                MBeanServerConnection connection
-        ) {
-            this.domain_prefix = domain_prefix;
-            this.connection = connection;
+        public RemoteRegistrationHandler(RemoteServer remote) {
+            this.remote = remote;
         }
 
         public void handleNotification(
@@ -443,60 +1768,77 @@ public class JMXConnectionFinder
                 MBeanServerNotification mBeanServerNotification
                         = (MBeanServerNotification) notification;
                 ObjectName remoteName = mBeanServerNotification.getMBeanName();
-                try {
-                    if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION
-                            .equals(mBeanServerNotification.getType())) {
-                        ObjectName localName = convertObjectName(
-                                domain_prefix, remoteName
-                        );
-                        mbeanServer.unregisterMBean(localName);
-                    } else {
-                        registerProxyMBean(
-                                domain_prefix, remoteName, connection
-                        );
-                    }
-                } catch (MalformedObjectNameException e) {
-                    LOGGER.log(Level.WARNING, e.toString(), e);
-                } catch (InstanceNotFoundException e) {
-                    LOGGER.log(Level.WARNING, e.toString(), e);
-                } catch (MBeanRegistrationException e) {
-                    LOGGER.log(Level.WARNING, e.toString(), e);
-                } catch (InstanceAlreadyExistsException e) {
-                    LOGGER.log(Level.WARNING, e.toString(), e);
-                } catch (NotCompliantMBeanException e) {
-                    LOGGER.log(Level.WARNING, e.toString(), e);
+                if (remote.isUpstreamProxy(remoteName)
+                        && remote.getUpstreamRemote(remoteName.getDomain()) == null) {
+                    //the upstream FocalServer imported a new remote
+                    scheduleUpstreamRefresh(remote);
+                }
+                if (!imports(remote, remoteName)) {
+                    //remote could not apply the filter
+                    return;
                 }
+                boolean register = !MBeanServerNotification.UNREGISTRATION_NOTIFICATION
+                        .equals(mBeanServerNotification.getType());
+                if (!remote.getRegistrationQueue().offer(remoteName, register)) {
+                    scheduleResync(remote);
+                    return;
+                }
+                scheduleDrain(remote);
             }
         }
     }
 
     /**
      * Handle remote connection failure
-     * Unregister all the proxy mbeans
+     * Reconnect in the background, proxies stay registered
+     * until serviceRemoved
      */
     private class ConnectionNotificationHandler
             implements NotificationListener {
-        private String domain_prefix;
+        private RemoteServer remote;
+        private JMXConnector connector;
         private boolean failed;
 
         public ConnectionNotificationHandler(
-                String domain_prefix
+                RemoteServer remote, JMXConnector connector
         ) {
-            this.domain_prefix = domain_prefix;
+            this.remote = remote;
+            this.connector = connector;
         }
 
-        public void handleNotification(
+        public synchronized void handleNotification(
                 Notification notification, Object object
         ) {
+            String type = notification.getType();
+            if (JMXConnectionNotification.NOTIFS_LOST.equals(type)) {
+                //registration changes may be among the lost ones
+                Object lost = notification.getUserData();
+                remote.getRegistrationQueue().addLost(
+                        lost instanceof Long ? ((Long) lost).longValue() : 1
+                );
+                scheduleResync(remote);
+                return;
+            }
+            if (!JMXConnectionNotification.FAILED.equals(type)
+                    && !JMXConnectionNotification.CLOSED.equals(type)) {
+                return;
+            }
             if (failed) {
                 LOGGER.log(Level.FINEST, "Already Failed.");
                 return;
             }
-            LOGGER.log(Level.INFO, notification.toString());
             failed = true;
+            if (remote.isRemoved() || remote.getConnector() != connector) {
+                //closed by us
+                return;
+            }
+            LOGGER.log(Level.INFO, notification.toString());
             // Don't unreigister if there is a connection problem
             // let serviceRemoved handle it
-            // unregisterAllProxyMBeans(domain_prefix);
+            if (remote.transition(RemoteServer.State.RECONNECTING)) {
+                //passed through an upstream only once the reconnects keep failing
+                scheduleReconnect(remote);
+            }
         }
     }
 }
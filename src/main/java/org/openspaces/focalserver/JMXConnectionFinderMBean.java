@@ -15,8 +15,271 @@
  *******************************************************************************/
 package org.openspaces.focalserver;
 
+import javax.management.MalformedObjectNameException;
+
 /**
  * Manage the JMXConnectionFinder
  */
 public interface JMXConnectionFinderMBean extends LookupDisoveryManagerMBean {
+
+    /**
+     * number of distinct MBeanInfo instances shared by the proxy mbeans
+     *
+     * @return
+     */
+    int getCachedMBeanInfoCount();
+
+    /**
+     * maximum number of remote mbeanservers connected and imported in parallel
+     *
+     * @return
+     */
+    int getBootstrapThreads();
+
+    void setBootstrapThreads(int threads);
+
+    /**
+     * number of discovered remote mbeanservers waiting for a bootstrap thread
+     *
+     * @return
+     */
+    int getPendingBootstrapCount();
+
+    /**
+     * bootstrap state, imported mbean count and bootstrap duration of every remote mbeanserver
+     *
+     * @return
+     */
+    String[] getRemoteServers();
+
+    /**
+     * total number of proxy mbeans registered for all remote mbeanservers
+     *
+     * @return
+     */
+    int getProxiedMBeanCount();
+
+    /**
+     * number of proxy mbeans restored from the warm start cache
+     * whose remote was not revalidated yet
+     *
+     * @return
+     */
+    int getStaleMBeanCount();
+
+    /**
+     * number of proxy mbeans per remote mbeanserver, as url=count
+     *
+     * @return
+     */
+    String[] getProxiedMBeanCounts();
+
+    /**
+     * jmx service urls of the remote mbeanservers
+     *
+     * @return
+     */
+    String[] getProxiedRemoteUrls();
+
+    /**
+     * local names of the proxy mbeans of one remote mbeanserver
+     *
+     * @param url jmx service url of the remote mbeanserver
+     * @return
+     */
+    String[] listProxiedMBeans(String url);
+
+    /**
+     * maximum number of pending registration changes per remote mbeanserver,
+     * applies to remotes discovered after the change
+     *
+     * @return
+     */
+    int getRegistrationQueueCapacity();
+
+    void setRegistrationQueueCapacity(int capacity);
+
+    /**
+     * number of queued registration changes applied together
+     *
+     * @return
+     */
+    int getRegistrationBatchSize();
+
+    void setRegistrationBatchSize(int batchSize);
+
+    /**
+     * registration changes waiting to be applied, over all remote mbeanservers
+     *
+     * @return
+     */
+    int getRegistrationQueueDepth();
+
+    /**
+     * remote registration notifications received
+     *
+     * @return
+     */
+    long getReceivedRegistrationNotifications();
+
+    /**
+     * registration notifications merged with a pending change of the same mbean
+     *
+     * @return
+     */
+    long getCoalescedRegistrationNotifications();
+
+    /**
+     * registration notifications dropped by a full queue or lost by the connector,
+     * each loss triggers a resync of the remote
+     *
+     * @return
+     */
+    long getLostRegistrationNotifications();
+
+    /**
+     * deadline of each kind of remote call, as operation=millis, 0 means no deadline
+     *
+     * @return
+     */
+    String[] getCallTimeouts();
+
+    /**
+     * changes the deadline of one kind of remote call
+     *
+     * @param operation getAttribute, getAttributes, setAttribute, setAttributes,
+     *                  invoke, getMBeanInfo or notificationListener
+     * @param millis    deadline, 0 for none
+     */
+    void setOperationTimeout(String operation, long millis);
+
+    /**
+     * maximum number of calls in progress to a single remote mbeanserver,
+     * further calls wait for one to finish until their deadline
+     *
+     * @return
+     */
+    int getMaxConcurrentCallsPerRemote();
+
+    void setMaxConcurrentCallsPerRemote(int maxConcurrentCalls);
+
+    /**
+     * threads running the remote calls that have a deadline, shared by all
+     * remote mbeanservers, further calls fail immediately
+     *
+     * @return
+     */
+    int getMaxCallThreads();
+
+    void setMaxCallThreads(int threads);
+
+    /**
+     * consecutive failed calls that open the circuit of a remote mbeanserver, 0 to disable
+     *
+     * @return
+     */
+    int getCircuitFailureThreshold();
+
+    void setCircuitFailureThreshold(int failures);
+
+    /**
+     * time an open circuit fails calls before a probe call is let through
+     *
+     * @return milliseconds
+     */
+    long getCircuitOpenMillis();
+
+    void setCircuitOpenMillis(long millis);
+
+    /**
+     * delay before the first reconnect attempt after a remote connection failed,
+     * doubled on each failed attempt
+     *
+     * @return milliseconds
+     */
+    long getReconnectInitialDelay();
+
+    void setReconnectInitialDelay(long millis);
+
+    /**
+     * upper bound of the reconnect delay
+     *
+     * @return milliseconds
+     */
+    long getReconnectMaxDelay();
+
+    void setReconnectMaxDelay(long millis);
+
+    /**
+     * failed reconnect attempts after which a remote proxied by an upstream
+     * FocalServer is passed through it, shorter outages keep the direct proxies
+     *
+     * @return
+     */
+    int getPassThroughAttempts();
+
+    void setPassThroughAttempts(int attempts);
+
+    /**
+     * shortest interval between polls of an attribute whose remote mbean
+     * does not send change notifications, used while the value keeps changing
+     *
+     * @return milliseconds
+     */
+    long getChangePollMinMillis();
+
+    void setChangePollMinMillis(long millis);
+
+    /**
+     * longest interval between polls of an attribute, reached while the value does not change
+     *
+     * @return milliseconds
+     */
+    long getChangePollMaxMillis();
+
+    void setChangePollMaxMillis(long millis);
+
+    /**
+     * number of attributes polled for local AttributeChangeNotification listeners
+     *
+     * @return
+     */
+    int getPolledAttributeCount();
+
+    /**
+     * getAttributes calls made to detect attribute changes
+     *
+     * @return
+     */
+    long getChangePollCount();
+
+    /**
+     * AttributeChangeNotifications sent for polled attributes
+     *
+     * @return
+     */
+    long getEmulatedChangeNotificationCount();
+
+    /**
+     * ObjectName patterns of remote mbeans to import, empty to import all
+     *
+     * @return
+     */
+    String[] getIncludePatterns();
+
+    /**
+     * changes the imported mbeans of all remote mbeanservers
+     *
+     * @param patterns ObjectName patterns matched against the remote names
+     */
+    void setIncludePatterns(String[] patterns) throws MalformedObjectNameException;
+
+    /**
+     * ObjectName patterns of remote mbeans never imported
+     *
+     * @return
+     */
+    String[] getExcludePatterns();
+
+    void setExcludePatterns(String[] patterns) throws MalformedObjectNameException;
 }
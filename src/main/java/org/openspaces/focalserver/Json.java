@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Minimal JSON support for the JsonApi: a parser into Map, List, String,
+ * Long, Double, Boolean and null, and a writer of attribute values that
+ * streams to a Writer. Open types are written as objects (CompositeData)
+ * and arrays of rows (TabularData), ObjectNames as strings.
+ */
+final class Json {
+
+    /**
+     * nesting deeper than this is rejected when parsing and written
+     * with toString when writing, guards against cycles
+     */
+    static final int MAX_DEPTH = 32;
+
+    private Json() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if text is not a single JSON value
+     */
+    static Object parse(String text) {
+        Parser parser = new Parser(text);
+        Object value = parser.value(0);
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("Unexpected content");
+        }
+        return value;
+    }
+
+    private static class Parser {
+        final String text;
+        int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Object value(int depth) {
+            if (depth > MAX_DEPTH) {
+                throw error("Nested too deep");
+            }
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("Unexpected end");
+            }
+            char c = text.charAt(position);
+            switch (c) {
+                case '{':
+                    return object(depth);
+                case '[':
+                    return array(depth);
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return number();
+                    }
+                    throw error("Unexpected character '" + c + "'");
+            }
+        }
+
+        private Map<String, Object> object(int depth) {
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            position++;
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return result;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a member name");
+                }
+                String name = string();
+                skipWhitespace();
+                expect(':');
+                result.put(name, value(depth + 1));
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect('}');
+                    return result;
+                }
+            }
+        }
+
+        private List<Object> array(int depth) {
+            List<Object> result = new ArrayList<Object>();
+            position++;
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                return result;
+            }
+            while (true) {
+                result.add(value(depth + 1));
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect(']');
+                    return result;
+                }
+            }
+        }
+
+        private String string() {
+            StringBuilder sb = new StringBuilder();
+            position++;
+            while (true) {
+                if (position >= text.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    throw error("Unterminated string");
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(escaped);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape '\\" + escaped + "'");
+                }
+            }
+        }
+
+        private Object number() {
+            int start = position;
+            boolean integral = true;
+            if (peek() == '-') {
+                position++;
+            }
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    integral = false;
+                } else if (c < '0' || c > '9') {
+                    break;
+                }
+                position++;
+            }
+            String number = text.substring(start, position);
+            try {
+                if (integral) {
+                    try {
+                        return Long.valueOf(number);
+                    } catch (NumberFormatException e) {
+                        //too large for a long
+                    }
+                }
+                return Double.valueOf(number);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + number);
+            }
+        }
+
+        private Object literal(String literal, Object value) {
+            if (!text.startsWith(literal, position)) {
+                throw error("Unexpected literal");
+            }
+            position += literal.length();
+            return value;
+        }
+
+        private char peek() {
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            position++;
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position);
+        }
+    }
+
+    /**
+     * Writes value as JSON, see the class comment for the mapping
+     */
+    static void write(Writer writer, Object value) throws IOException {
+        write(writer, value, 0);
+    }
+
+    private static void write(Writer writer, Object value, int depth) throws IOException {
+        if (value == null) {
+            writer.write("null");
+        } else if (value instanceof String || value instanceof Character || value instanceof ObjectName) {
+            writeString(writer, value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            writer.write(Double.isNaN(number) || Double.isInfinite(number) ? "null" : value.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (depth >= MAX_DEPTH) {
+            writeString(writer, value.toString());
+        } else if (value instanceof CompositeData) {
+            CompositeData data = (CompositeData) value;
+            writer.write('{');
+            boolean first = true;
+            for (String key : data.getCompositeType().keySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(writer, key);
+                writer.write(':');
+                write(writer, data.get(key), depth + 1);
+            }
+            writer.write('}');
+        } else if (value instanceof TabularData) {
+            write(writer, ((TabularData) value).values(), depth);
+        } else if (value instanceof Map) {
+            writer.write('{');
+            boolean first = true;
+            for (Object entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(writer, String.valueOf(((Map.Entry<?, ?>) entry).getKey()));
+                writer.write(':');
+                write(writer, ((Map.Entry<?, ?>) entry).getValue(), depth + 1);
+            }
+            writer.write('}');
+        } else if (value instanceof Collection) {
+            writer.write('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                write(writer, item, depth + 1);
+            }
+            writer.write(']');
+        } else if (value.getClass().isArray()) {
+            writer.write('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                write(writer, Array.get(value, i), depth + 1);
+            }
+            writer.write(']');
+        } else {
+            writeString(writer, value.toString());
+        }
+    }
+
+    static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,814 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.RuntimeErrorException;
+import javax.management.RuntimeMBeanException;
+import javax.management.RuntimeOperationsException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves batches of operations on the local (proxy) mbeans as JSON on
+ * http://host:port/jmx, using the JDK http server, for tools that cannot
+ * use a JMX connector. The body of a POST is one operation or an array:
+ * <pre>
+ * [{"type":"read","mbean":"*:remoteDomain=java.lang,type=Memory,*","attribute":"HeapMemoryUsage"},
+ *  {"type":"read","mbean":"...","attribute":["Name","Counter"]},
+ *  {"type":"write","mbean":"...","attribute":"Counter","value":1},
+ *  {"type":"exec","mbean":"...","operation":"increment","arguments":[1]},
+ *  {"type":"search","mbean":"*:type=Sample,*"}]
+ * </pre>
+ * A read without attribute reads every readable attribute, a read of a
+ * pattern answers per matching mbean. exec takes an optional signature,
+ * otherwise the operation is looked up by name and argument count.
+ * <p>
+ * The operations of a batch run concurrently on a shared pool, so calls to
+ * different remotes overlap and no order is kept between them. All the
+ * reads of one mbean in a batch are merged into a single getAttributes
+ * call. The response holds one result per operation in request order,
+ * {"status":200,"value":...} or {"status":404,"error_type":...,"error":...},
+ * and is streamed chunked as the results complete.
+ * <p>
+ * There is no authentication: keep the port on a trusted network, or set
+ * readOnly to refuse write and exec.
+ */
+public class JsonApi implements JsonApiMBean, MBeanRegistration {
+
+    private static final Logger LOGGER = Logger.getLogger(JsonApi.class.getName());
+
+    public static final int DEFAULT_PORT = 8778;
+    public static final int DEFAULT_THREADS = 16;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    private static final int MAX_REQUEST_BYTES = 4 * 1024 * 1024;
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private static final String READ = "read";
+    private static final String WRITE = "write";
+    private static final String EXEC = "exec";
+    private static final String SEARCH = "search";
+
+    /**
+     * primitive type name to boxed class name
+     */
+    private static final Map<String, String> PRIMITIVES = new HashMap<String, String>();
+
+    static {
+        PRIMITIVES.put("int", "java.lang.Integer");
+        PRIMITIVES.put("long", "java.lang.Long");
+        PRIMITIVES.put("short", "java.lang.Short");
+        PRIMITIVES.put("byte", "java.lang.Byte");
+        PRIMITIVES.put("double", "java.lang.Double");
+        PRIMITIVES.put("float", "java.lang.Float");
+        PRIMITIVES.put("boolean", "java.lang.Boolean");
+        PRIMITIVES.put("char", "java.lang.Character");
+    }
+
+    /**
+     * One getAttributes call shared by the reads of an mbean in a batch
+     */
+    private class ReadGroup implements Runnable {
+        final ObjectName name;
+        /**
+         * attributes named by the reads, read even when all are
+         */
+        final Set<String> attributes = new LinkedHashSet<String>();
+        /**
+         * set when a read asks for every readable attribute
+         */
+        boolean all;
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+        final Map<String, Exception> errors = new HashMap<String, Exception>();
+        Exception failure;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        ReadGroup(ObjectName name) {
+            this.name = name;
+        }
+
+        void add(List<String> requested) {
+            if (requested == null) {
+                all = true;
+            } else {
+                attributes.addAll(requested);
+            }
+        }
+
+        public void run() {
+            try {
+                Set<String> read = new LinkedHashSet<String>();
+                if (all) {
+                    read.addAll(Arrays.asList(readableAttributes(name)));
+                }
+                read.addAll(attributes);
+                String[] names = read.toArray(new String[read.size()]);
+                readCalls.incrementAndGet();
+                for (Object value : mbeanServer.getAttributes(name, names)) {
+                    Attribute attribute = (Attribute) value;
+                    values.put(attribute.getName(), attribute.getValue());
+                }
+                for (String attribute : names) {
+                    if (!values.containsKey(attribute)) {
+                        //getAttributes leaves out the attributes that failed, read it alone for the reason
+                        try {
+                            values.put(attribute, mbeanServer.getAttribute(name, attribute));
+                        } catch (Exception e) {
+                            errors.put(attribute, e);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+    }
+
+    /**
+     * One operation of a batch
+     */
+    private static class Operation {
+        ObjectName name;
+        /**
+         * attributes of a read, null for all
+         */
+        List<String> attributes;
+        boolean singleAttribute;
+        /**
+         * the reads the result of a read operation is made of
+         */
+        List<ReadGroup> groups;
+        /**
+         * result of the other operations
+         */
+        Future<Object> future;
+        /**
+         * set when the operation was rejected before running
+         */
+        Exception error;
+
+        boolean isDone() {
+            if (error != null) {
+                return true;
+            }
+            if (groups == null) {
+                return future.isDone();
+            }
+            for (ReadGroup group : groups) {
+                if (!group.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private MBeanServer mbeanServer;
+    private HttpServer httpServer;
+    private ExecutorService httpExecutor;
+    private volatile int port = DEFAULT_PORT;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile boolean readOnly;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong readCalls = new AtomicLong();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("FocalServer-json")
+    );
+
+    public JsonApi() {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+// --------------------- Interface JsonApiMBean ---------------------
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getOperationCount() {
+        return operations.get();
+    }
+
+    public long getReadCallCount() {
+        return readCalls.get();
+    }
+
+// --------------------- Interface MBeanRegistration ---------------------
+
+    public ObjectName preRegister(MBeanServer mBeanServer, ObjectName objectName)
+            throws Exception {
+        mbeanServer = mBeanServer;
+        return objectName;
+    }
+
+    public synchronized void postRegister(Boolean registrationDone) {
+        if (!registrationDone.booleanValue()) {
+            return;
+        }
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+            httpServer.createContext("/jmx", new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    serve(exchange);
+                }
+            });
+            httpExecutor = Executors.newFixedThreadPool(
+                    4, new NamedThreadFactory("FocalServer-json-http")
+            );
+            httpServer.setExecutor(httpExecutor);
+            httpServer.start();
+            LOGGER.log(Level.INFO, "Serving the JSON API on port " + port);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to serve the JSON API on port " + port, e);
+        }
+    }
+
+    public synchronized void preDeregister() throws Exception {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (httpExecutor != null) {
+            httpExecutor.shutdown();
+            httpExecutor = null;
+        }
+        executor.shutdownNow();
+    }
+
+    public void postDeregister() {
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Operations are posted as JSON");
+                return;
+            }
+            String body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                sendError(exchange, 413, "Request larger than " + MAX_REQUEST_BYTES + " bytes");
+                return;
+            }
+            Object request;
+            try {
+                request = Json.parse(body);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+                return;
+            }
+            boolean batch = request instanceof List;
+            List<?> items = batch ? (List<?>) request : Collections.singletonList(request);
+            if (items.size() > maxBatchSize) {
+                sendError(exchange, 400, "Batch of " + items.size()
+                        + " operations is larger than " + maxBatchSize);
+                return;
+            }
+            requests.incrementAndGet();
+            operations.addAndGet(items.size());
+            List<Operation> started = start(items);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            //length 0 streams the body chunked
+            exchange.sendResponseHeaders(200, 0);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), "UTF-8"), 8192
+            );
+            if (batch) {
+                writer.write('[');
+            }
+            for (int i = 0; i < started.size(); i++) {
+                Operation operation = started.get(i);
+                if (!operation.isDone()) {
+                    //send what is complete while waiting
+                    writer.flush();
+                }
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeResult(writer, operation);
+            }
+            if (batch) {
+                writer.write(']');
+            }
+            writer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Starts the operations, the reads of the same mbean are grouped first
+     */
+    private List<Operation> start(List<?> items) {
+        List<Operation> result = new ArrayList<Operation>(items.size());
+        Map<ObjectName, ReadGroup> groups = new LinkedHashMap<ObjectName, ReadGroup>();
+        for (Object item : items) {
+            Operation operation = new Operation();
+            result.add(operation);
+            try {
+                prepare(operation, item, groups);
+            } catch (Exception e) {
+                operation.error = e;
+            }
+        }
+        for (ReadGroup group : groups.values()) {
+            try {
+                executor.execute(group);
+            } catch (RejectedExecutionException e) {
+                group.failure = e;
+                group.done.countDown();
+            }
+        }
+        return result;
+    }
+
+    private void prepare(Operation operation, Object item, Map<ObjectName, ReadGroup> groups)
+            throws Exception {
+        if (!(item instanceof Map)) {
+            throw new IllegalArgumentException("An operation must be a JSON object");
+        }
+        Map<?, ?> request = (Map<?, ?>) item;
+        String type = string(request, "type");
+        operation.name = ObjectName.getInstance(string(request, "mbean"));
+        if (READ.equals(type)) {
+            Object attribute = request.get("attribute");
+            if (attribute instanceof String) {
+                operation.attributes = Collections.singletonList((String) attribute);
+                operation.singleAttribute = true;
+            } else if (attribute != null) {
+                operation.attributes = strings(request, "attribute");
+            }
+            Collection<ObjectName> names = operation.name.isPattern()
+                    ? new TreeSet<ObjectName>(mbeanServer.queryNames(operation.name, null))
+                    : Collections.singleton(operation.name);
+            operation.groups = new ArrayList<ReadGroup>(names.size());
+            for (ObjectName name : names) {
+                ReadGroup group = groups.get(name);
+                if (group == null) {
+                    group = new ReadGroup(name);
+                    groups.put(name, group);
+                }
+                group.add(operation.attributes);
+                operation.groups.add(group);
+            }
+        } else if (SEARCH.equals(type)) {
+            final ObjectName pattern = operation.name;
+            FutureTask<Object> search = new FutureTask<Object>(new Callable<Object>() {
+                public Object call() {
+                    return new TreeSet<ObjectName>(mbeanServer.queryNames(pattern, null));
+                }
+            });
+            search.run();
+            operation.future = search;
+        } else if (WRITE.equals(type) || EXEC.equals(type)) {
+            if (readOnly) {
+                throw new SecurityException("Read only, " + type + " is refused");
+            }
+            if (operation.name.isPattern()) {
+                throw new IllegalArgumentException(type + " needs the name of one mbean");
+            }
+            operation.future = executor.submit(WRITE.equals(type)
+                    ? write(operation.name, string(request, "attribute"), request.get("value"))
+                    : exec(operation.name, string(request, "operation"),
+                    list(request, "arguments"), strings(request, "signature")));
+        } else {
+            throw new IllegalArgumentException("Unknown operation type " + type);
+        }
+    }
+
+    private Callable<Object> write(final ObjectName name, final String attribute, final Object value) {
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                for (MBeanAttributeInfo info : mbeanServer.getMBeanInfo(name).getAttributes()) {
+                    if (info.getName().equals(attribute)) {
+                        mbeanServer.setAttribute(name, new Attribute(attribute, convert(value, info.getType())));
+                        return null;
+                    }
+                }
+                throw new AttributeNotFoundException("No attribute " + attribute + " on " + name);
+            }
+        };
+    }
+
+    private Callable<Object> exec(final ObjectName name, final String operation,
+                                  final List<?> arguments, final List<String> signature) {
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                Object[] params = arguments == null ? new Object[0] : arguments.toArray();
+                String[] types = signature != null
+                        ? signature.toArray(new String[signature.size()])
+                        : signatureOf(name, operation, params.length);
+                if (types.length != params.length) {
+                    throw new IllegalArgumentException(
+                            "Signature of " + types.length + " types for " + params.length + " arguments"
+                    );
+                }
+                for (int i = 0; i < params.length; i++) {
+                    params[i] = convert(params[i], types[i]);
+                }
+                return mbeanServer.invoke(name, operation, params, types);
+            }
+        };
+    }
+
+    private String[] signatureOf(ObjectName name, String operation, int argumentCount) throws Exception {
+        MBeanParameterInfo[] found = null;
+        for (MBeanOperationInfo info : mbeanServer.getMBeanInfo(name).getOperations()) {
+            if (info.getName().equals(operation) && info.getSignature().length == argumentCount) {
+                if (found != null) {
+                    throw new IllegalArgumentException(
+                            operation + " is overloaded on " + name + ", give a signature"
+                    );
+                }
+                found = info.getSignature();
+            }
+        }
+        if (found == null) {
+            throw new ReflectionException(new NoSuchMethodException(
+                    "No operation " + operation + " with " + argumentCount + " arguments on " + name
+            ));
+        }
+        String[] types = new String[found.length];
+        for (int i = 0; i < found.length; i++) {
+            types[i] = found[i].getType();
+        }
+        return types;
+    }
+
+    private String[] readableAttributes(ObjectName name) throws Exception {
+        List<String> readable = new ArrayList<String>();
+        for (MBeanAttributeInfo info : mbeanServer.getMBeanInfo(name).getAttributes()) {
+            if (info.isReadable()) {
+                readable.add(info.getName());
+            }
+        }
+        return readable.toArray(new String[readable.size()]);
+    }
+
+    private void writeResult(Writer writer, Operation operation) throws IOException, InterruptedException {
+        Object value = null;
+        Exception error = operation.error;
+        if (error == null) {
+            try {
+                value = operation.groups != null ? readResult(operation) : operation.future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                error = cause instanceof Exception
+                        ? (Exception) cause : new RuntimeErrorException((Error) cause);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            Throwable reason = reason(error);
+            writer.write("{\"status\":");
+            writer.write(Integer.toString(status(reason)));
+            writer.write(",\"error_type\":");
+            Json.writeString(writer, reason.getClass().getName());
+            writer.write(",\"error\":");
+            Json.writeString(writer, reason.getMessage() != null ? reason.getMessage() : reason.toString());
+            writer.write('}');
+            return;
+        }
+        writer.write("{\"status\":200,\"value\":");
+        Json.write(writer, value);
+        writer.write('}');
+    }
+
+    /**
+     * @return the value of a read, per mbean name for a pattern
+     *         where the mbeans that could not be read are left out
+     */
+    private Object readResult(Operation operation) throws Exception {
+        if (!operation.name.isPattern()) {
+            ReadGroup group = operation.groups.get(0);
+            group.done.await();
+            if (group.failure != null) {
+                throw group.failure;
+            }
+            return values(operation, group);
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (ReadGroup group : operation.groups) {
+            group.done.await();
+            if (group.failure == null) {
+                try {
+                    result.put(group.name.toString(), values(operation, group));
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Left out " + group.name, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Object values(Operation operation, ReadGroup group) throws Exception {
+        if (operation.singleAttribute) {
+            String attribute = operation.attributes.get(0);
+            Exception error = group.errors.get(attribute);
+            if (error != null) {
+                throw error;
+            }
+            return group.values.get(attribute);
+        }
+        if (operation.attributes == null) {
+            return group.values;
+        }
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (String attribute : operation.attributes) {
+            Exception error = group.errors.get(attribute);
+            if (error != null) {
+                throw error;
+            }
+            values.put(attribute, group.values.get(attribute));
+        }
+        return values;
+    }
+
+    /**
+     * @return the exception wrapped by the mbeanserver, if any
+     */
+    private static Throwable reason(Throwable error) {
+        Throwable cause = error.getCause();
+        if (cause != null && (error instanceof MBeanException || error instanceof ReflectionException
+                || error instanceof RuntimeMBeanException || error instanceof RuntimeOperationsException
+                || error instanceof RuntimeErrorException)) {
+            return cause;
+        }
+        return error;
+    }
+
+    private static int status(Throwable reason) {
+        if (reason instanceof IllegalArgumentException || reason instanceof MalformedObjectNameException
+                || reason instanceof InvalidAttributeValueException) {
+            return 400;
+        }
+        if (reason instanceof SecurityException) {
+            return 403;
+        }
+        if (reason instanceof InstanceNotFoundException || reason instanceof AttributeNotFoundException
+                || reason instanceof NoSuchMethodException) {
+            return 404;
+        }
+        return 500;
+    }
+
+    /**
+     * Converts a parsed JSON value to the java type of an attribute or parameter
+     */
+    static Object convert(Object value, String type) throws Exception {
+        if (value == null) {
+            if (PRIMITIVES.containsKey(type)) {
+                throw new IllegalArgumentException("null is not a " + type);
+            }
+            return null;
+        }
+        String boxed = PRIMITIVES.containsKey(type) ? PRIMITIVES.get(type) : type;
+        try {
+            if (boxed.equals("java.lang.String")) {
+                return scalar(value, type).toString();
+            } else if (boxed.equals("java.lang.Integer")) {
+                return new BigDecimal(scalar(value, type).toString()).intValueExact();
+            } else if (boxed.equals("java.lang.Long")) {
+                return new BigDecimal(scalar(value, type).toString()).longValueExact();
+            } else if (boxed.equals("java.lang.Short")) {
+                return new BigDecimal(scalar(value, type).toString()).shortValueExact();
+            } else if (boxed.equals("java.lang.Byte")) {
+                return new BigDecimal(scalar(value, type).toString()).byteValueExact();
+            } else if (boxed.equals("java.lang.Double")) {
+                return Double.valueOf(scalar(value, type).toString());
+            } else if (boxed.equals("java.lang.Float")) {
+                return Float.valueOf(scalar(value, type).toString());
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(value + " is not a " + type);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(value + " is not a " + type);
+        }
+        if (boxed.equals("java.lang.Boolean")) {
+            String text = scalar(value, type).toString();
+            if (!text.equals("true") && !text.equals("false")) {
+                throw new IllegalArgumentException(value + " is not a " + type);
+            }
+            return Boolean.valueOf(text);
+        }
+        if (boxed.equals("java.lang.Character")) {
+            String text = scalar(value, type).toString();
+            if (text.length() != 1) {
+                throw new IllegalArgumentException(value + " is not a " + type);
+            }
+            return text.charAt(0);
+        }
+        if (boxed.equals(ObjectName.class.getName())) {
+            return ObjectName.getInstance(scalar(value, type).toString());
+        }
+        Class<?> target;
+        try {
+            target = Class.forName(type, false, JsonApi.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Cannot convert to " + type);
+        }
+        if (target.isArray() && value instanceof List) {
+            List<?> items = (List<?>) value;
+            Object array = Array.newInstance(target.getComponentType(), items.size());
+            for (int i = 0; i < items.size(); i++) {
+                Array.set(array, i, convert(items.get(i), target.getComponentType().getName()));
+            }
+            return array;
+        }
+        if (target.isInstance(value)) {
+            return value;
+        }
+        throw new IllegalArgumentException("Cannot convert " + value + " to " + type);
+    }
+
+    private static Object scalar(Object value, String type) {
+        if (value instanceof Map || value instanceof List) {
+            throw new IllegalArgumentException("Cannot convert a JSON object or array to " + type);
+        }
+        return value;
+    }
+
+    private static String string(Map<?, ?> request, String key) {
+        Object value = request.get(key);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Missing \"" + key + "\"");
+        }
+        return (String) value;
+    }
+
+    private static List<?> list(Map<?, ?> request, String key) {
+        Object value = request.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be an array");
+        }
+        return (List<?>) value;
+    }
+
+    private static List<String> strings(Map<?, ?> request, String key) {
+        List<?> values = list(request, key);
+        if (values == null) {
+            return null;
+        }
+        List<String> result = new ArrayList<String>(values.size());
+        for (Object value : values) {
+            if (!(value instanceof String)) {
+                throw new IllegalArgumentException("\"" + key + "\" must be an array of strings");
+            }
+            result.add((String) value);
+        }
+        return result;
+    }
+
+    /**
+     * @return the body, null if it is larger than MAX_REQUEST_BYTES
+     */
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            if (body.size() + read > MAX_REQUEST_BYTES) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toString("UTF-8");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"status\":").append(status).append(",\"error\":");
+        StringWriter text = new StringWriter();
+        Json.writeString(text, message);
+        sb.append(text).append('}');
+        byte[] body = sb.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
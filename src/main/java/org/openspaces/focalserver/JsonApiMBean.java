@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+/**
+ * Manage the HTTP/JSON batch endpoint
+ */
+public interface JsonApiMBean {
+
+    /**
+     * port of the http endpoint, batches are posted to /jmx
+     *
+     * @return
+     */
+    int getPort();
+
+    /**
+     * threads running the operations of all batches
+     *
+     * @return
+     */
+    int getThreads();
+
+    /**
+     * largest number of operations accepted in one request
+     *
+     * @return
+     */
+    int getMaxBatchSize();
+
+    void setMaxBatchSize(int maxBatchSize);
+
+    /**
+     * when true write and exec operations are refused
+     *
+     * @return
+     */
+    boolean isReadOnly();
+
+    void setReadOnly(boolean readOnly);
+
+    /**
+     * number of requests served
+     *
+     * @return
+     */
+    long getRequestCount();
+
+    /**
+     * number of operations run, over all requests
+     *
+     * @return
+     */
+    long getOperationCount();
+
+    /**
+     * number of getAttributes calls made for read operations, lower than
+     * the read count when reads of the same mbean were grouped
+     *
+     * @return
+     */
+    long getReadCallCount();
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.management.MBeanInfo;
+
+/**
+ * Interns MBeanInfo instances fetched from remote mbeanservers.
+ * Every GSC running the same class returns an equal MBeanInfo, so
+ * proxies share a single instance instead of holding one copy each.
+ * Entries are weakly held and disappear once no proxy refers to them.
+ */
+class MBeanInfoCache {
+
+    private final Map<MBeanInfo, WeakReference<MBeanInfo>> infos
+            = new WeakHashMap<MBeanInfo, WeakReference<MBeanInfo>>();
+
+    /**
+     * @return the shared instance equal to info, or info itself if none is cached yet
+     */
+    public synchronized MBeanInfo intern(MBeanInfo info) {
+        if (info == null) {
+            return null;
+        }
+        WeakReference<MBeanInfo> ref = infos.get(info);
+        MBeanInfo shared = ref == null ? null : ref.get();
+        if (shared == null) {
+            infos.put(info, new WeakReference<MBeanInfo>(info));
+            shared = info;
+        }
+        return shared;
+    }
+
+    /**
+     * @return number of distinct MBeanInfo instances currently held
+     */
+    public synchronized int size() {
+        return infos.size();
+    }
+}
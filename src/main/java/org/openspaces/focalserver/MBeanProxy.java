@@ -15,13 +15,10 @@
  *******************************************************************************/
 package org.openspaces.focalserver;
 
-import java.io.IOException;
-
 import javax.management.Attribute;
 import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.DynamicMBean;
-import javax.management.InstanceNotFoundException;
 import javax.management.InvalidAttributeValueException;
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanException;
@@ -43,6 +40,26 @@ public class MBeanProxy
     private final ObjectName remoteObjectName;
     private final JMXConnector connector;
     private final MBeanServerConnection connection;
+    /**
+     * when set, the connection is taken from the remote so the proxy
+     * follows reconnects
+     */
+    private final RemoteServer remote;
+    private final MBeanInfoCache infoCache;
+    /**
+     * remote MBeanInfo, fetched on registration and shared through infoCache
+     */
+    private volatile MBeanInfo mbeanInfo;
+    /**
+     * mbeanInfo was restored from the warm start cache and not yet
+     * reloaded from the remote mbeanserver
+     */
+    private volatile boolean stale;
+    /**
+     * shares remote subscriptions between local listeners,
+     * created on the first listener so idle proxies stay small
+     */
+    private NotificationMultiplexer multiplexer;
 
 /*
     public MBeanProxy(
@@ -71,14 +88,58 @@ public class MBeanProxy
 
     public MBeanProxy(
             ObjectName remoteObjectName, MBeanServerConnection connection
+    ) {
+        this(remoteObjectName, connection, null);
+    }
+
+    /**
+     * @param infoCache shared cache used to deduplicate the remote MBeanInfo, may be null
+     */
+    MBeanProxy(
+            ObjectName remoteObjectName, MBeanServerConnection connection,
+            MBeanInfoCache infoCache
     ) {
         this.remoteObjectName = remoteObjectName;
         this.connector = null;
         this.connection = connection;
+        this.remote = null;
+        this.infoCache = infoCache;
+    }
+
+    /**
+     * Proxy that always uses the current connection of the remote mbeanserver
+     */
+    MBeanProxy(
+            ObjectName remoteObjectName, RemoteServer remote,
+            MBeanInfoCache infoCache
+    ) {
+        this(remoteObjectName, remote, infoCache, null);
+    }
+
+    /**
+     * @param staleInfo MBeanInfo restored from the warm start cache,
+     *                  served until refreshMBeanInfo is called
+     */
+    MBeanProxy(
+            ObjectName remoteObjectName, RemoteServer remote,
+            MBeanInfoCache infoCache, MBeanInfo staleInfo
+    ) {
+        this.remoteObjectName = remoteObjectName;
+        this.connector = null;
+        this.connection = null;
+        this.remote = remote;
+        this.infoCache = infoCache;
+        if (staleInfo != null) {
+            this.mbeanInfo = infoCache != null ? infoCache.intern(staleInfo) : staleInfo;
+            this.stale = true;
+        }
     }
 
     public ObjectName preRegister(MBeanServer server, ObjectName name)
             throws Exception {
+        if (mbeanInfo == null) {
+            refreshMBeanInfo();
+        }
         return name;
     }
 
@@ -86,6 +147,14 @@ public class MBeanProxy
     }
 
     public void preDeregister() throws Exception {
+        NotificationMultiplexer current;
+        synchronized (this) {
+            current = multiplexer;
+            multiplexer = null;
+        }
+        if (current != null) {
+            current.close();
+        }
         JMXConnector cntor = getJMXConnector();
         if (cntor != null) cntor.close();
     }
@@ -98,100 +167,189 @@ public class MBeanProxy
     }
 
     protected MBeanServerConnection getMBeanServerConnection() {
-        return connection;
+        return remote != null ? remote.getConnection() : connection;
     }
 
     protected JMXConnector getJMXConnector() {
         return connector;
     }
 
+    /**
+     * Returns the cached remote MBeanInfo, fetching it only if
+     * it was never loaded
+     */
     public MBeanInfo getMBeanInfo() {
+        MBeanInfo info = mbeanInfo;
+        if (info == null) {
+            info = refreshMBeanInfo();
+        }
+        return info;
+    }
+
+    /**
+     * Reloads the MBeanInfo from the remote mbeanserver
+     */
+    MBeanInfo refreshMBeanInfo() {
+        MBeanInfo info;
         try {
-            return getMBeanServerConnection().getMBeanInfo(
-                    getRemoteObjectName()
-            );
+            info = execute(RemoteOperation.GET_MBEAN_INFO, new RemoteCallGuard.Call<MBeanInfo>() {
+                public MBeanInfo call(MBeanServerConnection connection) throws Exception {
+                    return connection.getMBeanInfo(getRemoteObjectName());
+                }
+            });
+        }
+        catch (RuntimeException x) {
+            throw x;
         }
         catch (Exception x) {
             throw new MBeanProxyException(x);
         }
+        if (infoCache != null) {
+            info = infoCache.intern(info);
+        }
+        mbeanInfo = info;
+        stale = false;
+        return info;
+    }
+
+    /**
+     * @return the MBeanInfo held by the proxy, null if it was never loaded
+     */
+    MBeanInfo getCachedMBeanInfo() {
+        return mbeanInfo;
+    }
+
+    /**
+     * @return true while the MBeanInfo is the one restored from the warm start cache
+     */
+    boolean isStale() {
+        return stale;
     }
 
-    public Object getAttribute(String attribute) throws
+    /**
+     * Runs a call on the remote connection. Proxies of a discovered remote
+     * go through its RemoteCallGuard for deadlines, the concurrency limit
+     * and the circuit breaker.
+     */
+    <T> T execute(RemoteOperation operation, RemoteCallGuard.Call<T> call)
+            throws Exception {
+        if (remote != null) {
+            return remote.call(operation, call);
+        }
+        return call.call(getMBeanServerConnection());
+    }
+
+    public Object getAttribute(final String attribute) throws
             AttributeNotFoundException, MBeanException, ReflectionException {
         try {
-            return getMBeanServerConnection().getAttribute(
-                    getRemoteObjectName(), attribute
-            );
+            return execute(RemoteOperation.GET_ATTRIBUTE, new RemoteCallGuard.Call<Object>() {
+                public Object call(MBeanServerConnection connection) throws Exception {
+                    return connection.getAttribute(getRemoteObjectName(), attribute);
+                }
+            });
         }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+        catch (AttributeNotFoundException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (MBeanException x) {
+            throw x;
+        }
+        catch (ReflectionException x) {
+            throw x;
+        }
+        catch (RuntimeException x) {
+            throw x;
+        }
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
 
-    public void setAttribute(Attribute attribute) throws
+    public void setAttribute(final Attribute attribute) throws
             AttributeNotFoundException, InvalidAttributeValueException,
             MBeanException, ReflectionException {
         try {
-            getMBeanServerConnection().setAttribute(
-                    getRemoteObjectName(), attribute
-            );
+            execute(RemoteOperation.SET_ATTRIBUTE, new RemoteCallGuard.Call<Object>() {
+                public Object call(MBeanServerConnection connection) throws Exception {
+                    connection.setAttribute(getRemoteObjectName(), attribute);
+                    return null;
+                }
+            });
         }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+        catch (AttributeNotFoundException x) {
+            throw x;
+        }
+        catch (InvalidAttributeValueException x) {
+            throw x;
+        }
+        catch (MBeanException x) {
+            throw x;
+        }
+        catch (ReflectionException x) {
+            throw x;
+        }
+        catch (RuntimeException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
 
-    public AttributeList getAttributes(String[] attributes) {
+    public AttributeList getAttributes(final String[] attributes) {
         try {
-            return getMBeanServerConnection().getAttributes(
-                    getRemoteObjectName(), attributes
-            );
-        }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+            return execute(RemoteOperation.GET_ATTRIBUTES, new RemoteCallGuard.Call<AttributeList>() {
+                public AttributeList call(MBeanServerConnection connection) throws Exception {
+                    return connection.getAttributes(getRemoteObjectName(), attributes);
+                }
+            });
         }
-        catch (ReflectionException x) {
-            throw new MBeanProxyException(x);
+        catch (RuntimeException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
 
-    public AttributeList setAttributes(AttributeList attributes) {
+    public AttributeList setAttributes(final AttributeList attributes) {
         try {
-            return getMBeanServerConnection().setAttributes(
-                    getRemoteObjectName(), attributes
-            );
-        }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+            return execute(RemoteOperation.SET_ATTRIBUTES, new RemoteCallGuard.Call<AttributeList>() {
+                public AttributeList call(MBeanServerConnection connection) throws Exception {
+                    return connection.setAttributes(getRemoteObjectName(), attributes);
+                }
+            });
         }
-        catch (ReflectionException x) {
-            throw new MBeanProxyException(x);
+        catch (RuntimeException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
 
-    public Object invoke(String method, Object[] arguments, String[] params)
-            throws MBeanException, ReflectionException {
+    public Object invoke(
+            final String method, final Object[] arguments, final String[] params
+    ) throws MBeanException, ReflectionException {
         try {
-            return getMBeanServerConnection().invoke(
-                    getRemoteObjectName(), method, arguments, params
-            );
+            return execute(RemoteOperation.INVOKE, new RemoteCallGuard.Call<Object>() {
+                public Object call(MBeanServerConnection connection) throws Exception {
+                    return connection.invoke(
+                            getRemoteObjectName(), method, arguments, params
+                    );
+                }
+            });
         }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+        catch (MBeanException x) {
+            throw x;
+        }
+        catch (ReflectionException x) {
+            throw x;
+        }
+        catch (RuntimeException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
@@ -201,18 +359,15 @@ public class MBeanProxy
     }
 
     public void addNotificationListener(
-            NotificationListener listener, NotificationFilter filter,
-            Object handback
+            NotificationListener listener, NotificationFilter filter, Object handback
     ) throws IllegalArgumentException {
         try {
-            getMBeanServerConnection().addNotificationListener(
-                    getRemoteObjectName(), listener, filter, handback
-            );
+            getMultiplexer().add(listener, filter, handback);
         }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+        catch (RuntimeException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
@@ -220,32 +375,75 @@ public class MBeanProxy
     public void removeNotificationListener(NotificationListener listener)
             throws ListenerNotFoundException {
         try {
-            getMBeanServerConnection().removeNotificationListener(
-                    getRemoteObjectName(), listener
-            );
+            getMultiplexer().remove(listener);
         }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+        catch (ListenerNotFoundException x) {
+            throw x;
+        }
+        catch (RuntimeException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
 
     public void removeNotificationListener(
-            NotificationListener listener, NotificationFilter filter,
-            Object handback
+            NotificationListener listener, NotificationFilter filter, Object handback
     ) throws ListenerNotFoundException {
         try {
-            getMBeanServerConnection().removeNotificationListener(
-                    getRemoteObjectName(), listener, filter, handback
-            );
+            getMultiplexer().remove(listener, filter, handback);
         }
-        catch (InstanceNotFoundException x) {
-            throw new MBeanProxyException(x);
+        catch (ListenerNotFoundException x) {
+            throw x;
+        }
+        catch (RuntimeException x) {
+            throw x;
         }
-        catch (IOException x) {
+        catch (Exception x) {
             throw new MBeanProxyException(x);
         }
     }
+
+    /**
+     * Registers the remote listeners again after the remote reconnected
+     */
+    void resubscribe() {
+        NotificationMultiplexer current;
+        synchronized (this) {
+            current = multiplexer;
+        }
+        if (current != null) {
+            current.resubscribe();
+        }
+    }
+
+    /**
+     * @return true once the remote mbeanserver of the proxy was removed
+     */
+    boolean isRemoteRemoved() {
+        return remote != null && remote.isRemoved();
+    }
+
+    /**
+     * @return metrics of the remote, null for proxies of a fixed connection
+     */
+    CallMetrics getCallMetrics() {
+        return remote != null ? remote.getMetrics() : null;
+    }
+
+    /**
+     * @return the poller emitting change notifications the remote mbean does not send,
+     *         null for proxies of a fixed connection
+     */
+    AttributePoller getAttributePoller() {
+        return remote != null ? remote.getAttributePoller() : null;
+    }
+
+    private synchronized NotificationMultiplexer getMultiplexer() {
+        if (multiplexer == null) {
+            multiplexer = new NotificationMultiplexer(this);
+        }
+        return multiplexer;
+    }
 }
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+/**
+ * Collects call latencies per remote mbeanserver and per operation, and the
+ * bootstrap and registration timings of the JMXConnectionFinder. Recording
+ * is lock-free, percentiles are only computed when the attributes are read.
+ */
+public class Metrics implements MetricsMBean {
+
+    private static final String[] LATENCY_ITEMS = {
+            "count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"
+    };
+    private static final String[] OPERATION_ITEMS = callItems("operation");
+    private static final String[] REMOTE_OPERATION_ITEMS = callItems("remote", "operation");
+    private static final CompositeType LATENCY_TYPE;
+    private static final CompositeType OPERATION_TYPE;
+    private static final CompositeType REMOTE_OPERATION_TYPE;
+    private static final TabularType OPERATION_TABLE_TYPE;
+    private static final TabularType REMOTE_TABLE_TYPE;
+
+    static {
+        try {
+            LATENCY_TYPE = latencyType("Latency", LATENCY_ITEMS, 0);
+            OPERATION_TYPE = latencyType("OperationLatency", OPERATION_ITEMS, 1);
+            REMOTE_OPERATION_TYPE = latencyType("RemoteOperationLatency", REMOTE_OPERATION_ITEMS, 2);
+            OPERATION_TABLE_TYPE = new TabularType(
+                    "OperationLatencies", "latency and errors per operation",
+                    OPERATION_TYPE, new String[]{"operation"}
+            );
+            REMOTE_TABLE_TYPE = new TabularType(
+                    "RemoteOperationLatencies", "latency and errors per remote and operation",
+                    REMOTE_OPERATION_TYPE, new String[]{"remote", "operation"}
+            );
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final CallMetrics calls = new CallMetrics(null);
+    private final ConcurrentMap<String, CallMetrics> remotes
+            = new ConcurrentHashMap<String, CallMetrics>();
+    private final LatencyHistogram bootstrap = new LatencyHistogram();
+    private final LatencyHistogram registration = new LatencyHistogram();
+
+    /**
+     * @return metrics of the remote, also recorded in the totals
+     */
+    CallMetrics addRemote(String url) {
+        CallMetrics metrics = new CallMetrics(calls);
+        remotes.put(url, metrics);
+        return metrics;
+    }
+
+    void removeRemote(String url, CallMetrics metrics) {
+        remotes.remove(url, metrics);
+    }
+
+    void recordBootstrap(long nanos) {
+        bootstrap.record(nanos);
+    }
+
+    void recordRegistration(long nanos) {
+        registration.record(nanos);
+    }
+
+    public String[] getOperationLatencies() {
+        List<String> lines = calls.describe("");
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public String[] getRemoteLatencies() {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, CallMetrics> entry : remotes.entrySet()) {
+            lines.addAll(entry.getValue().describe(entry.getKey() + " "));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public TabularData getOperationLatencyTable() {
+        TabularData table = new TabularDataSupport(OPERATION_TABLE_TYPE);
+        addRows(table, OPERATION_TYPE, OPERATION_ITEMS, new Object[0], calls);
+        return table;
+    }
+
+    public TabularData getRemoteLatencyTable() {
+        TabularData table = new TabularDataSupport(REMOTE_TABLE_TYPE);
+        for (Map.Entry<String, CallMetrics> entry : remotes.entrySet()) {
+            addRows(table, REMOTE_OPERATION_TYPE, REMOTE_OPERATION_ITEMS,
+                    new Object[]{entry.getKey()}, entry.getValue());
+        }
+        return table;
+    }
+
+    public CompositeData getNotificationDeliveryLatencyData() {
+        return toCompositeData(calls.getNotificationDelivery());
+    }
+
+    public CompositeData getBootstrapLatencyData() {
+        return toCompositeData(bootstrap);
+    }
+
+    public CompositeData getRegistrationLatencyData() {
+        return toCompositeData(registration);
+    }
+
+    public String getNotificationDeliveryLatency() {
+        return calls.getNotificationDelivery().toString();
+    }
+
+    public String getBootstrapLatency() {
+        return bootstrap.toString();
+    }
+
+    public String getRegistrationLatency() {
+        return registration.toString();
+    }
+
+    public long getCallCount() {
+        return calls.getCallCount();
+    }
+
+    public long getCallErrorCount() {
+        return calls.getErrorCount();
+    }
+
+    public void reset() {
+        calls.reset();
+        for (CallMetrics metrics : remotes.values()) {
+            metrics.reset();
+        }
+        bootstrap.reset();
+        registration.reset();
+    }
+
+    /**
+     * Adds a row per operation that was called at least once
+     *
+     * @param keys values of the items before the operation
+     */
+    private static void addRows(
+            TabularData table, CompositeType type, String[] items, Object[] keys,
+            CallMetrics metrics
+    ) {
+        for (RemoteOperation operation : RemoteOperation.values()) {
+            LatencyHistogram latency = metrics.getLatency(operation);
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            Object[] values = new Object[items.length];
+            System.arraycopy(keys, 0, values, 0, keys.length);
+            values[keys.length] = operation.getDisplayName();
+            copyLatency(latency, values, keys.length + 1);
+            values[values.length - 1] = Long.valueOf(metrics.getErrors(operation));
+            table.put(composite(type, items, values));
+        }
+    }
+
+    private static CompositeData toCompositeData(LatencyHistogram latency) {
+        Object[] values = new Object[LATENCY_ITEMS.length];
+        copyLatency(latency, values, 0);
+        return composite(LATENCY_TYPE, LATENCY_ITEMS, values);
+    }
+
+    private static void copyLatency(LatencyHistogram latency, Object[] values, int offset) {
+        values[offset] = Long.valueOf(latency.getCount());
+        values[offset + 1] = Long.valueOf(latency.getMeanMicros());
+        values[offset + 2] = Long.valueOf(latency.getPercentileMicros(0.5));
+        values[offset + 3] = Long.valueOf(latency.getPercentileMicros(0.99));
+        values[offset + 4] = Long.valueOf(latency.getMaxMicros());
+    }
+
+    private static CompositeData composite(CompositeType type, String[] items, Object[] values) {
+        try {
+            return new CompositeDataSupport(type, items, values);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the key items, the latency items and errors
+     */
+    private static String[] callItems(String... keys) {
+        String[] items = new String[keys.length + LATENCY_ITEMS.length + 1];
+        System.arraycopy(keys, 0, items, 0, keys.length);
+        System.arraycopy(LATENCY_ITEMS, 0, items, keys.length, LATENCY_ITEMS.length);
+        items[items.length - 1] = "errors";
+        return items;
+    }
+
+    /**
+     * @param keys number of leading string items, the others are longs
+     */
+    private static CompositeType latencyType(String name, String[] items, int keys)
+            throws OpenDataException {
+        OpenType<?>[] types = new OpenType<?>[items.length];
+        for (int i = 0; i < items.length; i++) {
+            types[i] = i < keys ? SimpleType.STRING : SimpleType.LONG;
+        }
+        return new CompositeType(name, "latency in microseconds", items, items, types);
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Latency and throughput of the calls proxied to remote mbeanservers,
+ * percentiles are reported in microseconds. The Table and Data attributes
+ * hold the same figures as numbers for monitoring tools.
+ */
+public interface MetricsMBean {
+
+    /**
+     * count, p50, p99, max and errors of every operation over all remote mbeanservers
+     *
+     * @return
+     */
+    String[] getOperationLatencies();
+
+    /**
+     * count, p50, p99, max and errors of every operation per remote mbeanserver
+     *
+     * @return
+     */
+    String[] getRemoteLatencies();
+
+    /**
+     * count, meanMicros, p50Micros, p99Micros, maxMicros and errors
+     * of every operation over all remote mbeanservers, indexed by operation
+     *
+     * @return
+     */
+    TabularData getOperationLatencyTable();
+
+    /**
+     * the OperationLatencyTable items per remote mbeanserver,
+     * indexed by remote and operation
+     *
+     * @return
+     */
+    TabularData getRemoteLatencyTable();
+
+    /**
+     * time spent by local listeners handling notifications of remote mbeans
+     *
+     * @return
+     */
+    String getNotificationDeliveryLatency();
+
+    /**
+     * NotificationDeliveryLatency as count, meanMicros, p50Micros, p99Micros and maxMicros
+     *
+     * @return
+     */
+    CompositeData getNotificationDeliveryLatencyData();
+
+    /**
+     * time taken to connect to a remote mbeanserver and import its mbeans
+     *
+     * @return
+     */
+    String getBootstrapLatency();
+
+    /**
+     * BootstrapLatency as count, meanMicros, p50Micros, p99Micros and maxMicros
+     *
+     * @return
+     */
+    CompositeData getBootstrapLatencyData();
+
+    /**
+     * time taken to register a single proxy mbean
+     *
+     * @return
+     */
+    String getRegistrationLatency();
+
+    /**
+     * RegistrationLatency as count, meanMicros, p50Micros, p99Micros and maxMicros
+     *
+     * @return
+     */
+    CompositeData getRegistrationLatencyData();
+
+    /**
+     * number of calls made to remote mbeanservers
+     *
+     * @return
+     */
+    long getCallCount();
+
+    /**
+     * number of calls to remote mbeanservers that threw an exception
+     *
+     * @return
+     */
+    long getCallErrorCount();
+
+    /**
+     * clears all counters and histograms
+     */
+    void reset();
+}
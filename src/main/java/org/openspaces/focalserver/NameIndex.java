@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.management.ObjectName;
+
+/**
+ * Inverted index of ObjectNames by domain and by key property value.
+ * A pattern is answered by intersecting the postings of its literal
+ * domain and literal key properties, smallest first, and matching the
+ * remaining candidates against the pattern. Patterns without a literal
+ * part are answered by a scan of the indexed names.
+ */
+class NameIndex {
+
+    private static final Set<ObjectName> NONE = Collections.emptySet();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Set<ObjectName>> domains
+            = new HashMap<String, Set<ObjectName>>();
+    /**
+     * key to value to the names having that key property
+     */
+    private final Map<String, Map<String, Set<ObjectName>>> keys
+            = new HashMap<String, Map<String, Set<ObjectName>>>();
+    private int size;
+    private int postings;
+
+    /**
+     * Result of a pattern query with the way it was evaluated
+     */
+    static class Result {
+        private final Set<ObjectName> names;
+        private final List<String> plan;
+        private final int candidates;
+
+        Result(Set<ObjectName> names, List<String> plan, int candidates) {
+            this.names = names;
+            this.plan = plan;
+            this.candidates = candidates;
+        }
+
+        public Set<ObjectName> getNames() {
+            return names;
+        }
+
+        /**
+         * @return the postings intersected, as key=value(size), or scan
+         */
+        public List<String> getPlan() {
+            return plan;
+        }
+
+        /**
+         * @return number of names matched against the pattern
+         */
+        public int getCandidates() {
+            return candidates;
+        }
+    }
+
+    public void add(ObjectName name) {
+        lock.writeLock().lock();
+        try {
+            if (!posting(domains, name.getDomain()).add(name)) {
+                return;
+            }
+            size++;
+            for (Map.Entry<String, String> property : name.getKeyPropertyList().entrySet()) {
+                Map<String, Set<ObjectName>> values = keys.get(property.getKey());
+                if (values == null) {
+                    values = new HashMap<String, Set<ObjectName>>();
+                    keys.put(property.getKey(), values);
+                }
+                if (!values.containsKey(property.getValue())) {
+                    postings++;
+                }
+                posting(values, property.getValue()).add(name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(ObjectName name) {
+        lock.writeLock().lock();
+        try {
+            if (!unpost(domains, name.getDomain(), name)) {
+                return;
+            }
+            size--;
+            for (Map.Entry<String, String> property : name.getKeyPropertyList().entrySet()) {
+                Map<String, Set<ObjectName>> values = keys.get(property.getKey());
+                if (values != null && unpost(values, property.getValue(), name)
+                        && !values.containsKey(property.getValue())) {
+                    postings--;
+                    if (values.isEmpty()) {
+                        keys.remove(property.getKey());
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if names of the domain are indexed
+     */
+    public boolean containsDomain(String domain) {
+        lock.readLock().lock();
+        try {
+            return domains.containsKey(domain);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the indexed domains
+     */
+    public Set<String> getDomains() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<String>(domains.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of distinct key=value pairs
+     */
+    public int getPostingCount() {
+        lock.readLock().lock();
+        try {
+            return postings;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the indexed names matching the pattern, or the name itself if it is indexed
+     */
+    public Result query(ObjectName pattern) {
+        List<String> plan = new ArrayList<String>();
+        lock.readLock().lock();
+        try {
+            if (!pattern.isPattern()) {
+                Set<ObjectName> names = domains.get(pattern.getDomain());
+                boolean found = names != null && names.contains(pattern);
+                plan.add("lookup " + pattern);
+                return new Result(
+                        found ? Collections.singleton(pattern) : NONE, plan, 1
+                );
+            }
+            //names of the matching domains, null for any domain
+            List<Set<ObjectName>> domainNames = null;
+            int domainCount = 0;
+            if (!pattern.getDomain().equals("*")) {
+                domainNames = new ArrayList<Set<ObjectName>>();
+                for (Map.Entry<String, Set<ObjectName>> domain : domainsMatching(pattern.getDomain())) {
+                    domainNames.add(domain.getValue());
+                    domainCount += domain.getValue().size();
+                }
+                plan.add("domain=" + pattern.getDomain() + "(" + domainCount + ")");
+            }
+            List<Set<ObjectName>> keyNames = new ArrayList<Set<ObjectName>>();
+            boolean literal = true;
+            for (Map.Entry<String, String> property : pattern.getKeyPropertyList().entrySet()) {
+                if (pattern.isPropertyValuePattern(property.getKey())) {
+                    literal = false;
+                    continue;
+                }
+                Map<String, Set<ObjectName>> values = keys.get(property.getKey());
+                Set<ObjectName> names = values == null ? null : values.get(property.getValue());
+                plan.add(property.getKey() + "=" + property.getValue() + "(" + count(names) + ")");
+                keyNames.add(names == null ? NONE : names);
+            }
+            Set<ObjectName> smallest = null;
+            for (Set<ObjectName> names : keyNames) {
+                if (smallest == null || names.size() < smallest.size()) {
+                    smallest = names;
+                }
+            }
+            //literal key values in a domain posting need no further matching
+            int keyCount = pattern.isPropertyListPattern() ? -1 : pattern.getKeyPropertyList().size();
+            Set<ObjectName> result = new HashSet<ObjectName>();
+            int candidates = 0;
+            if (smallest == null || (domainNames != null && domainCount < smallest.size())) {
+                if (domainNames == null) {
+                    plan.add("scan(" + size + ")");
+                    domainNames = new ArrayList<Set<ObjectName>>(domains.values());
+                } else {
+                    plan.add("from domain");
+                }
+                for (Set<ObjectName> names : domainNames) {
+                    candidates += names.size();
+                    for (ObjectName name : names) {
+                        if (containedInAll(name, keyNames, null)
+                                && matches(pattern, name, literal, keyCount)) {
+                            result.add(name);
+                        }
+                    }
+                }
+                return new Result(result, plan, candidates);
+            }
+            plan.add("from " + smallest.size());
+            Set<String> domainFilter = null;
+            if (domainNames != null) {
+                domainFilter = new HashSet<String>();
+                for (Map.Entry<String, Set<ObjectName>> domain : domainsMatching(pattern.getDomain())) {
+                    domainFilter.add(domain.getKey());
+                }
+            }
+            for (ObjectName name : smallest) {
+                if ((domainFilter == null || domainFilter.contains(name.getDomain()))
+                        && containedInAll(name, keyNames, smallest)
+                        && matches(pattern, name, literal, keyCount)) {
+                    result.add(name);
+                }
+            }
+            return new Result(result, plan, smallest.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Matches a domain against a domain pattern of * and ? wildcards
+     */
+    static boolean matches(String pattern, String domain) {
+        int p = 0;
+        int d = 0;
+        int star = -1;
+        int mark = 0;
+        while (d < domain.length()) {
+            if (p < pattern.length()
+                    && (pattern.charAt(p) == '?' || pattern.charAt(p) == domain.charAt(d))) {
+                p++;
+                d++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = d;
+            } else if (star >= 0) {
+                p = star + 1;
+                d = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    private List<Map.Entry<String, Set<ObjectName>>> domainsMatching(String pattern) {
+        List<Map.Entry<String, Set<ObjectName>>> result
+                = new ArrayList<Map.Entry<String, Set<ObjectName>>>();
+        if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0) {
+            Set<ObjectName> names = domains.get(pattern);
+            if (names != null) {
+                result.add(new AbstractMap.SimpleImmutableEntry<String, Set<ObjectName>>(pattern, names));
+            }
+            return result;
+        }
+        for (Map.Entry<String, Set<ObjectName>> domain : domains.entrySet()) {
+            if (matches(pattern, domain.getKey())) {
+                result.add(domain);
+            }
+        }
+        return result;
+    }
+
+    private static boolean containedInAll(
+            ObjectName name, List<Set<ObjectName>> postings, Set<ObjectName> skip
+    ) {
+        for (Set<ObjectName> names : postings) {
+            if (names != skip && !names.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The domain and the literal key properties were matched by the postings,
+     * what is left is the number of keys and the wildcard values
+     */
+    private static boolean matches(ObjectName pattern, ObjectName name, boolean literal, int keyCount) {
+        if (!literal) {
+            return pattern.apply(name);
+        }
+        return keyCount < 0 || name.getKeyPropertyList().size() == keyCount;
+    }
+
+    private static int count(Set<ObjectName> names) {
+        return names == null ? 0 : names.size();
+    }
+
+    private static Set<ObjectName> posting(Map<String, Set<ObjectName>> index, String value) {
+        Set<ObjectName> names = index.get(value);
+        if (names == null) {
+            names = new HashSet<ObjectName>();
+            index.put(value, names);
+        }
+        return names;
+    }
+
+    /**
+     * @return false if the name was not in the posting
+     */
+    private static boolean unpost(Map<String, Set<ObjectName>> index, String value, ObjectName name) {
+        Set<ObjectName> names = index.get(value);
+        if (names == null || !names.remove(name)) {
+            return false;
+        }
+        if (names.isEmpty()) {
+            index.remove(value);
+        }
+        return true;
+    }
+}
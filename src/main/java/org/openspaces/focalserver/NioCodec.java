@@ -0,0 +1,756 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+/**
+ * Binary encoding of the fsnio connector frames. Primitives and their
+ * wrappers, strings, ObjectName, Attribute, AttributeList, ObjectInstance,
+ * string and object arrays, sets, CompositeData and TabularData are written
+ * compactly, anything else falls back to java serialization.
+ * <p>
+ * Serialized values are limited to the value classes of java.lang,
+ * java.util, java.math and javax.management and to the class name prefixes
+ * the connector is configured with; a decoder of responses also accepts
+ * exceptions. Other classes are refused before they are loaded.
+ * <p>
+ * A frame is [int length][byte kind][int id][byte opcode][count][values].
+ * Each direction of a connection has its own Encoder and Decoder: an
+ * ObjectName or open type is sent in full once and by number afterwards,
+ * so frames must be decoded in the order they were encoded.
+ */
+class NioCodec {
+
+    static final byte REQUEST = 1;
+    static final byte RESPONSE = 2;
+    static final byte ERROR = 3;
+    static final byte NOTIFICATION = 4;
+    static final byte NOTIFICATIONS_LOST = 5;
+
+    static final byte GET_ATTRIBUTE = 1;
+    static final byte GET_ATTRIBUTES = 2;
+    static final byte SET_ATTRIBUTE = 3;
+    static final byte SET_ATTRIBUTES = 4;
+    static final byte INVOKE = 5;
+    static final byte QUERY_NAMES = 6;
+    static final byte QUERY_MBEANS = 7;
+    static final byte IS_REGISTERED = 8;
+    static final byte GET_MBEAN_COUNT = 9;
+    static final byte GET_DEFAULT_DOMAIN = 10;
+    static final byte GET_DOMAINS = 11;
+    static final byte GET_MBEAN_INFO = 12;
+    static final byte IS_INSTANCE_OF = 13;
+    static final byte GET_OBJECT_INSTANCE = 14;
+    static final byte CREATE_MBEAN = 15;
+    static final byte UNREGISTER_MBEAN = 16;
+    static final byte ADD_LISTENER = 17;
+    static final byte REMOVE_LISTENERS = 18;
+    static final byte ADD_NAME_LISTENER = 19;
+    static final byte REMOVE_NAME_LISTENER = 20;
+
+    /**
+     * largest frame accepted, larger ones close the connection
+     */
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    /**
+     * ObjectNames and open types remembered per direction
+     */
+    static final int MAX_TABLE_SIZE = 16384;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * packages, without their sub packages, of the classes always deserialized
+     */
+    private static final Set<String> ALLOWED_PACKAGES = new HashSet<String>(Arrays.asList(
+            "java.lang", "java.util", "java.util.concurrent", "java.util.concurrent.atomic",
+            "java.math", "javax.management", "javax.management.openmbean",
+            "javax.management.modelmbean", "javax.management.monitor",
+            "javax.management.relation", "javax.management.timer"
+    ));
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte CHAR = 9;
+    private static final byte STRING = 10;
+    private static final byte NAME = 11;
+    private static final byte NAME_DEF = 12;
+    private static final byte NAME_REF = 13;
+    private static final byte ATTRIBUTE = 14;
+    private static final byte ATTRIBUTE_LIST = 15;
+    private static final byte OBJECT_INSTANCE = 16;
+    private static final byte STRING_ARRAY = 17;
+    private static final byte OBJECT_ARRAY = 18;
+    private static final byte SET = 19;
+    private static final byte COMPOSITE = 20;
+    private static final byte TABULAR = 21;
+    private static final byte DATE = 22;
+    private static final byte SERIALIZED = 23;
+
+    private static final byte TYPE = 0;
+    private static final byte TYPE_DEF = 1;
+    private static final byte TYPE_REF = 2;
+
+    /**
+     * A decoded frame
+     */
+    static class Frame {
+        byte kind;
+        int id;
+        byte opcode;
+        Object[] values;
+        /**
+         * first value that could not be deserialized, the others are decoded
+         */
+        Exception failure;
+    }
+
+    /**
+     * Writes the frames of one direction of a connection, not thread safe
+     */
+    static class Encoder {
+        private final Map<ObjectName, Integer> names = new HashMap<ObjectName, Integer>();
+        private final Map<OpenType<?>, Integer> types = new HashMap<OpenType<?>, Integer>();
+        private final List<ObjectName> newNames = new ArrayList<ObjectName>();
+        private final List<OpenType<?>> newTypes = new ArrayList<OpenType<?>>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        /**
+         * @return the frame including its length, nothing is remembered
+         *         if a value cannot be encoded
+         */
+        byte[] encode(byte kind, int id, byte opcode, Object... values) throws IOException {
+            bytes.reset();
+            newNames.clear();
+            newTypes.clear();
+            try {
+                out.writeInt(0);
+                out.writeByte(kind);
+                out.writeInt(id);
+                out.writeByte(opcode);
+                writeCount(values.length);
+                for (Object value : values) {
+                    write(value);
+                }
+            } catch (IOException e) {
+                forgetNew();
+                throw e;
+            } catch (RuntimeException e) {
+                forgetNew();
+                throw e;
+            }
+            out.flush();
+            byte[] frame = bytes.toByteArray();
+            int length = frame.length - 4;
+            frame[0] = (byte) (length >>> 24);
+            frame[1] = (byte) (length >>> 16);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+            if (bytes.size() > 64 * 1024) {
+                //do not keep a large buffer for the small frames
+                bytes.reset();
+            }
+            return frame;
+        }
+
+        private void forgetNew() {
+            for (ObjectName name : newNames) {
+                names.remove(name);
+            }
+            for (OpenType<?> type : newTypes) {
+                types.remove(type);
+            }
+        }
+
+        private void write(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof ObjectName) {
+                writeName((ObjectName) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt(((Integer) value).intValue());
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong(((Long) value).longValue());
+            } else if (value instanceof Boolean) {
+                out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(((Double) value).doubleValue());
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat(((Float) value).floatValue());
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort(((Short) value).shortValue());
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte(((Byte) value).byteValue());
+            } else if (value instanceof Character) {
+                out.writeByte(CHAR);
+                out.writeChar(((Character) value).charValue());
+            } else if (value.getClass() == Attribute.class) {
+                Attribute attribute = (Attribute) value;
+                out.writeByte(ATTRIBUTE);
+                writeString(attribute.getName());
+                write(attribute.getValue());
+            } else if (value.getClass() == AttributeList.class && isAttributes((AttributeList) value)) {
+                AttributeList list = (AttributeList) value;
+                out.writeByte(ATTRIBUTE_LIST);
+                writeCount(list.size());
+                for (Object item : list) {
+                    writeString(((Attribute) item).getName());
+                    write(((Attribute) item).getValue());
+                }
+            } else if (value.getClass() == ObjectInstance.class) {
+                ObjectInstance instance = (ObjectInstance) value;
+                out.writeByte(OBJECT_INSTANCE);
+                write(instance.getObjectName());
+                writeString(instance.getClassName());
+            } else if (value.getClass() == String[].class) {
+                String[] strings = (String[]) value;
+                out.writeByte(STRING_ARRAY);
+                writeCount(strings.length);
+                for (String string : strings) {
+                    writeString(string);
+                }
+            } else if (value.getClass() == Object[].class) {
+                Object[] objects = (Object[]) value;
+                out.writeByte(OBJECT_ARRAY);
+                writeCount(objects.length);
+                for (Object object : objects) {
+                    write(object);
+                }
+            } else if (value.getClass() == HashSet.class || value.getClass() == LinkedHashSet.class) {
+                Set<?> set = (Set<?>) value;
+                out.writeByte(SET);
+                writeCount(set.size());
+                for (Object item : set) {
+                    write(item);
+                }
+            } else if (value.getClass() == CompositeDataSupport.class) {
+                CompositeData data = (CompositeData) value;
+                out.writeByte(COMPOSITE);
+                writeType(data.getCompositeType());
+                writeItems(data);
+            } else if (value.getClass() == TabularDataSupport.class) {
+                TabularDataSupport table = (TabularDataSupport) value;
+                out.writeByte(TABULAR);
+                writeType(table.getTabularType());
+                writeCount(table.size());
+                for (Object row : table.values()) {
+                    writeItems((CompositeData) row);
+                }
+            } else if (value.getClass() == Date.class) {
+                out.writeByte(DATE);
+                out.writeLong(((Date) value).getTime());
+            } else {
+                out.writeByte(SERIALIZED);
+                writeSerialized(value);
+            }
+        }
+
+        /**
+         * items in the order of the keys of the composite type
+         */
+        private void writeItems(CompositeData data) throws IOException {
+            for (String key : data.getCompositeType().keySet()) {
+                write(data.get(key));
+            }
+        }
+
+        private void writeName(ObjectName name) throws IOException {
+            Integer id = names.get(name);
+            if (id != null) {
+                out.writeByte(NAME_REF);
+                writeCount(id.intValue());
+            } else if (names.size() < MAX_TABLE_SIZE) {
+                names.put(name, Integer.valueOf(names.size()));
+                newNames.add(name);
+                out.writeByte(NAME_DEF);
+                writeString(name.toString());
+            } else {
+                out.writeByte(NAME);
+                writeString(name.toString());
+            }
+        }
+
+        private void writeType(OpenType<?> type) throws IOException {
+            Integer id = types.get(type);
+            if (id != null) {
+                out.writeByte(TYPE_REF);
+                writeCount(id.intValue());
+                return;
+            }
+            if (types.size() < MAX_TABLE_SIZE) {
+                types.put(type, Integer.valueOf(types.size()));
+                newTypes.add(type);
+                out.writeByte(TYPE_DEF);
+            } else {
+                out.writeByte(TYPE);
+            }
+            writeSerialized(type);
+        }
+
+        private void writeSerialized(Object value) throws IOException {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream(256);
+            ObjectOutputStream oos = new ObjectOutputStream(serialized);
+            oos.writeObject(value);
+            oos.close();
+            writeCount(serialized.size());
+            serialized.writeTo(out);
+        }
+
+        /**
+         * null is written as length 0, other lengths shifted by one
+         */
+        private void writeString(String string) throws IOException {
+            if (string == null) {
+                writeCount(0);
+                return;
+            }
+            byte[] utf8 = string.getBytes(UTF8);
+            writeCount(utf8.length + 1);
+            out.write(utf8);
+        }
+
+        /**
+         * non negative int in 7 bit groups
+         */
+        private void writeCount(int count) throws IOException {
+            while ((count & ~0x7F) != 0) {
+                out.writeByte((count & 0x7F) | 0x80);
+                count >>>= 7;
+            }
+            out.writeByte(count);
+        }
+
+        private static boolean isAttributes(AttributeList list) {
+            for (Object item : list) {
+                if (item == null || item.getClass() != Attribute.class) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the frames of one direction of a connection, not thread safe
+     */
+    static class Decoder {
+        private final List<ObjectName> names = new ArrayList<ObjectName>();
+        private final List<OpenType<?>> types = new ArrayList<OpenType<?>>();
+        private final ClassLoader classLoader;
+        private final String[] allowedPrefixes;
+        private final boolean allowExceptions;
+        private DataInputStream in;
+        private Exception failure;
+
+        /**
+         * @param classLoader     loads the classes of serialized values, null for the default
+         * @param allowedPrefixes class name prefixes deserialized besides the standard value classes
+         * @param allowExceptions true to deserialize any exception, for the errors of a response
+         */
+        Decoder(ClassLoader classLoader, String[] allowedPrefixes, boolean allowExceptions) {
+            this.classLoader = classLoader;
+            this.allowedPrefixes = allowedPrefixes;
+            this.allowExceptions = allowExceptions;
+        }
+
+        /**
+         * @param frame a frame without its length
+         * @throws IOException if the frame is malformed, the connection
+         *                     cannot be read any further
+         */
+        Frame decode(byte[] frame, int offset, int length) throws IOException {
+            in = new DataInputStream(new ByteArrayInputStream(frame, offset, length));
+            failure = null;
+            try {
+                Frame result = new Frame();
+                result.kind = in.readByte();
+                result.id = in.readInt();
+                result.opcode = in.readByte();
+                result.values = new Object[readCount(1)];
+                for (int i = 0; i < result.values.length; i++) {
+                    result.values[i] = read();
+                }
+                result.failure = failure;
+                return result;
+            } catch (RuntimeException e) {
+                //a wrong type or table reference
+                throw (IOException) new IOException("Malformed frame: " + e).initCause(e);
+            } finally {
+                in = null;
+            }
+        }
+
+        private Object read() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case BYTE:
+                    return Byte.valueOf(in.readByte());
+                case SHORT:
+                    return Short.valueOf(in.readShort());
+                case INT:
+                    return Integer.valueOf(in.readInt());
+                case LONG:
+                    return Long.valueOf(in.readLong());
+                case FLOAT:
+                    return Float.valueOf(in.readFloat());
+                case DOUBLE:
+                    return Double.valueOf(in.readDouble());
+                case CHAR:
+                    return Character.valueOf(in.readChar());
+                case STRING:
+                    return readString();
+                case NAME:
+                    return toName(readString());
+                case NAME_DEF:
+                    ObjectName name = toName(readString());
+                    if (names.size() >= MAX_TABLE_SIZE) {
+                        throw new IOException("Too many ObjectNames");
+                    }
+                    names.add(name);
+                    return name;
+                case NAME_REF:
+                    return names.get(readReference(names.size()));
+                case ATTRIBUTE:
+                    return new Attribute(readString(), read());
+                case ATTRIBUTE_LIST: {
+                    int size = readCount(2);
+                    AttributeList list = new AttributeList(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(new Attribute(readString(), read()));
+                    }
+                    return list;
+                }
+                case OBJECT_INSTANCE:
+                    return new ObjectInstance((ObjectName) read(), readString());
+                case STRING_ARRAY: {
+                    String[] strings = new String[readCount(1)];
+                    for (int i = 0; i < strings.length; i++) {
+                        strings[i] = readString();
+                    }
+                    return strings;
+                }
+                case OBJECT_ARRAY: {
+                    Object[] objects = new Object[readCount(1)];
+                    for (int i = 0; i < objects.length; i++) {
+                        objects[i] = read();
+                    }
+                    return objects;
+                }
+                case SET: {
+                    int size = readCount(1);
+                    Set<Object> set = new HashSet<Object>(size * 4 / 3 + 1);
+                    for (int i = 0; i < size; i++) {
+                        set.add(read());
+                    }
+                    return set;
+                }
+                case COMPOSITE:
+                    return readItems((CompositeType) readType());
+                case TABULAR: {
+                    TabularType type = (TabularType) readType();
+                    int size = readCount(type.getRowType().keySet().size());
+                    TabularDataSupport table = new TabularDataSupport(type, size * 4 / 3 + 1, 0.75f);
+                    for (int i = 0; i < size; i++) {
+                        table.put(readItems(type.getRowType()));
+                    }
+                    return table;
+                }
+                case DATE:
+                    return new Date(in.readLong());
+                case SERIALIZED:
+                    return readSerialized();
+                default:
+                    throw new IOException("Unknown tag " + tag);
+            }
+        }
+
+        private CompositeData readItems(CompositeType type) throws IOException {
+            Set<String> keys = type.keySet();
+            String[] itemNames = keys.toArray(new String[keys.size()]);
+            Object[] values = new Object[itemNames.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = read();
+            }
+            try {
+                return new CompositeDataSupport(type, itemNames, values);
+            } catch (Exception e) {
+                throw (IOException) new IOException("Invalid " + type.getTypeName()).initCause(e);
+            }
+        }
+
+        private OpenType<?> readType() throws IOException {
+            byte tag = in.readByte();
+            if (tag == TYPE_REF) {
+                return types.get(readReference(types.size()));
+            }
+            Object type = readSerialized();
+            if (!(type instanceof OpenType)) {
+                throw new IOException("Open type expected, found " + type);
+            }
+            if (tag == TYPE_DEF) {
+                if (types.size() >= MAX_TABLE_SIZE) {
+                    throw new IOException("Too many open types");
+                }
+                types.add((OpenType<?>) type);
+            }
+            return (OpenType<?>) type;
+        }
+
+        /**
+         * @return null if the value cannot be deserialized, the failure
+         *         is kept for the frame and the next values are still read
+         */
+        private Object readSerialized() throws IOException {
+            byte[] serialized = new byte[readCount(1)];
+            in.readFully(serialized);
+            try {
+                ObjectInputStream ois = new LoaderObjectInputStream(
+                        new ByteArrayInputStream(serialized), this
+                );
+                try {
+                    return ois.readObject();
+                } finally {
+                    ois.close();
+                }
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                return null;
+            }
+        }
+
+        private String readString() throws IOException {
+            int length = readCount();
+            if (length == 0) {
+                return null;
+            }
+            if (length - 1 > in.available()) {
+                throw new IOException("String of " + (length - 1) + " bytes exceeds the frame");
+            }
+            byte[] utf8 = new byte[length - 1];
+            in.readFully(utf8);
+            return new String(utf8, UTF8);
+        }
+
+        private int readCount() throws IOException {
+            int count = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readByte();
+                count |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (count < 0) {
+                        throw new IOException("Negative count " + count);
+                    }
+                    return count;
+                }
+            }
+            throw new IOException("Malformed count");
+        }
+
+        /**
+         * @param minBytes fewest bytes one of the counted elements takes
+         * @return a count of elements that fit in the rest of the frame
+         */
+        private int readCount(int minBytes) throws IOException {
+            int count = readCount();
+            if ((long) count * minBytes > in.available()) {
+                throw new IOException("Count " + count + " exceeds the frame");
+            }
+            return count;
+        }
+
+        /**
+         * @return an index into a table of the given size
+         */
+        private int readReference(int size) throws IOException {
+            int index = readCount();
+            if (index >= size) {
+                throw new IOException("Unknown reference " + index);
+            }
+            return index;
+        }
+
+        private static ObjectName toName(String name) throws IOException {
+            try {
+                return ObjectName.getInstance(name);
+            } catch (Exception e) {
+                throw (IOException) new IOException("Invalid ObjectName " + name).initCause(e);
+            }
+        }
+    }
+
+    /**
+     * @param allowedPrefixes comma separated class name prefixes, may be null
+     */
+    static String[] allowedPrefixes(Object allowedPrefixes) {
+        if (allowedPrefixes == null) {
+            return new String[0];
+        }
+        List<String> result = new ArrayList<String>();
+        for (String prefix : allowedPrefixes.toString().split(",")) {
+            if (prefix.trim().length() > 0) {
+                result.add(prefix.trim());
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @param name serialized class name, arrays as [Lelement; or [J
+     * @return the class name of the array elements, null for arrays of a primitive type
+     */
+    static String elementName(String name) {
+        String element = name.replaceFirst("^\\[+", "");
+        if (element.length() == 1) {
+            return null;
+        }
+        if (element.length() != name.length()) {
+            element = element.substring(1, element.length() - 1);
+        }
+        return element;
+    }
+
+    /**
+     * @return true for the classes of the packages always deserialized
+     */
+    static boolean isStandardClass(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot > 0 && ALLOWED_PACKAGES.contains(className.substring(0, dot));
+    }
+
+    /**
+     * Resolves the allowed classes, with the loader of the decoder first
+     */
+    private static class LoaderObjectInputStream extends ObjectInputStream {
+        private final Decoder decoder;
+
+        LoaderObjectInputStream(InputStream in, Decoder decoder) throws IOException {
+            super(in);
+            this.decoder = decoder;
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            String element = elementName(name);
+            if (element == null) {
+                return super.resolveClass(desc);
+            }
+            boolean allowed = isAllowed(element);
+            if (!allowed && !decoder.allowExceptions) {
+                throw new InvalidClassException(name, "Not allowed over fsnio");
+            }
+            Class<?> type = load(desc);
+            if (!allowed) {
+                Class<?> elementType = type;
+                while (elementType.isArray()) {
+                    elementType = elementType.getComponentType();
+                }
+                if (!Throwable.class.isAssignableFrom(elementType)) {
+                    throw new InvalidClassException(name, "Not allowed over fsnio");
+                }
+            }
+            return type;
+        }
+
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed over fsnio");
+        }
+
+        private boolean isAllowed(String className) {
+            if (isStandardClass(className)) {
+                return true;
+            }
+            for (String prefix : decoder.allowedPrefixes) {
+                if (className.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * loads without initializing, exceptions are checked before any of their code runs
+         */
+        private Class<?> load(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (decoder.classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, decoder.classLoader);
+                } catch (ClassNotFoundException e) {
+                    //not visible to the loader, try the default
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+    private NioCodec() {
+    }
+}
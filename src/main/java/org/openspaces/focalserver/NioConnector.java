@@ -0,0 +1,738 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotCompliantMBeanException;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+/**
+ * Client of the fsnio connector, see NioConnectorServer. Every call of a client
+ * shares one socket: requests are written as soon as they are made and matched
+ * with their responses by id, so concurrent callers are pipelined instead of
+ * queueing behind each other. Notifications are pushed by the server and
+ * delivered to the listeners on one dispatch thread in the order received.
+ * <p>
+ * Delegation subjects and credentials are not supported.
+ */
+public class NioConnector implements JMXConnector {
+
+    /**
+     * environment key, milliseconds to wait for the server to accept the connection
+     */
+    public static final String CONNECT_TIMEOUT = "org.openspaces.focalserver.fsnio.connectTimeout";
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    private static final Logger LOGGER = Logger.getLogger(NioConnector.class.getName());
+
+    private final JMXServiceURL address;
+    private final Map<String, ?> environment;
+    private final NotificationBroadcasterSupport connectionBroadcaster
+            = new NotificationBroadcasterSupport();
+    private final AtomicLong connectionSequence = new AtomicLong();
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final AtomicInteger listenerIds = new AtomicInteger();
+    private final ConcurrentMap<Integer, Pending> pending = new ConcurrentHashMap<Integer, Pending>();
+    private final ConcurrentMap<Integer, ClientListener> listeners
+            = new ConcurrentHashMap<Integer, ClientListener>();
+    private final Connection connection = new Connection();
+    /**
+     * guards encoder and the socket output
+     */
+    private final Object writeLock = new Object();
+    private final NioCodec.Encoder encoder = new NioCodec.Encoder();
+    private Socket socket;
+    private OutputStream out;
+    private ThreadPoolExecutor dispatcher;
+    private volatile String connectionId;
+    private volatile boolean connected;
+    private volatile boolean closed;
+
+    /**
+     * A call waiting for its response
+     */
+    private static class Pending {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile NioCodec.Frame response;
+        volatile IOException failure;
+
+        void complete(NioCodec.Frame response) {
+            this.response = response;
+            done.countDown();
+        }
+
+        void fail(IOException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+
+    /**
+     * A local listener, known to the server by its id
+     */
+    private static class ClientListener {
+        final ObjectName name;
+        final NotificationListener listener;
+        final NotificationFilter filter;
+        final Object handback;
+        /**
+         * the filter could not be sent and is applied here
+         */
+        final boolean localFilter;
+
+        ClientListener(ObjectName name, NotificationListener listener,
+                       NotificationFilter filter, Object handback, boolean localFilter) {
+            this.name = name;
+            this.listener = listener;
+            this.filter = filter;
+            this.handback = handback;
+            this.localFilter = localFilter;
+        }
+    }
+
+    public NioConnector(JMXServiceURL address, Map<String, ?> environment)
+            throws MalformedURLException {
+        if (!NioConnectorServer.PROTOCOL.equals(address.getProtocol())) {
+            throw new MalformedURLException(
+                    "Protocol is not " + NioConnectorServer.PROTOCOL + ": " + address
+            );
+        }
+        this.address = address;
+        this.environment = environment;
+    }
+
+    public void connect() throws IOException {
+        connect(null);
+    }
+
+    public synchronized void connect(Map<String, ?> env) throws IOException {
+        if (closed) {
+            throw new IOException("Connector closed");
+        }
+        if (connected) {
+            return;
+        }
+        Object timeout = value(env, CONNECT_TIMEOUT);
+        Object loader = value(env, JMXConnectorFactory.DEFAULT_CLASS_LOADER);
+        final NioCodec.Decoder decoder = new NioCodec.Decoder(loader instanceof ClassLoader
+                ? (ClassLoader) loader : Thread.currentThread().getContextClassLoader(),
+                NioCodec.allowedPrefixes(value(env, NioConnectorServer.ALLOWED_CLASSES)), true);
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        try {
+            socket.connect(new InetSocketAddress(address.getHost(), address.getPort()),
+                    timeout == null ? DEFAULT_CONNECT_TIMEOUT : Integer.parseInt(timeout.toString()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        out = socket.getOutputStream();
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream(), 64 * 1024)
+        );
+        dispatcher = new ThreadPoolExecutor(
+                1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("FocalServer-fsnio-dispatch")
+        );
+        dispatcher.allowCoreThreadTimeOut(true);
+        connectionId = NioConnectorServer.PROTOCOL + "://" + address.getHost() + ":"
+                + address.getPort() + " " + socket.getLocalPort();
+        connected = true;
+        new NamedThreadFactory("FocalServer-fsnio-reader").newThread(new Runnable() {
+            public void run() {
+                receive(in, decoder);
+            }
+        }).start();
+        sendConnectionNotification(JMXConnectionNotification.OPENED, "Connected to " + address, null);
+    }
+
+    public MBeanServerConnection getMBeanServerConnection() throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected to " + address);
+        }
+        return connection;
+    }
+
+    public MBeanServerConnection getMBeanServerConnection(Subject delegationSubject)
+            throws IOException {
+        if (delegationSubject != null) {
+            throw new UnsupportedOperationException("Delegation subjects are not supported by fsnio");
+        }
+        return getMBeanServerConnection();
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        boolean wasConnected = connected;
+        shutdown(new IOException("Connector closed"));
+        if (wasConnected) {
+            sendConnectionNotification(JMXConnectionNotification.CLOSED, "Closed", null);
+        }
+    }
+
+    public void addConnectionNotificationListener(
+            NotificationListener listener, NotificationFilter filter, Object handback) {
+        connectionBroadcaster.addNotificationListener(listener, filter, handback);
+    }
+
+    public void removeConnectionNotificationListener(NotificationListener listener)
+            throws ListenerNotFoundException {
+        connectionBroadcaster.removeNotificationListener(listener);
+    }
+
+    public void removeConnectionNotificationListener(
+            NotificationListener listener, NotificationFilter filter, Object handback)
+            throws ListenerNotFoundException {
+        connectionBroadcaster.removeNotificationListener(listener, filter, handback);
+    }
+
+    public String getConnectionId() throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected to " + address);
+        }
+        return connectionId;
+    }
+
+    public String toString() {
+        return "NioConnector[" + address + "]";
+    }
+
+    /**
+     * reader thread, completes calls and dispatches notifications
+     */
+    private void receive(DataInputStream in, NioCodec.Decoder decoder) {
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > NioCodec.MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                NioCodec.Frame frame = decoder.decode(bytes, 0, length);
+                switch (frame.kind) {
+                    case NioCodec.RESPONSE:
+                    case NioCodec.ERROR:
+                        Pending call = pending.get(frame.id);
+                        if (call != null) {
+                            call.complete(frame);
+                        }
+                        break;
+                    case NioCodec.NOTIFICATION:
+                        deliver(frame);
+                        break;
+                    case NioCodec.NOTIFICATIONS_LOST:
+                        sendConnectionNotification(JMXConnectionNotification.NOTIFS_LOST,
+                                frame.values[0] + " notifications dropped by the server", frame.values[0]);
+                        break;
+                    default:
+                        throw new IOException("Unexpected frame kind " + frame.kind);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                failed(e);
+            }
+        } catch (RuntimeException e) {
+            //a frame with values of the wrong type
+            if (!closed) {
+                failed((IOException) new IOException("Malformed frame: " + e).initCause(e));
+            }
+        }
+    }
+
+    private void deliver(NioCodec.Frame frame) {
+        if (frame.failure != null) {
+            LOGGER.log(Level.FINE, "Dropped a notification from " + address, frame.failure);
+            return;
+        }
+        final ClientListener target = listeners.get(frame.values[0]);
+        final Notification notification = (Notification) frame.values[1];
+        if (target == null
+                || (target.localFilter && target.filter != null
+                && !target.filter.isNotificationEnabled(notification))) {
+            return;
+        }
+        dispatcher.execute(new Runnable() {
+            public void run() {
+                try {
+                    target.listener.handleNotification(notification, target.handback);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Listener failed on a notification from " + address, e);
+                }
+            }
+        });
+    }
+
+    private void failed(IOException cause) {
+        synchronized (this) {
+            if (!connected) {
+                return;
+            }
+            closed = true;
+        }
+        LOGGER.log(Level.FINE, "Connection to " + address + " failed", cause);
+        shutdown(cause);
+        sendConnectionNotification(JMXConnectionNotification.FAILED, cause.toString(), cause);
+    }
+
+    private void shutdown(IOException cause) {
+        connected = false;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+        }
+        for (Pending call : pending.values()) {
+            call.fail(cause);
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    private void sendConnectionNotification(String type, String message, Object userData) {
+        connectionBroadcaster.sendNotification(new JMXConnectionNotification(
+                type, this, connectionId, connectionSequence.incrementAndGet(), message, userData
+        ));
+    }
+
+    /**
+     * Sends a request and waits for its response
+     *
+     * @return the result, or throws the exception of the remote call
+     */
+    private Object call(byte opcode, Object... values) throws Exception {
+        Integer id = requestIds.incrementAndGet();
+        Pending call = new Pending();
+        pending.put(id, call);
+        try {
+            synchronized (writeLock) {
+                if (!connected) {
+                    throw new IOException("Not connected to " + address);
+                }
+                byte[] frame = encoder.encode(NioCodec.REQUEST, id, opcode, values);
+                try {
+                    out.write(frame);
+                } catch (IOException e) {
+                    failed(e);
+                    throw e;
+                }
+            }
+            try {
+                call.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + address);
+            }
+        } finally {
+            pending.remove(id);
+        }
+        if (call.failure != null) {
+            throw call.failure;
+        }
+        NioCodec.Frame response = call.response;
+        if (response.failure != null) {
+            throw response.failure;
+        }
+        Object result = response.values.length > 0 ? response.values[0] : null;
+        if (response.kind == NioCodec.ERROR) {
+            if (result instanceof Exception) {
+                throw (Exception) result;
+            }
+            if (result instanceof Error) {
+                throw (Error) result;
+            }
+            throw new IOException("Remote call failed: " + result);
+        }
+        return result;
+    }
+
+    private Object value(Map<String, ?> env, String key) {
+        Object value = env == null ? null : env.get(key);
+        if (value == null && environment != null) {
+            value = environment.get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Throws e if it is of the given type
+     */
+    private static <E extends Exception> void rethrow(Exception e, Class<E> type) throws E {
+        if (type.isInstance(e)) {
+            throw type.cast(e);
+        }
+    }
+
+    /**
+     * @return e as the IOException every remote call may throw
+     */
+    private static IOException unexpected(Exception e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        return new IOException("Unexpected remote exception", e);
+    }
+
+    // ----- Interface MBeanServerConnection -----
+
+    private class Connection implements MBeanServerConnection {
+
+        public ObjectInstance createMBean(String className, ObjectName name)
+                throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException,
+                MBeanException, NotCompliantMBeanException, IOException {
+            return createMBean(className, name, null, null);
+        }
+
+        public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName)
+                throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException,
+                MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+            return createMBean(className, name, loaderName, null, null);
+        }
+
+        public ObjectInstance createMBean(String className, ObjectName name,
+                                          Object[] params, String[] signature)
+                throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException,
+                MBeanException, NotCompliantMBeanException, IOException {
+            try {
+                return createMBean(className, name, null, params, signature);
+            } catch (InstanceNotFoundException e) {
+                //no loader name
+                throw unexpected(e);
+            }
+        }
+
+        public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName,
+                                          Object[] params, String[] signature)
+                throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException,
+                MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+            try {
+                return (ObjectInstance) call(NioCodec.CREATE_MBEAN,
+                        className, name, loaderName, params, signature);
+            } catch (Exception e) {
+                rethrow(e, ReflectionException.class);
+                rethrow(e, InstanceAlreadyExistsException.class);
+                rethrow(e, MBeanRegistrationException.class);
+                rethrow(e, MBeanException.class);
+                rethrow(e, NotCompliantMBeanException.class);
+                rethrow(e, InstanceNotFoundException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public void unregisterMBean(ObjectName name)
+                throws InstanceNotFoundException, MBeanRegistrationException, IOException {
+            try {
+                call(NioCodec.UNREGISTER_MBEAN, name);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, MBeanRegistrationException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public ObjectInstance getObjectInstance(ObjectName name)
+                throws InstanceNotFoundException, IOException {
+            try {
+                return (ObjectInstance) call(NioCodec.GET_OBJECT_INSTANCE, name);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                throw unexpected(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query) throws IOException {
+            try {
+                return (Set<ObjectInstance>) call(NioCodec.QUERY_MBEANS, name, query);
+            } catch (Exception e) {
+                throw unexpected(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public Set<ObjectName> queryNames(ObjectName name, QueryExp query) throws IOException {
+            try {
+                return (Set<ObjectName>) call(NioCodec.QUERY_NAMES, name, query);
+            } catch (Exception e) {
+                throw unexpected(e);
+            }
+        }
+
+        public boolean isRegistered(ObjectName name) throws IOException {
+            try {
+                return (Boolean) call(NioCodec.IS_REGISTERED, name);
+            } catch (Exception e) {
+                throw unexpected(e);
+            }
+        }
+
+        public Integer getMBeanCount() throws IOException {
+            try {
+                return (Integer) call(NioCodec.GET_MBEAN_COUNT);
+            } catch (Exception e) {
+                throw unexpected(e);
+            }
+        }
+
+        public Object getAttribute(ObjectName name, String attribute)
+                throws MBeanException, AttributeNotFoundException, InstanceNotFoundException,
+                ReflectionException, IOException {
+            try {
+                return call(NioCodec.GET_ATTRIBUTE, name, attribute);
+            } catch (Exception e) {
+                rethrow(e, MBeanException.class);
+                rethrow(e, AttributeNotFoundException.class);
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, ReflectionException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public AttributeList getAttributes(ObjectName name, String[] attributes)
+                throws InstanceNotFoundException, ReflectionException, IOException {
+            try {
+                return (AttributeList) call(NioCodec.GET_ATTRIBUTES, name, attributes);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, ReflectionException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public void setAttribute(ObjectName name, Attribute attribute)
+                throws InstanceNotFoundException, AttributeNotFoundException,
+                InvalidAttributeValueException, MBeanException, ReflectionException, IOException {
+            try {
+                call(NioCodec.SET_ATTRIBUTE, name, attribute);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, AttributeNotFoundException.class);
+                rethrow(e, InvalidAttributeValueException.class);
+                rethrow(e, MBeanException.class);
+                rethrow(e, ReflectionException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public AttributeList setAttributes(ObjectName name, AttributeList attributes)
+                throws InstanceNotFoundException, ReflectionException, IOException {
+            try {
+                return (AttributeList) call(NioCodec.SET_ATTRIBUTES, name, attributes);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, ReflectionException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public Object invoke(ObjectName name, String operationName, Object[] params, String[] signature)
+                throws InstanceNotFoundException, MBeanException, ReflectionException, IOException {
+            try {
+                return call(NioCodec.INVOKE, name, operationName, params, signature);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, MBeanException.class);
+                rethrow(e, ReflectionException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public String getDefaultDomain() throws IOException {
+            try {
+                return (String) call(NioCodec.GET_DEFAULT_DOMAIN);
+            } catch (Exception e) {
+                throw unexpected(e);
+            }
+        }
+
+        public String[] getDomains() throws IOException {
+            try {
+                return (String[]) call(NioCodec.GET_DOMAINS);
+            } catch (Exception e) {
+                throw unexpected(e);
+            }
+        }
+
+        public void addNotificationListener(ObjectName name, NotificationListener listener,
+                                            NotificationFilter filter, Object handback)
+                throws InstanceNotFoundException, IOException {
+            //a filter that cannot be sent is applied on this side
+            boolean localFilter = filter != null && !(filter instanceof Serializable);
+            Integer id = listenerIds.incrementAndGet();
+            listeners.put(id, new ClientListener(name, listener, filter, handback, localFilter));
+            try {
+                call(NioCodec.ADD_LISTENER, name, localFilter ? null : filter, id);
+            } catch (Exception e) {
+                listeners.remove(id);
+                rethrow(e, InstanceNotFoundException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public void addNotificationListener(ObjectName name, ObjectName listener,
+                                            NotificationFilter filter, Object handback)
+                throws InstanceNotFoundException, IOException {
+            try {
+                call(NioCodec.ADD_NAME_LISTENER, name, listener, filter, handback);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public void removeNotificationListener(ObjectName name, ObjectName listener)
+                throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+            removeNameListener(name, listener, false, null, null);
+        }
+
+        public void removeNotificationListener(ObjectName name, ObjectName listener,
+                                               NotificationFilter filter, Object handback)
+                throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+            removeNameListener(name, listener, true, filter, handback);
+        }
+
+        private void removeNameListener(ObjectName name, ObjectName listener, boolean exact,
+                                        NotificationFilter filter, Object handback)
+                throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+            try {
+                call(NioCodec.REMOVE_NAME_LISTENER, name, listener, exact, filter, handback);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, ListenerNotFoundException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public void removeNotificationListener(ObjectName name, NotificationListener listener)
+                throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+            removeListeners(name, listener, false, null, null);
+        }
+
+        public void removeNotificationListener(ObjectName name, NotificationListener listener,
+                                               NotificationFilter filter, Object handback)
+                throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+            removeListeners(name, listener, true, filter, handback);
+        }
+
+        private void removeListeners(ObjectName name, NotificationListener listener, boolean exact,
+                                     NotificationFilter filter, Object handback)
+                throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+            List<Integer> ids = new ArrayList<Integer>();
+            for (Map.Entry<Integer, ClientListener> entry : listeners.entrySet()) {
+                ClientListener candidate = entry.getValue();
+                if (candidate.listener == listener && candidate.name.equals(name)
+                        && (!exact || (candidate.filter == filter && candidate.handback == handback))) {
+                    ids.add(entry.getKey());
+                    if (exact) {
+                        break;
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                throw new ListenerNotFoundException("Listener not registered on " + name);
+            }
+            for (Integer id : ids) {
+                listeners.remove(id);
+            }
+            try {
+                call(NioCodec.REMOVE_LISTENERS, (Object) ids.toArray());
+            } catch (Exception e) {
+                throw unexpected(e);
+            }
+        }
+
+        public MBeanInfo getMBeanInfo(ObjectName name)
+                throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+            try {
+                return (MBeanInfo) call(NioCodec.GET_MBEAN_INFO, name);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                rethrow(e, IntrospectionException.class);
+                rethrow(e, ReflectionException.class);
+                throw unexpected(e);
+            }
+        }
+
+        public boolean isInstanceOf(ObjectName name, String className)
+                throws InstanceNotFoundException, IOException {
+            try {
+                return (Boolean) call(NioCodec.IS_INSTANCE_OF, name, className);
+            } catch (Exception e) {
+                rethrow(e, InstanceNotFoundException.class);
+                throw unexpected(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,706 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.RuntimeErrorException;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Connector server of the fsnio protocol, an alternative to the RMI connector.
+ * One selector thread accepts and reads every connection with non-blocking I/O,
+ * the frames of a connection are decoded in order on a worker pool where the
+ * requests run, responses are sent as they complete, so a client can
+ * pipeline any number of calls over one connection. Notifications
+ * are pushed to the client when emitted instead of being fetched. Values are
+ * written with the compact NioCodec encoding.
+ * <p>
+ * Address service:jmx:fsnio://host:port, port 0 picks a free port. Forwarders
+ * set with setMBeanServerForwarder apply as with the RMI connector. There is
+ * no authentication, the connector must only be reachable from trusted hosts.
+ */
+public class NioConnectorServer extends JMXConnectorServer {
+
+    public static final String PROTOCOL = "fsnio";
+    /**
+     * environment key, number of threads running requests
+     */
+    public static final String WORKER_THREADS = "org.openspaces.focalserver.fsnio.workerThreads";
+    public static final int DEFAULT_WORKER_THREADS = 16;
+    /**
+     * environment key, bytes waiting to be sent to a client above which
+     * notifications for it are dropped and reported as lost, and its
+     * requests are no longer read until half of them are sent
+     */
+    public static final String MAX_QUEUED_BYTES = "org.openspaces.focalserver.fsnio.maxQueuedBytes";
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+    /**
+     * environment key of the server and the client, comma separated class name
+     * prefixes of the serialized values accepted besides the standard value classes
+     */
+    public static final String ALLOWED_CLASSES = "org.openspaces.focalserver.fsnio.allowedClasses";
+
+    private static final Logger LOGGER = Logger.getLogger(NioConnectorServer.class.getName());
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+    /**
+     * requests of a client read but not answered yet above which it is no longer read
+     */
+    private static final int MAX_PENDING_REQUESTS = 1024;
+
+    private final JMXServiceURL url;
+    private final int workerThreads;
+    private final long maxQueuedBytes;
+    private final String[] allowedPrefixes;
+    private volatile JMXServiceURL address;
+    private volatile boolean active;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private ThreadPoolExecutor workers;
+    private final Set<Connection> connections
+            = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    /**
+     * connections whose interest ops changed, bytes left to write or
+     * reading paused, handed to the selector thread
+     */
+    private final ConcurrentLinkedQueue<Connection> writeInterest
+            = new ConcurrentLinkedQueue<Connection>();
+    private final AtomicLong clientIds = new AtomicLong();
+
+    /**
+     * A client connection, read and flushed by the selector thread,
+     * written by the workers and the notification listeners
+     */
+    private class Connection {
+        final SocketChannel channel;
+        final String connectionId;
+        SelectionKey key;
+        /**
+         * selector thread only
+         */
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        /**
+         * complete frames waiting to be decoded
+         */
+        final ConcurrentLinkedQueue<byte[]> frames = new ConcurrentLinkedQueue<byte[]>();
+        /**
+         * set while a worker decodes the frames, they are decoded in order by one worker at a time
+         */
+        final AtomicBoolean decoding = new AtomicBoolean();
+        /**
+         * requests read and not answered yet
+         */
+        final AtomicInteger pendingRequests = new AtomicInteger();
+        /**
+         * decoding worker only
+         */
+        final NioCodec.Decoder decoder = new NioCodec.Decoder(null, allowedPrefixes, false);
+        /**
+         * encoder, out, queuedBytes, writeEnabled and readPaused are guarded by this
+         */
+        final NioCodec.Encoder encoder = new NioCodec.Encoder();
+        final Deque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+        long queuedBytes;
+        boolean writeEnabled;
+        /**
+         * set while the client sends requests faster than it reads the responses
+         */
+        boolean readPaused;
+        final ConcurrentMap<Integer, PushListener> listeners
+                = new ConcurrentHashMap<Integer, PushListener>();
+        final AtomicLong lostNotifications = new AtomicLong();
+        volatile boolean closed;
+
+        Connection(SocketChannel channel, String connectionId) {
+            this.channel = channel;
+            this.connectionId = connectionId;
+        }
+
+        /**
+         * Reads what is available and hands the complete frames to a worker
+         */
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close(null);
+                return;
+            }
+            in.flip();
+            int needed = 0;
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length <= 0 || length > NioCodec.MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    needed = 4 + length;
+                    break;
+                }
+                in.position(in.position() + 4);
+                byte[] frame = new byte[length];
+                in.get(frame);
+                received(frame);
+            }
+            in.compact();
+            synchronized (this) {
+                if (!readPaused && pendingRequests.get() > MAX_PENDING_REQUESTS) {
+                    pauseRead();
+                }
+            }
+            if (needed > in.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            } else if (in.position() == 0 && in.capacity() > READ_BUFFER_BYTES) {
+                in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            }
+        }
+
+        private void received(byte[] frame) {
+            pendingRequests.incrementAndGet();
+            frames.add(frame);
+            if (!decoding.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        decodeFrames();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //stopping
+                decoding.set(false);
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+        }
+
+        /**
+         * worker, decodes the received frames in order and dispatches them,
+         * a malformed frame closes the connection
+         */
+        private void decodeFrames() {
+            do {
+                byte[] frame;
+                while ((frame = frames.poll()) != null) {
+                    if (closed) {
+                        frames.clear();
+                        return;
+                    }
+                    try {
+                        dispatch(decoder.decode(frame, 0, frame.length));
+                    } catch (IOException e) {
+                        frames.clear();
+                        close(e);
+                        return;
+                    }
+                }
+                decoding.set(false);
+            } while (!frames.isEmpty() && decoding.compareAndSet(false, true));
+        }
+
+        private void dispatch(final NioCodec.Frame frame) throws IOException {
+            if (frame.kind != NioCodec.REQUEST) {
+                throw new IOException("Unexpected frame kind " + frame.kind);
+            }
+            try {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        handle(frame);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //stopping
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+        }
+
+        private void handle(NioCodec.Frame frame) {
+            if (closed) {
+                return;
+            }
+            Object result;
+            byte kind = NioCodec.RESPONSE;
+            try {
+                if (frame.failure != null) {
+                    throw frame.failure;
+                }
+                result = execute(this, frame.opcode, frame.values);
+            } catch (Exception e) {
+                kind = NioCodec.ERROR;
+                result = e;
+            } catch (Error e) {
+                kind = NioCodec.ERROR;
+                result = new RuntimeErrorException(e);
+            }
+            send(kind, frame.id, result);
+            pendingRequests.decrementAndGet();
+            synchronized (this) {
+                resumeReadIfCaughtUp();
+            }
+        }
+
+        void send(byte kind, int id, Object... values) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                byte[] frame;
+                try {
+                    frame = encoder.encode(kind, id, (byte) 0, values);
+                } catch (IOException e) {
+                    if (kind == NioCodec.NOTIFICATION) {
+                        LOGGER.log(Level.FINE, "Cannot send notification to " + connectionId, e);
+                        return;
+                    }
+                    try {
+                        frame = encoder.encode(NioCodec.ERROR, id, (byte) 0,
+                                new IOException("Cannot send result: " + e));
+                    } catch (IOException e1) {
+                        close(e1);
+                        return;
+                    }
+                }
+                queue(frame);
+            }
+        }
+
+        /**
+         * Pushes a notification unless the client is too slow to keep up
+         */
+        void push(Integer listenerId, Notification notification) {
+            synchronized (this) {
+                if (queuedBytes > maxQueuedBytes) {
+                    lostNotifications.incrementAndGet();
+                    return;
+                }
+                long lost = lostNotifications.getAndSet(0);
+                if (lost > 0) {
+                    send(NioCodec.NOTIFICATIONS_LOST, 0, Long.valueOf(lost));
+                }
+                send(NioCodec.NOTIFICATION, 0, listenerId, notification);
+            }
+        }
+
+        /**
+         * Writes right away when nothing is pending, otherwise
+         * leaves the frame to the selector thread
+         */
+        private void queue(byte[] frame) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            try {
+                if (out.isEmpty()) {
+                    channel.write(buffer);
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close(e);
+                return;
+            }
+            out.add(buffer);
+            queuedBytes += buffer.remaining();
+            if (!readPaused && queuedBytes > maxQueuedBytes) {
+                writeEnabled = true;
+                pauseRead();
+            } else if (!writeEnabled) {
+                writeEnabled = true;
+                interestChanged();
+            }
+        }
+
+        /**
+         * no more requests until the client takes its responses
+         */
+        private void pauseRead() {
+            readPaused = true;
+            interestChanged();
+        }
+
+        private void resumeReadIfCaughtUp() {
+            if (readPaused && queuedBytes <= maxQueuedBytes / 2
+                    && pendingRequests.get() <= MAX_PENDING_REQUESTS / 2) {
+                readPaused = false;
+                interestChanged();
+            }
+        }
+
+        private void interestChanged() {
+            writeInterest.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * selector thread, writes the pending frames
+         */
+        synchronized void flush() throws IOException {
+            while (!out.isEmpty()) {
+                ByteBuffer buffer = out.peek();
+                queuedBytes -= channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                out.poll();
+            }
+            if (out.isEmpty()) {
+                writeEnabled = false;
+            }
+            resumeReadIfCaughtUp();
+            updateInterest();
+        }
+
+        /**
+         * selector thread, reads unless paused and writes while bytes are left
+         */
+        synchronized void updateInterest() {
+            if (closed || !key.isValid()) {
+                return;
+            }
+            int ops = readPaused ? 0 : SelectionKey.OP_READ;
+            if (writeEnabled) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        /**
+         * @param cause null when the client closed the connection
+         */
+        void close(Exception cause) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                out.clear();
+            }
+            connections.remove(this);
+            for (PushListener listener : listeners.values()) {
+                removePushListener(this, listener);
+            }
+            listeners.clear();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+            if (cause == null) {
+                connectionClosed(connectionId, "Client disconnected", null);
+            } else {
+                LOGGER.log(Level.FINE, "Connection " + connectionId + " failed", cause);
+                connectionFailed(connectionId, cause.toString(), null);
+            }
+        }
+    }
+
+    /**
+     * Registered on the mbeanserver for one remote listener of a client
+     */
+    private static class PushListener implements NotificationListener {
+        final Connection connection;
+        final Integer id;
+        final ObjectName name;
+
+        PushListener(Connection connection, Integer id, ObjectName name) {
+            this.connection = connection;
+            this.id = id;
+            this.name = name;
+        }
+
+        public void handleNotification(Notification notification, Object handback) {
+            if (!connection.closed) {
+                connection.push(id, notification);
+            }
+        }
+    }
+
+    public NioConnectorServer(JMXServiceURL url, Map<String, ?> environment, MBeanServer server)
+            throws MalformedURLException {
+        super(server);
+        if (!PROTOCOL.equals(url.getProtocol())) {
+            throw new MalformedURLException("Protocol is not " + PROTOCOL + ": " + url);
+        }
+        this.url = url;
+        this.workerThreads = intValue(environment, WORKER_THREADS, DEFAULT_WORKER_THREADS);
+        this.maxQueuedBytes = longValue(environment, MAX_QUEUED_BYTES, DEFAULT_MAX_QUEUED_BYTES);
+        this.allowedPrefixes = NioCodec.allowedPrefixes(
+                environment == null ? null : environment.get(ALLOWED_CLASSES)
+        );
+    }
+
+    public synchronized void start() throws IOException {
+        if (active) {
+            return;
+        }
+        if (getMBeanServer() == null) {
+            throw new IllegalStateException("No MBeanServer to serve");
+        }
+        String host = url.getHost();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(host.length() == 0
+                ? new InetSocketAddress(url.getPort())
+                : new InetSocketAddress(host, url.getPort()));
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        if (host.length() == 0 || serverChannel.socket().getInetAddress().isAnyLocalAddress()) {
+            host = InetAddress.getLocalHost().getHostName();
+        }
+        address = new JMXServiceURL(PROTOCOL, host, serverChannel.socket().getLocalPort());
+        workers = new ThreadPoolExecutor(
+                workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("FocalServer-fsnio")
+        );
+        workers.allowCoreThreadTimeOut(true);
+        active = true;
+        new NamedThreadFactory("FocalServer-fsnio-selector").newThread(new Runnable() {
+            public void run() {
+                select();
+            }
+        }).start();
+        LOGGER.log(Level.INFO, "Listening on " + address);
+    }
+
+    public synchronized void stop() throws IOException {
+        if (!active) {
+            return;
+        }
+        active = false;
+        for (Connection connection : connections) {
+            connection.close(null);
+        }
+        selector.close();
+        serverChannel.close();
+        workers.shutdown();
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public JMXServiceURL getAddress() {
+        return address;
+    }
+
+    public Map<String, ?> getAttributes() {
+        return Collections.emptyMap();
+    }
+
+    private void select() {
+        while (active) {
+            try {
+                selector.select();
+                Connection pending;
+                while ((pending = writeInterest.poll()) != null) {
+                    pending.updateInterest();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException e) {
+                        connection.close(e);
+                    } catch (RuntimeException e) {
+                        //only this connection is affected, the selector keeps serving the others
+                        connection.close(e);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Selector failed on " + address, e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Socket socket = channel.socket();
+        socket.setTcpNoDelay(true);
+        Connection connection = new Connection(channel, PROTOCOL + "://"
+                + socket.getInetAddress().getHostAddress() + ":" + socket.getPort()
+                + " " + clientIds.incrementAndGet());
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+        connectionOpened(connection.connectionId, "Client connected", null);
+    }
+
+    /**
+     * Runs one request on the mbeanserver, behind the forwarders if any
+     */
+    private Object execute(Connection connection, byte opcode, Object[] values) throws Exception {
+        MBeanServer server = getMBeanServer();
+        ObjectName name = values.length > 0 && values[0] instanceof ObjectName
+                ? (ObjectName) values[0] : null;
+        switch (opcode) {
+            case NioCodec.GET_ATTRIBUTE:
+                return server.getAttribute(name, (String) values[1]);
+            case NioCodec.GET_ATTRIBUTES:
+                return server.getAttributes(name, (String[]) values[1]);
+            case NioCodec.SET_ATTRIBUTE:
+                server.setAttribute(name, (Attribute) values[1]);
+                return null;
+            case NioCodec.SET_ATTRIBUTES:
+                return server.setAttributes(name, (AttributeList) values[1]);
+            case NioCodec.INVOKE:
+                return server.invoke(name, (String) values[1], (Object[]) values[2], (String[]) values[3]);
+            case NioCodec.QUERY_NAMES:
+                return server.queryNames(name, (QueryExp) values[1]);
+            case NioCodec.QUERY_MBEANS:
+                return server.queryMBeans(name, (QueryExp) values[1]);
+            case NioCodec.IS_REGISTERED:
+                return Boolean.valueOf(server.isRegistered(name));
+            case NioCodec.GET_MBEAN_COUNT:
+                return server.getMBeanCount();
+            case NioCodec.GET_DEFAULT_DOMAIN:
+                return server.getDefaultDomain();
+            case NioCodec.GET_DOMAINS:
+                return server.getDomains();
+            case NioCodec.GET_MBEAN_INFO:
+                return server.getMBeanInfo(name);
+            case NioCodec.IS_INSTANCE_OF:
+                return Boolean.valueOf(server.isInstanceOf(name, (String) values[1]));
+            case NioCodec.GET_OBJECT_INSTANCE:
+                return server.getObjectInstance(name);
+            case NioCodec.CREATE_MBEAN:
+                //className, name, loaderName, params, signature
+                if (values[2] == null) {
+                    return server.createMBean((String) values[0], (ObjectName) values[1],
+                            (Object[]) values[3], (String[]) values[4]);
+                }
+                return server.createMBean((String) values[0], (ObjectName) values[1],
+                        (ObjectName) values[2], (Object[]) values[3], (String[]) values[4]);
+            case NioCodec.UNREGISTER_MBEAN:
+                server.unregisterMBean(name);
+                return null;
+            case NioCodec.ADD_LISTENER: {
+                Integer id = (Integer) values[2];
+                PushListener listener = new PushListener(connection, id, name);
+                server.addNotificationListener(name, listener, (NotificationFilter) values[1], null);
+                connection.listeners.put(id, listener);
+                if (connection.closed && connection.listeners.remove(id) != null) {
+                    removePushListener(connection, listener);
+                }
+                return null;
+            }
+            case NioCodec.REMOVE_LISTENERS:
+                for (Object id : (Object[]) values[0]) {
+                    PushListener listener = connection.listeners.remove(id);
+                    if (listener != null) {
+                        server.removeNotificationListener(listener.name, listener);
+                    }
+                }
+                return null;
+            case NioCodec.ADD_NAME_LISTENER:
+                server.addNotificationListener(name, (ObjectName) values[1],
+                        (NotificationFilter) values[2], values[3]);
+                return null;
+            case NioCodec.REMOVE_NAME_LISTENER:
+                //name, listener, exact, filter, handback
+                if (Boolean.TRUE.equals(values[2])) {
+                    server.removeNotificationListener(name, (ObjectName) values[1],
+                            (NotificationFilter) values[3], values[4]);
+                } else {
+                    server.removeNotificationListener(name, (ObjectName) values[1]);
+                }
+                return null;
+            default:
+                throw new UnsupportedOperationException("Unknown operation " + opcode);
+        }
+    }
+
+    private void removePushListener(Connection connection, PushListener listener) {
+        try {
+            getMBeanServer().removeNotificationListener(listener.name, listener);
+        } catch (ListenerNotFoundException e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to remove listener of " + connection.connectionId, e);
+        }
+    }
+
+    private static int intValue(Map<String, ?> environment, String key, int defaultValue) {
+        Object value = environment == null ? null : environment.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.toString());
+    }
+
+    private static long longValue(Map<String, ?> environment, String key, long defaultValue) {
+        Object value = environment == null ? null : environment.get(key);
+        return value == null ? defaultValue : Long.parseLong(value.toString());
+    }
+}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.AttributeChangeNotificationFilter;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+
+/**
+ * Shares remote notification subscriptions between the local listeners
+ * of one MBeanProxy. Listeners whose filters have the same class share a
+ * single remote listener, notifications cross the wire once and are fanned
+ * out in-process, each local filter evaluated locally.
+ * <p>
+ * The remote listener gets a merged filter so most notifications are still
+ * dropped remotely: the union of the enabled types of NotificationFilterSupport
+ * filters, the union of the enabled attributes of AttributeChangeNotificationFilter
+ * filters, the filter itself when all listeners of another class use equal
+ * serializable filters, and no filter otherwise. The remote listener is
+ * replaced when the merged filter changes and removed with the last local one.
+ * <p>
+ * AttributeChangeNotificationFilter listeners of a remote mbean that does not
+ * declare attribute change notifications are served by the AttributePoller
+ * instead, which polls the enabled attributes once for all of them.
+ */
+class NotificationMultiplexer {
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationMultiplexer.class.getName());
+
+    private final MBeanProxy proxy;
+    /**
+     * serializes changes of the remote listeners and is held across the
+     * remote calls, so the monitor of this multiplexer never is
+     */
+    private final Object updateLock = new Object();
+    /**
+     * subscriptions by filter class, null for listeners without filter;
+     * written holding updateLock and this, read holding either
+     */
+    private final Map<Class<?>, Group> groups = new HashMap<Class<?>, Group>(4);
+
+    /**
+     * One local addNotificationListener call
+     */
+    private static class Registration {
+        final NotificationListener listener;
+        final NotificationFilter filter;
+        final Object handback;
+
+        Registration(NotificationListener listener, NotificationFilter filter, Object handback) {
+            this.listener = listener;
+            this.filter = filter;
+            this.handback = handback;
+        }
+    }
+
+    /**
+     * Local listeners sharing one remote listener
+     */
+    private class Group {
+        final Class<?> filterClass;
+        final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+        /**
+         * written holding updateLock and the multiplexer, read holding either
+         */
+        Subscription subscription;
+
+        Group(Class<?> filterClass) {
+            this.filterClass = filterClass;
+        }
+
+        void deliver(Notification notification) {
+            for (Registration registration : registrations) {
+                if (registration.filter != null
+                        && !registration.filter.isNotificationEnabled(notification)) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    registration.listener.handleNotification(notification, registration.handback);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Listener failed on " + notification, e);
+                } finally {
+                    CallMetrics metrics = proxy.getCallMetrics();
+                    if (metrics != null) {
+                        metrics.recordNotificationDelivery(System.nanoTime() - start);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The listener registered remotely, ignored once replaced
+     */
+    private static class Subscription implements NotificationListener {
+        final Group group;
+        /**
+         * updated in place for a polled subscription, guarded by updateLock
+         */
+        NotificationFilter filter;
+        /**
+         * set when the changes are polled instead of subscribed remotely
+         */
+        AttributePoller.Watch watch;
+        volatile boolean retired;
+
+        Subscription(Group group, NotificationFilter filter) {
+            this.group = group;
+            this.filter = filter;
+        }
+
+        public void handleNotification(Notification notification, Object handback) {
+            if (!retired) {
+                group.deliver(notification);
+            }
+        }
+    }
+
+    NotificationMultiplexer(MBeanProxy proxy) {
+        this.proxy = proxy;
+    }
+
+    public void add(
+            NotificationListener listener, NotificationFilter filter, Object handback
+    ) throws Exception {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener");
+        }
+        Class<?> filterClass = filter == null ? null : filter.getClass();
+        Registration registration = new Registration(listener, filter, handback);
+        synchronized (updateLock) {
+            Group group = groups.get(filterClass);
+            if (group == null) {
+                group = new Group(filterClass);
+                synchronized (this) {
+                    groups.put(filterClass, group);
+                }
+            }
+            group.registrations.add(registration);
+            try {
+                update(group);
+            } catch (Exception e) {
+                group.registrations.remove(registration);
+                if (group.registrations.isEmpty()) {
+                    synchronized (this) {
+                        groups.remove(filterClass);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * removes every registration of the listener
+     */
+    public void remove(NotificationListener listener) throws Exception {
+        synchronized (updateLock) {
+            boolean found = false;
+            for (Group group : new ArrayList<Group>(groups.values())) {
+                List<Registration> removed = new ArrayList<Registration>();
+                for (Registration registration : group.registrations) {
+                    if (registration.listener == listener) {
+                        removed.add(registration);
+                    }
+                }
+                if (!removed.isEmpty()) {
+                    found = true;
+                    group.registrations.removeAll(removed);
+                    update(group);
+                }
+            }
+            if (!found) {
+                throw new ListenerNotFoundException("Listener not registered");
+            }
+        }
+    }
+
+    /**
+     * removes the registration with this exact listener, filter and handback
+     */
+    public void remove(
+            NotificationListener listener, NotificationFilter filter, Object handback
+    ) throws Exception {
+        synchronized (updateLock) {
+            Group group = groups.get(filter == null ? null : filter.getClass());
+            if (group != null) {
+                for (Registration registration : group.registrations) {
+                    if (registration.listener == listener && registration.filter == filter
+                            && registration.handback == handback) {
+                        group.registrations.remove(registration);
+                        update(group);
+                        return;
+                    }
+                }
+            }
+        }
+        throw new ListenerNotFoundException("Listener not registered with this filter and handback");
+    }
+
+    /**
+     * Registers all remote listeners again, after the proxy moved to a new connection
+     */
+    public void resubscribe() {
+        synchronized (updateLock) {
+            for (Group group : new ArrayList<Group>(groups.values())) {
+                Subscription previous = group.subscription;
+                if (previous == null || previous.watch != null) {
+                    //polls always use the current connection
+                    continue;
+                }
+                previous.retired = true;
+                setSubscription(group, null);
+                try {
+                    setSubscription(group, subscribe(group, previous.filter));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to resubscribe to " + proxy.getRemoteObjectName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every registration when the proxy is deregistered: the polls
+     * are cancelled and the remote listeners removed, unless the remote
+     * is gone and drops them with its connection
+     */
+    public void close() {
+        synchronized (updateLock) {
+            List<Subscription> retired = new ArrayList<Subscription>();
+            synchronized (this) {
+                for (Group group : groups.values()) {
+                    if (group.subscription != null) {
+                        retired.add(group.subscription);
+                        group.subscription = null;
+                    }
+                }
+                groups.clear();
+            }
+            for (Subscription subscription : retired) {
+                subscription.retired = true;
+                if (subscription.watch != null || !proxy.isRemoteRemoved()) {
+                    unsubscribe(subscription);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of remote listeners
+     */
+    public synchronized int getSubscriptionCount() {
+        int count = 0;
+        for (Group group : groups.values()) {
+            if (group.subscription != null && group.subscription.watch == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if attribute changes are polled instead of subscribed remotely
+     */
+    public synchronized boolean isPolling() {
+        Group group = groups.get(AttributeChangeNotificationFilter.class);
+        return group != null && group.subscription != null && group.subscription.watch != null;
+    }
+
+    /**
+     * Brings the remote listener of a group in line with its registrations,
+     * called holding updateLock only
+     */
+    private void update(Group group) throws Exception {
+        Subscription current = group.subscription;
+        if (group.registrations.isEmpty()) {
+            synchronized (this) {
+                groups.remove(group.filterClass);
+                group.subscription = null;
+            }
+            if (current != null) {
+                current.retired = true;
+                unsubscribe(current);
+            }
+            return;
+        }
+        NotificationFilter merged = merge(group);
+        if (current != null && sameFilter(current.filter, merged)) {
+            return;
+        }
+        if (current != null && current.watch != null) {
+            //the poll keeps the last values of the attributes still enabled
+            current.filter = merged;
+            current.watch.setAttributes(enabledAttributes(merged));
+            return;
+        }
+        //the new listener is added before the old one goes so nothing is missed
+        setSubscription(group, subscribe(group, merged));
+        if (current != null) {
+            current.retired = true;
+            unsubscribe(current);
+        }
+    }
+
+    private synchronized void setSubscription(Group group, Subscription subscription) {
+        group.subscription = subscription;
+    }
+
+    /**
+     * @return the new remote listener or poll, not yet set on the group
+     */
+    private Subscription subscribe(Group group, NotificationFilter filter) throws Exception {
+        final Subscription subscription = new Subscription(group, filter);
+        AttributePoller poller = proxy.getAttributePoller();
+        if (poller != null && group.filterClass == AttributeChangeNotificationFilter.class
+                && !declaresAttributeChange(proxy.getMBeanInfo())) {
+            subscription.watch = poller.watch(proxy, enabledAttributes(filter), subscription);
+            return subscription;
+        }
+        proxy.execute(RemoteOperation.NOTIFICATION_LISTENER, new RemoteCallGuard.Call<Object>() {
+            public Object call(MBeanServerConnection connection) throws Exception {
+                connection.addNotificationListener(
+                        proxy.getRemoteObjectName(), subscription, subscription.filter, null
+                );
+                return null;
+            }
+        });
+        return subscription;
+    }
+
+    private void unsubscribe(final Subscription subscription) {
+        if (subscription.watch != null) {
+            subscription.watch.cancel();
+            return;
+        }
+        try {
+            proxy.execute(RemoteOperation.NOTIFICATION_LISTENER, new RemoteCallGuard.Call<Object>() {
+                public Object call(MBeanServerConnection connection) throws Exception {
+                    connection.removeNotificationListener(
+                            proxy.getRemoteObjectName(), subscription
+                    );
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            //retired anyway, the remote drops it with the connection
+            LOGGER.log(Level.FINE, e.toString(), e);
+        }
+    }
+
+    /**
+     * @return a filter passing at least what every local filter of the group passes,
+     *         null to receive everything
+     */
+    static NotificationFilter merge(Group group) {
+        if (group.filterClass == null) {
+            return null;
+        }
+        if (group.filterClass == NotificationFilterSupport.class) {
+            NotificationFilterSupport merged = new NotificationFilterSupport();
+            for (Registration registration : group.registrations) {
+                for (Object type : ((NotificationFilterSupport) registration.filter).getEnabledTypes()) {
+                    merged.enableType((String) type);
+                }
+            }
+            return merged;
+        }
+        if (group.filterClass == AttributeChangeNotificationFilter.class) {
+            AttributeChangeNotificationFilter merged = new AttributeChangeNotificationFilter();
+            for (Registration registration : group.registrations) {
+                AttributeChangeNotificationFilter filter
+                        = (AttributeChangeNotificationFilter) registration.filter;
+                for (Object attribute : filter.getEnabledAttributes()) {
+                    merged.enableAttribute((String) attribute);
+                }
+            }
+            return merged;
+        }
+        Iterator<Registration> it = group.registrations.iterator();
+        NotificationFilter first = it.next().filter;
+        if (!(first instanceof Serializable)) {
+            return null;
+        }
+        while (it.hasNext()) {
+            if (!first.equals(it.next().filter)) {
+                return null;
+            }
+        }
+        return first;
+    }
+
+    private static List<String> enabledAttributes(NotificationFilter filter) {
+        List<String> attributes = new ArrayList<String>();
+        for (Object attribute : ((AttributeChangeNotificationFilter) filter).getEnabledAttributes()) {
+            attributes.add((String) attribute);
+        }
+        return attributes;
+    }
+
+    /**
+     * @return true if the mbean says it sends AttributeChangeNotifications
+     */
+    static boolean declaresAttributeChange(MBeanInfo info) {
+        for (MBeanNotificationInfo notification : info.getNotifications()) {
+            for (String type : notification.getNotifTypes()) {
+                if (AttributeChangeNotification.ATTRIBUTE_CHANGE.equals(type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameFilter(NotificationFilter a, NotificationFilter b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a.getClass() == NotificationFilterSupport.class) {
+            return new HashSet<Object>(((NotificationFilterSupport) a).getEnabledTypes()).equals(
+                    new HashSet<Object>(((NotificationFilterSupport) b).getEnabledTypes())
+            );
+        }
+        if (a.getClass() == AttributeChangeNotificationFilter.class) {
+            return new HashSet<Object>(((AttributeChangeNotificationFilter) a).getEnabledAttributes()).equals(
+                    new HashSet<Object>(((AttributeChangeNotificationFilter) b).getEnabledAttributes())
+            );
+        }
+        return a.equals(b);
+    }
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.ObjectName;
+import javax.management.Query;
+import javax.management.QueryExp;
+
+/**
+ * Selects the remote mbeans imported by the JMXConnectionFinder using
+ * include and exclude ObjectName patterns. A name is imported if it matches
+ * any include pattern (or no include pattern is set) and no exclude pattern.
+ * <p>
+ * The same instance is sent to the remote mbeanserver as the filter of the
+ * delegate listener, so registrations of filtered mbeans are not sent at all.
+ * Instances are immutable.
+ */
+public class ObjectNameFilter implements NotificationFilter {
+
+    private static final long serialVersionUID = 3405284627366950571L;
+
+    public static final ObjectNameFilter ALL
+            = new ObjectNameFilter(new ObjectName[0], new ObjectName[0]);
+
+    private final ObjectName[] includes;
+    private final ObjectName[] excludes;
+
+    public ObjectNameFilter(ObjectName[] includes, ObjectName[] excludes) {
+        this.includes = includes.clone();
+        this.excludes = excludes.clone();
+    }
+
+    /**
+     * @param includes ObjectName patterns, null or empty to include everything
+     * @param excludes ObjectName patterns, may be null
+     */
+    public static ObjectNameFilter parse(String[] includes, String[] excludes)
+            throws MalformedObjectNameException {
+        return new ObjectNameFilter(toNames(includes), toNames(excludes));
+    }
+
+    private static ObjectName[] toNames(String[] patterns)
+            throws MalformedObjectNameException {
+        if (patterns == null) {
+            return new ObjectName[0];
+        }
+        ObjectName[] names = new ObjectName[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            names[i] = ObjectName.getInstance(patterns[i].trim());
+        }
+        return names;
+    }
+
+    public String[] getIncludes() {
+        return toStrings(includes);
+    }
+
+    public String[] getExcludes() {
+        return toStrings(excludes);
+    }
+
+    private static String[] toStrings(ObjectName[] names) {
+        String[] result = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            result[i] = names[i].getCanonicalName();
+        }
+        return result;
+    }
+
+    public boolean isAll() {
+        return includes.length == 0 && excludes.length == 0;
+    }
+
+    /**
+     * @param remoteName name of the mbean in the remote mbeanserver
+     */
+    public boolean matches(ObjectName remoteName) {
+        boolean included = includes.length == 0;
+        for (int i = 0; i < includes.length && !included; i++) {
+            included = includes[i].apply(remoteName);
+        }
+        if (!included) {
+            return false;
+        }
+        for (int i = 0; i < excludes.length; i++) {
+            if (excludes[i].apply(remoteName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Only passes registration notifications of imported mbeans
+     */
+    public boolean isNotificationEnabled(Notification notification) {
+        if (notification instanceof MBeanServerNotification) {
+            return matches(((MBeanServerNotification) notification).getMBeanName());
+        }
+        return true;
+    }
+
+    /**
+     * @return query rejecting the excluded names, null if nothing is excluded
+     */
+    public QueryExp getExcludeQuery() {
+        if (excludes.length == 0) {
+            return null;
+        }
+        QueryExp excluded = excludes[0];
+        for (int i = 1; i < excludes.length; i++) {
+            excluded = Query.or(excluded, excludes[i]);
+        }
+        return Query.not(excluded);
+    }
+
+    /**
+     * Queries the names to import, the patterns are evaluated
+     * by the remote mbeanserver
+     */
+    public Set<ObjectName> queryNames(MBeanServerConnection connection)
+            throws IOException {
+        QueryExp query = getExcludeQuery();
+        if (includes.length == 0) {
+            return connection.queryNames(null, query);
+        }
+        Set<ObjectName> names = new LinkedHashSet<ObjectName>();
+        for (int i = 0; i < includes.length; i++) {
+            names.addAll(connection.queryNames(includes[i], query));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,481 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the numeric attributes of the local (proxy) mbeans in the Prometheus
+ * text format on http://host:port/metrics, using the JDK http server.
+ * <p>
+ * Attributes are read into a snapshot every refreshMillis, one getAttributes
+ * call per mbean, and scrapes are rendered from the snapshot: a scrape walks
+ * memory and makes no remote call. The response is streamed chunked, line
+ * by line. Scrapes can be narrowed with one or more name parameters holding
+ * ObjectName patterns, e.g. /metrics?name=*:remoteDomain=java.lang,*
+ * <p>
+ * Metric names are built from the remote domain, the type key and the
+ * attribute, CompositeData items are exported as attribute_item. The other
+ * keys become labels, the local domain is the focal_domain label.
+ */
+public class PrometheusExporter implements PrometheusExporterMBean, MBeanRegistration {
+
+    private static final Logger LOGGER = Logger.getLogger(PrometheusExporter.class.getName());
+
+    public static final int DEFAULT_PORT = 9464;
+    public static final long DEFAULT_REFRESH_MILLIS = 30000;
+    public static final int DEFAULT_THREADS = 8;
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * One exported value, metric name and labels are rendered once per snapshot
+     */
+    private static class Sample implements Comparable<Sample> {
+        final ObjectName objectName;
+        final String metric;
+        final String series;
+        final double value;
+
+        Sample(ObjectName objectName, String metric, String series, double value) {
+            this.objectName = objectName;
+            this.metric = metric;
+            this.series = series;
+            this.value = value;
+        }
+
+        public int compareTo(Sample other) {
+            return metric.compareTo(other.metric);
+        }
+    }
+
+    private MBeanServer mbeanServer;
+    private HttpServer httpServer;
+    private ExecutorService httpExecutor;
+    private volatile int port = DEFAULT_PORT;
+    private volatile long refreshMillis = DEFAULT_REFRESH_MILLIS;
+    private volatile ObjectName[] patterns = {ObjectName.WILDCARD};
+    /**
+     * samples sorted by metric name, replaced as a whole on refresh
+     */
+    private volatile List<Sample> snapshot = Collections.emptyList();
+    private volatile long lastRefreshMillis;
+    private final AtomicLong scrapes = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("FocalServer-prometheus")
+    );
+    private final ThreadPoolExecutor readExecutor = new ThreadPoolExecutor(
+            DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("FocalServer-prometheus-read")
+    );
+    private ScheduledFuture<?> schedule;
+
+    public PrometheusExporter() {
+        readExecutor.allowCoreThreadTimeOut(true);
+    }
+
+// --------------------- Interface PrometheusExporterMBean ---------------------
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getRefreshMillis() {
+        return refreshMillis;
+    }
+
+    public synchronized void setRefreshMillis(long refreshMillis) {
+        if (refreshMillis < 1) {
+            throw new IllegalArgumentException("refresh must be positive: " + refreshMillis);
+        }
+        this.refreshMillis = refreshMillis;
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule();
+        }
+    }
+
+    public String[] getPatterns() {
+        ObjectName[] current = patterns;
+        String[] result = new String[current.length];
+        for (int i = 0; i < current.length; i++) {
+            result[i] = current[i].toString();
+        }
+        return result;
+    }
+
+    public int getSnapshotSize() {
+        return snapshot.size();
+    }
+
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    public long getScrapeCount() {
+        return scrapes.get();
+    }
+
+    public void refresh() {
+        long start = System.currentTimeMillis();
+        Set<ObjectName> names = new LinkedHashSet<ObjectName>();
+        for (ObjectName pattern : patterns) {
+            names.addAll(mbeanServer.queryNames(pattern, null));
+        }
+        List<Future<List<Sample>>> reads = new ArrayList<Future<List<Sample>>>();
+        for (final ObjectName name : names) {
+            reads.add(readExecutor.submit(new java.util.concurrent.Callable<List<Sample>>() {
+                public List<Sample> call() {
+                    return read(name);
+                }
+            }));
+        }
+        List<Sample> samples = new ArrayList<Sample>();
+        for (Future<List<Sample>> read : reads) {
+            try {
+                samples.addAll(read.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+        }
+        Collections.sort(samples);
+        snapshot = samples;
+        lastRefreshMillis = System.currentTimeMillis() - start;
+    }
+
+// --------------------- Interface MBeanRegistration ---------------------
+
+    public ObjectName preRegister(MBeanServer mBeanServer, ObjectName objectName)
+            throws Exception {
+        mbeanServer = mBeanServer;
+        return objectName;
+    }
+
+    public synchronized void postRegister(Boolean registrationDone) {
+        if (!registrationDone.booleanValue()) {
+            return;
+        }
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+            httpServer.createContext("/metrics", new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    scrape(exchange);
+                }
+            });
+            httpExecutor = Executors.newFixedThreadPool(
+                    2, new NamedThreadFactory("FocalServer-prometheus-http")
+            );
+            httpServer.setExecutor(httpExecutor);
+            httpServer.start();
+            LOGGER.log(Level.INFO, "Serving metrics on port " + port);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to serve metrics on port " + port, e);
+        }
+        scheduler.execute(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        });
+        schedule();
+    }
+
+    /**
+     * Stops serving and refreshing, a deregistered exporter cannot be registered again
+     */
+    public synchronized void preDeregister() throws Exception {
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (httpExecutor != null) {
+            httpExecutor.shutdown();
+            httpExecutor = null;
+        }
+        scheduler.shutdownNow();
+        readExecutor.shutdownNow();
+    }
+
+    public void postDeregister() {
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setPatterns(String[] patterns) throws MalformedObjectNameException {
+        ObjectName[] names = new ObjectName[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            names[i] = ObjectName.getInstance(patterns[i]);
+        }
+        this.patterns = names;
+    }
+
+    private void schedule() {
+        schedule = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Metrics refresh failed", e);
+                }
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the numeric samples of one mbean, empty if it could not be read
+     */
+    private List<Sample> read(ObjectName name) {
+        List<Sample> samples = new ArrayList<Sample>();
+        try {
+            List<String> readable = new ArrayList<String>();
+            for (MBeanAttributeInfo info : mbeanServer.getMBeanInfo(name).getAttributes()) {
+                if (info.isReadable()) {
+                    readable.add(info.getName());
+                }
+            }
+            if (readable.isEmpty()) {
+                return samples;
+            }
+            AttributeList values = mbeanServer.getAttributes(
+                    name, readable.toArray(new String[readable.size()])
+            );
+            String prefix = metricPrefix(name);
+            String labels = labels(name);
+            for (Object value : values) {
+                Attribute attribute = (Attribute) value;
+                add(samples, name, prefix + sanitize(attribute.getName()), labels, attribute.getValue());
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to read " + name, e);
+        }
+        return samples;
+    }
+
+    private static void add(
+            List<Sample> samples, ObjectName name, String metric, String labels, Object value
+    ) {
+        if (value instanceof Number) {
+            samples.add(new Sample(name, metric, metric + labels, ((Number) value).doubleValue()));
+        } else if (value instanceof Boolean) {
+            samples.add(new Sample(name, metric, metric + labels,
+                    ((Boolean) value).booleanValue() ? 1 : 0));
+        } else if (value instanceof CompositeData) {
+            CompositeData data = (CompositeData) value;
+            for (Object key : data.getCompositeType().keySet()) {
+                Object item = data.get((String) key);
+                if (item instanceof Number || item instanceof Boolean) {
+                    add(samples, name, metric + "_" + sanitize((String) key), labels, item);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return remoteDomain_type_ for proxies, domain_type_ for other mbeans
+     */
+    private static String metricPrefix(ObjectName name) {
+        String domain = name.getKeyProperty(JMXConnectionFinder.REMOTE_DOMAIN);
+        StringBuilder sb = new StringBuilder(sanitize(domain != null ? domain : name.getDomain()));
+        String type = name.getKeyProperty("type");
+        if (type != null) {
+            sb.append('_').append(sanitize(type));
+        }
+        return sb.append('_').toString();
+    }
+
+    private static String labels(ObjectName name) {
+        StringBuilder sb = new StringBuilder("{");
+        boolean proxy = name.getKeyProperty(JMXConnectionFinder.REMOTE_DOMAIN) != null;
+        if (proxy) {
+            appendLabel(sb, "focal_domain", name.getDomain());
+        }
+        for (Map.Entry<String, String> property : name.getKeyPropertyList().entrySet()) {
+            String key = property.getKey();
+            if (key.equals("type") || key.equals(JMXConnectionFinder.REMOTE_DOMAIN)) {
+                continue;
+            }
+            String value = property.getValue();
+            appendLabel(sb, sanitize(key), value.startsWith("\"") ? ObjectName.unquote(value) : value);
+        }
+        if (sb.length() == 1) {
+            return "";
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void appendLabel(StringBuilder sb, String name, String value) {
+        if (sb.length() > 1) {
+            sb.append(',');
+        }
+        sb.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * @return name with every character outside [a-zA-Z0-9_] replaced by _
+     */
+    static String sanitize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                    || (c >= '0' && c <= '9' && i > 0)) {
+                sb.append(c);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            List<ObjectName> filters;
+            try {
+                filters = filters(exchange.getRequestURI().getRawQuery());
+            } catch (MalformedObjectNameException e) {
+                byte[] message = ("Invalid name pattern: " + e.getMessage()).getBytes("UTF-8");
+                exchange.sendResponseHeaders(400, message.length);
+                exchange.getResponseBody().write(message);
+                return;
+            }
+            scrapes.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            //length 0 streams the body chunked
+            exchange.sendResponseHeaders(200, 0);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), "UTF-8"), 8192
+            );
+            String family = null;
+            for (Sample sample : snapshot) {
+                if (!filters.isEmpty() && !matches(filters, sample.objectName)) {
+                    continue;
+                }
+                if (!sample.metric.equals(family)) {
+                    family = sample.metric;
+                    writer.write("# TYPE ");
+                    writer.write(family);
+                    writer.write(" untyped\n");
+                }
+                writer.write(sample.series);
+                writer.write(' ');
+                writer.write(format(sample.value));
+                writer.write('\n');
+            }
+            writer.flush();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static boolean matches(List<ObjectName> filters, ObjectName name) {
+        for (ObjectName filter : filters) {
+            if (filter.apply(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the name parameters of the query string as ObjectName patterns
+     */
+    private static List<ObjectName> filters(String query)
+            throws MalformedObjectNameException, UnsupportedEncodingException {
+        List<ObjectName> filters = new ArrayList<ObjectName>();
+        if (query == null) {
+            return filters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).equals("name")) {
+                filters.add(ObjectName.getInstance(
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8")
+                ));
+            }
+        }
+        return filters;
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+/**
+ * Manage the Prometheus scrape endpoint
+ */
+public interface PrometheusExporterMBean {
+
+    /**
+     * port of the http endpoint, metrics are served on /metrics
+     *
+     * @return
+     */
+    int getPort();
+
+    /**
+     * time between two snapshots of the exported attributes
+     *
+     * @return milliseconds
+     */
+    long getRefreshMillis();
+
+    void setRefreshMillis(long refreshMillis);
+
+    /**
+     * ObjectName patterns of the exported mbeans
+     *
+     * @return
+     */
+    String[] getPatterns();
+
+    /**
+     * number of samples in the current snapshot
+     *
+     * @return
+     */
+    int getSnapshotSize();
+
+    /**
+     * duration of the last snapshot refresh
+     *
+     * @return milliseconds
+     */
+    long getLastRefreshMillis();
+
+    /**
+     * number of scrapes served
+     *
+     * @return
+     */
+    long getScrapeCount();
+
+    /**
+     * takes a new snapshot now
+     */
+    void refresh();
+}
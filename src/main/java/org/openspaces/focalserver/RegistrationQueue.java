@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+/**
+ * Bounded queue of pending remote registration changes for one remote
+ * mbeanserver. Only the last change per name is kept, so a register
+ * followed by an unregister of the same name (or the opposite) costs a
+ * single local operation. When the queue is full further changes are
+ * dropped and counted as lost, the owner then resyncs the whole remote.
+ */
+class RegistrationQueue {
+
+    private final LinkedHashMap<ObjectName, Boolean> pending
+            = new LinkedHashMap<ObjectName, Boolean>();
+    private final int capacity;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private boolean overflowed;
+
+    public RegistrationQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param remoteName name of the remote mbean
+     * @param register true for a registration, false for an unregistration
+     * @return false if the change was dropped because the queue is full
+     */
+    public synchronized boolean offer(ObjectName remoteName, boolean register) {
+        received.incrementAndGet();
+        if (pending.containsKey(remoteName)) {
+            coalesced.incrementAndGet();
+            pending.put(remoteName, Boolean.valueOf(register));
+            return true;
+        }
+        if (pending.size() >= capacity) {
+            lost.incrementAndGet();
+            overflowed = true;
+            return false;
+        }
+        pending.put(remoteName, Boolean.valueOf(register));
+        return true;
+    }
+
+    /**
+     * Removes up to max pending changes in arrival order
+     */
+    public synchronized List<Map.Entry<ObjectName, Boolean>> drain(int max) {
+        List<Map.Entry<ObjectName, Boolean>> batch
+                = new ArrayList<Map.Entry<ObjectName, Boolean>>(Math.min(max, pending.size()));
+        Iterator<Map.Entry<ObjectName, Boolean>> it = pending.entrySet().iterator();
+        while (it.hasNext() && batch.size() < max) {
+            Map.Entry<ObjectName, Boolean> entry = it.next();
+            batch.add(new AbstractMap.SimpleImmutableEntry<ObjectName, Boolean>(entry));
+            it.remove();
+        }
+        return batch;
+    }
+
+    /**
+     * Drops all pending changes, used when a full resync replaces them
+     *
+     * @return true if changes were lost since the last call
+     */
+    public synchronized boolean reset() {
+        boolean result = overflowed;
+        pending.clear();
+        overflowed = false;
+        return result;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return true if the caller should schedule a drain
+     */
+    public boolean startDrain() {
+        return draining.compareAndSet(false, true);
+    }
+
+    /**
+     * @return true if changes arrived meanwhile and the caller keeps draining
+     */
+    public boolean finishDrain() {
+        draining.set(false);
+        return size() > 0 && startDrain();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    public void addLost(long count) {
+        lost.addAndGet(count);
+    }
+}
@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServerConnection;
+
+/**
+ * Protects callers from one remote mbeanserver: calls get a deadline,
+ * the number of concurrent calls is limited, and a circuit breaker
+ * fails calls fast once the remote keeps failing. While open, a single
+ * half-open probe is let through after CallPolicy.getOpenMillis() and
+ * its outcome closes or re-opens the circuit.
+ * <p>
+ * Calls beyond the limit wait for a running call to finish, up to their
+ * deadline. Calls with a deadline run on the CallPolicy pool, except on
+ * virtual threads: their socket reads are interruptible, so the call runs
+ * on the caller and is interrupted at the deadline.
+ * <p>
+ * Only transport failures (IOException and timeouts) count against
+ * the remote, exceptions thrown by the remote mbean do not.
+ */
+class RemoteCallGuard {
+
+    /**
+     * A call on the remote connection
+     */
+    interface Call<T> {
+        T call(MBeanServerConnection connection) throws Exception;
+    }
+
+    enum Circuit {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final RemoteServer remote;
+    private final CallPolicy policy;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * calls waiting for a permit wait on released, not a monitor,
+     * so waiting virtual threads do not pin their carrier
+     */
+    private final ReentrantLock permitLock = new ReentrantLock();
+    private final Condition released = permitLock.newCondition();
+    private volatile int waiting;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile Circuit circuit = Circuit.CLOSED;
+    private volatile long openedAt;
+
+    public RemoteCallGuard(RemoteServer remote, CallPolicy policy) {
+        this.remote = remote;
+        this.policy = policy;
+    }
+
+    public Circuit getCircuit() {
+        return circuit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public <T> T call(RemoteOperation operation, final Call<T> call)
+            throws Exception {
+        boolean probe = admit();
+        final MBeanServerConnection connection = remote.getConnection();
+        if (connection == null) {
+            //not connected yet or the bootstrap failed, the remote did not answer
+            throw failed(new IOException("Not connected to " + remote.getUrl()), probe);
+        }
+        long timeout = policy.getTimeout(operation);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            if (!acquire(timeout > 0 ? deadline : 0)) {
+                if (probe) {
+                    probing.set(false);
+                }
+                throw new MBeanProxyException(
+                        "Too many concurrent calls to " + remote.getUrl()
+                                + ", none finished within " + timeout + "ms"
+                );
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (probe) {
+                probing.set(false);
+            }
+            throw new MBeanProxyException(e);
+        }
+        if (timeout <= 0) {
+            try {
+                return completed(call.call(connection), probe);
+            } catch (Exception e) {
+                throw failed(e, probe);
+            } finally {
+                release();
+            }
+        }
+        long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        if (CallPolicy.isVirtual(Thread.currentThread())) {
+            return callOnCaller(operation, call, connection, timeout, remaining, probe);
+        }
+        Future<T> future;
+        try {
+            future = policy.getExecutor().submit(new Callable<T>() {
+                public T call() throws Exception {
+                    try {
+                        return call.call(connection);
+                    } finally {
+                        //released when the remote call returns, not on timeout
+                        release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //out of call threads, not a failure of this remote
+            release();
+            if (probe) {
+                probing.set(false);
+            }
+            throw new MBeanProxyException(
+                    "No call thread left for " + remote.getUrl(), e
+            );
+        }
+        try {
+            return completed(future.get(remaining, TimeUnit.MILLISECONDS), probe);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw failed(timedOut(operation, timeout, e), probe);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw failed((Exception) cause, probe);
+            }
+            throw (Error) cause;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            if (probe) {
+                probing.set(false);
+            }
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    /**
+     * Runs the call on the calling virtual thread, interrupting it at the deadline
+     */
+    private <T> T callOnCaller(
+            RemoteOperation operation, Call<T> call, MBeanServerConnection connection,
+            long timeout, long remaining, boolean probe
+    ) throws Exception {
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        ScheduledFuture<?> timer = policy.getTimer().schedule(new Runnable() {
+            public void run() {
+                synchronized (running) {
+                    if (running.compareAndSet(true, false)) {
+                        caller.interrupt();
+                    }
+                }
+            }
+        }, remaining, TimeUnit.MILLISECONDS);
+        T result;
+        try {
+            result = call.call(connection);
+        } catch (Exception e) {
+            if (finish(running, timer)) {
+                throw failed(timedOut(operation, timeout, new TimeoutException()), probe);
+            }
+            throw failed(e, probe);
+        } finally {
+            release();
+        }
+        //the deadline passed as the call returned, the result still counts
+        finish(running, timer);
+        return completed(result, probe);
+    }
+
+    /**
+     * Stops the deadline timer of a call on the caller
+     *
+     * @return true if the timer interrupted the caller, the interrupt is cleared
+     */
+    private static boolean finish(AtomicBoolean running, ScheduledFuture<?> timer) {
+        timer.cancel(false);
+        synchronized (running) {
+            if (running.compareAndSet(true, false)) {
+                return false;
+            }
+        }
+        Thread.interrupted();
+        return true;
+    }
+
+    private MBeanProxyException timedOut(RemoteOperation operation, long timeout, TimeoutException e) {
+        return new MBeanProxyException(
+                operation.getDisplayName() + " on " + remote.getUrl()
+                        + " timed out after " + timeout + "ms", e
+        );
+    }
+
+    /**
+     * Takes a permit for a call, waiting for a running call to finish
+     * while the remote is at its limit
+     *
+     * @param deadline System.nanoTime() to give up at, 0 to wait without limit
+     * @return false if the deadline passed first
+     */
+    private boolean acquire(long deadline) throws InterruptedException {
+        int current = inFlight.get();
+        while (current < policy.getMaxConcurrentCalls()) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            current = inFlight.get();
+        }
+        permitLock.lock();
+        try {
+            waiting++;
+            try {
+                while (true) {
+                    current = inFlight.get();
+                    if (current < policy.getMaxConcurrentCalls()) {
+                        if (inFlight.compareAndSet(current, current + 1)) {
+                            return true;
+                        }
+                        continue;
+                    }
+                    if (deadline == 0) {
+                        released.await();
+                        continue;
+                    }
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    released.awaitNanos(nanos);
+                }
+            } finally {
+                waiting--;
+            }
+        } finally {
+            permitLock.unlock();
+        }
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        if (waiting > 0) {
+            permitLock.lock();
+            try {
+                released.signal();
+            } finally {
+                permitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true if this call is the half-open probe
+     */
+    private boolean admit() {
+        if (circuit == Circuit.CLOSED) {
+            return false;
+        }
+        if (System.currentTimeMillis() - openedAt >= policy.getOpenMillis()
+                && probing.compareAndSet(false, true)) {
+            circuit = Circuit.HALF_OPEN;
+            return true;
+        }
+        throw new MBeanProxyException(
+                "Circuit open for " + remote.getUrl() + " after "
+                        + consecutiveFailures.get() + " consecutive failures"
+        );
+    }
+
+    /**
+     * Closes the circuit, the remote has a new connection
+     */
+    public void reset() {
+        consecutiveFailures.set(0);
+        circuit = Circuit.CLOSED;
+    }
+
+    private <T> T completed(T result, boolean probe) {
+        consecutiveFailures.set(0);
+        if (circuit != Circuit.CLOSED) {
+            circuit = Circuit.CLOSED;
+        }
+        if (probe) {
+            probing.set(false);
+        }
+        return result;
+    }
+
+    private Exception failed(Exception e, boolean probe) {
+        if (!isTransportFailure(e)) {
+            //the remote answered
+            completed(null, probe);
+            return e;
+        }
+        int failures = consecutiveFailures.incrementAndGet();
+        int threshold = policy.getFailureThreshold();
+        if (probe || (threshold > 0 && failures >= threshold)) {
+            openedAt = System.currentTimeMillis();
+            circuit = Circuit.OPEN;
+        }
+        if (probe) {
+            probing.set(false);
+        }
+        return e;
+    }
+
+    private static boolean isTransportFailure(Exception e) {
+        return e instanceof IOException
+                || (e instanceof MBeanProxyException && e.getCause() instanceof TimeoutException);
+    }
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+/**
+ * Kinds of calls made on a remote mbeanserver on behalf of clients
+ */
+public enum RemoteOperation {
+    GET_ATTRIBUTE("getAttribute"),
+    GET_ATTRIBUTES("getAttributes"),
+    SET_ATTRIBUTE("setAttribute"),
+    SET_ATTRIBUTES("setAttributes"),
+    INVOKE("invoke"),
+    GET_MBEAN_INFO("getMBeanInfo"),
+    NOTIFICATION_LISTENER("notificationListener");
+
+    private final String displayName;
+
+    RemoteOperation(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @param name display name or constant name, case insensitive
+     */
+    public static RemoteOperation forName(String name) {
+        for (RemoteOperation operation : values()) {
+            if (operation.displayName.equalsIgnoreCase(name)
+                    || operation.name().equalsIgnoreCase(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation: " + name);
+    }
+}
@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+
+/**
+ * State kept by the JMXConnectionFinder for one discovered remote mbeanserver
+ */
+class RemoteServer {
+
+    enum State {
+        PENDING, CONNECTING, IMPORTING, IMPORTED, RECONNECTING, FAILED, REMOVED
+    }
+
+    private final String url;
+    private final String domainPrefix;
+    private volatile State state = State.PENDING;
+    private volatile JMXConnector connector;
+    private volatile MBeanServerConnection connection;
+    private volatile long bootstrapStart;
+    private volatile long bootstrapMillis = -1;
+    private volatile int importedCount;
+    private volatile String failure;
+    private volatile NotificationListener registrationListener;
+    private volatile int reconnectAttempts;
+    private volatile int reconnects;
+    /**
+     * restored from the warm start cache and not discovered since
+     */
+    private boolean restored;
+    /**
+     * proxies restored from the warm start cache were not revalidated yet
+     */
+    private volatile boolean stale;
+    /**
+     * local proxy mbeans registered for this remote, by local name
+     */
+    private final ConcurrentMap<ObjectName, MBeanProxy> proxies
+            = new ConcurrentHashMap<ObjectName, MBeanProxy>();
+    private final RegistrationQueue registrationQueue;
+    private final RemoteCallGuard guard;
+    private final CallMetrics metrics;
+    private final AtomicBoolean resyncRequested = new AtomicBoolean();
+    private final AtomicBoolean reconnectRequested = new AtomicBoolean();
+    /**
+     * the remote is another FocalServer, its proxy mbeans are imported
+     * directly from their original remotes
+     */
+    private volatile boolean upstream;
+    /**
+     * urls of the remotes proxied by an upstream FocalServer, by domain prefix
+     */
+    private final ConcurrentMap<String, String> upstreamRemotes
+            = new ConcurrentHashMap<String, String>();
+    /**
+     * domain prefixes of original remotes that are not reachable directly,
+     * their proxies on the upstream FocalServer are imported as they are
+     */
+    private final Set<String> passThrough
+            = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean upstreamRefreshRequested = new AtomicBoolean();
+    /**
+     * polls attributes for listeners of change notifications the remote
+     * mbeans do not send, null to subscribe remotely only
+     */
+    private volatile AttributePoller attributePoller;
+
+    public RemoteServer(String url, String domainPrefix) {
+        this(url, domainPrefix,
+                JMXConnectionFinder.DEFAULT_REGISTRATION_QUEUE_CAPACITY, new CallPolicy(),
+                new CallMetrics(null));
+    }
+
+    public RemoteServer(
+            String url, String domainPrefix, int registrationQueueCapacity,
+            CallPolicy callPolicy, CallMetrics metrics
+    ) {
+        this.url = url;
+        this.domainPrefix = domainPrefix;
+        this.registrationQueue = new RegistrationQueue(registrationQueueCapacity);
+        this.guard = new RemoteCallGuard(this, callPolicy);
+        this.metrics = metrics;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getDomainPrefix() {
+        return domainPrefix;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public JMXConnector getConnector() {
+        return connector;
+    }
+
+    public MBeanServerConnection getConnection() {
+        return connection;
+    }
+
+    public synchronized void connected(
+            JMXConnector connector, MBeanServerConnection connection
+    ) {
+        this.connector = connector;
+        this.connection = connection;
+        if (connection != null) {
+            guard.reset();
+        }
+    }
+
+    /**
+     * @return false if the remote was removed meanwhile
+     */
+    public synchronized boolean transition(State newState) {
+        if (state == State.REMOVED) {
+            return false;
+        }
+        if (newState == State.CONNECTING) {
+            bootstrapStart = System.currentTimeMillis();
+        } else if ((newState == State.IMPORTED || newState == State.FAILED)
+                && (state == State.CONNECTING || state == State.IMPORTING)) {
+            bootstrapMillis = System.currentTimeMillis() - bootstrapStart;
+        }
+        state = newState;
+        return true;
+    }
+
+    public void failed(Throwable cause) {
+        failure = cause.toString();
+        transition(State.FAILED);
+    }
+
+    /**
+     * Marks the remote as removed, later imports are ignored.
+     * Callers registering proxies synchronize on this instance and
+     * check isRemoved() so no proxy is registered after removal.
+     */
+    public synchronized void remove() {
+        state = State.REMOVED;
+    }
+
+    public boolean isRemoved() {
+        return state == State.REMOVED;
+    }
+
+    /**
+     * Marks a remote restored from the warm start cache, its proxies are
+     * stale until revalidated and it expires unless discovered
+     */
+    public synchronized void restored() {
+        restored = true;
+        stale = true;
+    }
+
+    /**
+     * Discovery found a remote restored from the warm start cache
+     *
+     * @return false if the remote was not restored or is already removed
+     */
+    public synchronized boolean discovered() {
+        if (!restored || state == State.REMOVED) {
+            return false;
+        }
+        restored = false;
+        return true;
+    }
+
+    /**
+     * Removes a restored remote that discovery did not find in time
+     *
+     * @return false if it was discovered or removed meanwhile
+     */
+    public synchronized boolean expire() {
+        if (!restored || state == State.REMOVED) {
+            return false;
+        }
+        state = State.REMOVED;
+        return true;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public void revalidated() {
+        stale = false;
+    }
+
+    /**
+     * @return the listener registered on the remote delegate, null if none
+     */
+    public NotificationListener getRegistrationListener() {
+        return registrationListener;
+    }
+
+    public void setRegistrationListener(NotificationListener registrationListener) {
+        this.registrationListener = registrationListener;
+    }
+
+    /**
+     * @return number of failed reconnect attempts since the connection was lost
+     */
+    public int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    public void reconnectFailed(Throwable cause) {
+        failure = cause.toString();
+        reconnectAttempts++;
+    }
+
+    /**
+     * @return false if a reconnect attempt is already scheduled
+     */
+    public boolean requestReconnect() {
+        return reconnectRequested.compareAndSet(false, true);
+    }
+
+    public void reconnectStarted() {
+        reconnectRequested.set(false);
+    }
+
+    public void reconnected() {
+        reconnectAttempts = 0;
+        reconnects++;
+        failure = null;
+    }
+
+    /**
+     * Runs a client call on the current connection, subject to
+     * the deadline, concurrency limit and circuit breaker of this remote
+     */
+    public <T> T call(RemoteOperation operation, RemoteCallGuard.Call<T> call)
+            throws Exception {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = guard.call(operation, call);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    public CallMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RemoteCallGuard getGuard() {
+        return guard;
+    }
+
+    public AttributePoller getAttributePoller() {
+        return attributePoller;
+    }
+
+    public void setAttributePoller(AttributePoller attributePoller) {
+        this.attributePoller = attributePoller;
+    }
+
+    public RegistrationQueue getRegistrationQueue() {
+        return registrationQueue;
+    }
+
+    /**
+     * @return false if a resync is already pending
+     */
+    public boolean requestResync() {
+        return resyncRequested.compareAndSet(false, true);
+    }
+
+    public void resyncStarted() {
+        resyncRequested.set(false);
+    }
+
+    public boolean isUpstream() {
+        return upstream;
+    }
+
+    public void setUpstream(boolean upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * @return true if remoteName is a proxy mbean of an upstream FocalServer
+     */
+    public boolean isUpstreamProxy(ObjectName remoteName) {
+        return upstream && remoteName.getKeyProperty(JMXConnectionFinder.REMOTE_DOMAIN) != null;
+    }
+
+    /**
+     * @return url of the original remote behind a domain prefix of
+     *         this upstream FocalServer, null if unknown
+     */
+    public String getUpstreamRemote(String domainPrefix) {
+        return upstreamRemotes.get(domainPrefix);
+    }
+
+    public void setUpstreamRemotes(Map<String, String> remotesByPrefix) {
+        upstreamRemotes.keySet().retainAll(remotesByPrefix.keySet());
+        upstreamRemotes.putAll(remotesByPrefix);
+    }
+
+    /**
+     * @return false if a refresh of the upstream remotes is already pending
+     */
+    public boolean requestUpstreamRefresh() {
+        return upstreamRefreshRequested.compareAndSet(false, true);
+    }
+
+    public void upstreamRefreshStarted() {
+        upstreamRefreshRequested.set(false);
+    }
+
+    public boolean isPassThrough(String domainPrefix) {
+        return passThrough.contains(domainPrefix);
+    }
+
+    public Set<String> getPassThrough() {
+        return passThrough;
+    }
+
+    /**
+     * @return false if the domain was already passed through
+     */
+    public boolean addPassThrough(String domainPrefix) {
+        return passThrough.add(domainPrefix);
+    }
+
+    /**
+     * @return false if the domain was not passed through
+     */
+    public boolean removePassThrough(String domainPrefix) {
+        return passThrough.remove(domainPrefix);
+    }
+
+    public void addProxy(ObjectName localName, MBeanProxy proxy) {
+        proxies.put(localName, proxy);
+    }
+
+    public void removeProxy(ObjectName localName) {
+        proxies.remove(localName);
+    }
+
+    public Collection<MBeanProxy> getProxies() {
+        return proxies.values();
+    }
+
+    public Set<ObjectName> getProxyNames() {
+        return proxies.keySet();
+    }
+
+    public int getProxyCount() {
+        return proxies.size();
+    }
+
+    public void setImportedCount(int importedCount) {
+        this.importedCount = importedCount;
+    }
+
+    public long getBootstrapMillis() {
+        return bootstrapMillis;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(url);
+        sb.append(" state=").append(state);
+        sb.append(" imported=").append(importedCount);
+        if (!proxies.isEmpty()) {
+            sb.append(" proxies=").append(proxies.size());
+        }
+        if (bootstrapMillis >= 0) {
+            sb.append(" bootstrapMillis=").append(bootstrapMillis);
+        }
+        if (registrationQueue.size() > 0) {
+            sb.append(" queued=").append(registrationQueue.size());
+        }
+        if (registrationQueue.getLost() > 0) {
+            sb.append(" lostNotifications=").append(registrationQueue.getLost());
+        }
+        if (guard.getCircuit() != RemoteCallGuard.Circuit.CLOSED) {
+            sb.append(" circuit=").append(guard.getCircuit());
+        }
+        if (stale) {
+            sb.append(" stale=true");
+        }
+        if (upstream) {
+            sb.append(" upstream=").append(upstreamRemotes.size());
+            if (!passThrough.isEmpty()) {
+                sb.append(" passThrough=").append(passThrough.size());
+            }
+        }
+        if (reconnects > 0) {
+            sb.append(" reconnects=").append(reconnects);
+        }
+        if (state == State.RECONNECTING) {
+            sb.append(" attempts=").append(reconnectAttempts);
+        }
+        if ((state == State.FAILED || state == State.RECONNECTING) && failure != null) {
+            sb.append(" failure=").append(failure);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Aggregate of one attribute across the grid, such as the total or maximum
+ * heap of all containers. Fed by the AttributeCollector: values change as
+ * members are sampled and as proxies register and unregister, so reading
+ * the aggregate is a field read and makes no remote call.
+ * <p>
+ * Sum, count and average are kept incrementally. Values are also kept
+ * ordered, so min and max follow every update; percentiles are recomputed
+ * once per collection round.
+ */
+public class Rollup implements RollupMBean, AttributeCollector.SampleListener {
+
+    enum Function {
+        SUM, MIN, MAX, AVG, COUNT, PERCENTILE
+    }
+
+    private final String name;
+    private final ObjectName pattern;
+    private final String attribute;
+    private final String functionName;
+    private final Function function;
+    /**
+     * percentile between 0 and 1
+     */
+    private final double quantile;
+
+    /**
+     * guarded by this
+     */
+    private final Set<ObjectName> members = new HashSet<ObjectName>();
+    private final Map<ObjectName, Double> values = new HashMap<ObjectName, Double>();
+    private final TreeMap<Double, Integer> ordered = new TreeMap<Double, Integer>();
+    private double sum;
+    private boolean dirty;
+
+    private volatile double value = Double.NaN;
+    private volatile int memberCount;
+    private volatile int sampledCount;
+
+    /**
+     * @param name      name key of the rollup mbean
+     * @param pattern   remote ObjectName pattern, as the mbeans are named on their own mbeanserver
+     * @param attribute attribute, or attribute.item for CompositeData items
+     * @param function  sum, min, max, avg, count or pNN such as p99 or p99.9
+     */
+    public Rollup(String name, String pattern, String attribute, String function)
+            throws MalformedObjectNameException {
+        this.name = name;
+        this.pattern = ObjectName.getInstance(pattern);
+        this.attribute = attribute;
+        this.functionName = function.toLowerCase();
+        if (functionName.startsWith("p")
+                && functionName.length() > 1 && Character.isDigit(functionName.charAt(1))) {
+            this.function = Function.PERCENTILE;
+            this.quantile = Double.parseDouble(functionName.substring(1)) / 100;
+            if (quantile <= 0 || quantile > 1) {
+                throw new IllegalArgumentException("Invalid percentile " + function);
+            }
+        } else {
+            this.function = Function.valueOf(functionName.toUpperCase());
+            this.quantile = 0;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the local pattern of the proxies of the remote pattern, possibly wider
+     */
+    ObjectName getLocalPattern() {
+        StringBuilder sb = new StringBuilder("*:");
+        sb.append(JMXConnectionFinder.REMOTE_DOMAIN).append('=').append(pattern.getDomain());
+        String properties = pattern.getKeyPropertyListString();
+        if (properties.length() > 0) {
+            sb.append(',').append(properties);
+        }
+        if (pattern.isPropertyListPattern()) {
+            sb.append(",*");
+        }
+        try {
+            return ObjectName.getInstance(sb.toString());
+        } catch (MalformedObjectNameException e) {
+            return ObjectName.WILDCARD;
+        }
+    }
+
+    /**
+     * @return true if the local name is the proxy of a member
+     */
+    boolean matches(ObjectName localName) {
+        try {
+            return pattern.apply(VirtualNamespace.toRemoteName(localName));
+        } catch (InstanceNotFoundException e) {
+            return false;
+        }
+    }
+
+// --------------------- Interface RollupMBean ---------------------
+
+    public double getValue() {
+        return value;
+    }
+
+    public String getPattern() {
+        return pattern.toString();
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public String getFunction() {
+        return functionName;
+    }
+
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    public int getSampledCount() {
+        return sampledCount;
+    }
+
+// --------------------- Interface SampleListener ---------------------
+
+    public synchronized void sampled(ObjectName localName, String path, double sample) {
+        if (!attribute.equals(path) || Double.isNaN(sample) || !members.contains(localName)) {
+            //members follow the registrations, a late sample of an unregistered mbean is dropped
+            return;
+        }
+        Double old = values.put(localName, Double.valueOf(sample));
+        if (old != null) {
+            remove(old.doubleValue());
+        }
+        sum += sample;
+        Integer count = ordered.get(sample);
+        ordered.put(sample, count == null ? 1 : count.intValue() + 1);
+        publish(false);
+    }
+
+    public synchronized void registered(ObjectName localName) {
+        if (matches(localName) && members.add(localName)) {
+            publish(false);
+        }
+    }
+
+    public synchronized void unregistered(ObjectName localName) {
+        if (!members.remove(localName)) {
+            return;
+        }
+        Double old = values.remove(localName);
+        if (old != null) {
+            remove(old.doubleValue());
+        }
+        publish(true);
+    }
+
+    public synchronized void roundCompleted() {
+        if (dirty) {
+            publish(true);
+        }
+    }
+
+    private void remove(double old) {
+        sum -= old;
+        int count = ordered.get(old).intValue();
+        if (count == 1) {
+            ordered.remove(old);
+        } else {
+            ordered.put(old, count - 1);
+        }
+    }
+
+    /**
+     * @param complete false to defer the percentile to the end of the round
+     */
+    private void publish(boolean complete) {
+        memberCount = members.size();
+        sampledCount = values.size();
+        if (values.isEmpty()) {
+            //restart from an exact sum once every value is gone
+            sum = 0;
+            dirty = false;
+            value = function == Function.COUNT ? members.size() : Double.NaN;
+            return;
+        }
+        switch (function) {
+            case SUM:
+                value = sum;
+                break;
+            case AVG:
+                value = sum / values.size();
+                break;
+            case MIN:
+                value = ordered.firstKey().doubleValue();
+                break;
+            case MAX:
+                value = ordered.lastKey().doubleValue();
+                break;
+            case COUNT:
+                value = members.size();
+                break;
+            case PERCENTILE:
+                if (complete) {
+                    value = percentile();
+                    dirty = false;
+                } else {
+                    dirty = true;
+                }
+                break;
+        }
+    }
+
+    /**
+     * nearest rank percentile of the sampled values
+     */
+    private double percentile() {
+        long rank = (long) Math.ceil(quantile * values.size());
+        long seen = 0;
+        for (Map.Entry<Double, Integer> entry : ordered.entrySet()) {
+            seen += entry.getValue().intValue();
+            if (seen >= rank) {
+                return entry.getKey().doubleValue();
+            }
+        }
+        return ordered.lastKey().doubleValue();
+    }
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+/**
+ * Aggregate of one attribute over every proxied mbean matching a remote pattern
+ */
+public interface RollupMBean {
+
+    /**
+     * current aggregate, NaN while no member was sampled
+     *
+     * @return
+     */
+    double getValue();
+
+    /**
+     * remote ObjectName pattern selecting the members
+     *
+     * @return
+     */
+    String getPattern();
+
+    /**
+     * aggregated attribute, attribute.item for CompositeData items
+     *
+     * @return
+     */
+    String getAttribute();
+
+    /**
+     * sum, min, max, avg, count or pNN for a percentile
+     *
+     * @return
+     */
+    String getFunction();
+
+    /**
+     * number of registered proxy mbeans matching the pattern
+     *
+     * @return
+     */
+    int getMemberCount();
+
+    /**
+     * number of members with a sampled value
+     *
+     * @return
+     */
+    int getSampledCount();
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Fixed size history of numeric samples, oldest overwritten first.
+ * Timestamps and values are kept in primitive buffers, on the heap
+ * or in direct memory so large histories stay out of the collected heap.
+ */
+class SampleRing {
+
+    private final int capacity;
+    private final LongBuffer timestamps;
+    private final DoubleBuffer values;
+    /**
+     * number of samples ever added
+     */
+    private long added;
+
+    public SampleRing(int capacity, boolean direct) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        if (direct) {
+            timestamps = ByteBuffer.allocateDirect(capacity * 8).asLongBuffer();
+            values = ByteBuffer.allocateDirect(capacity * 8).asDoubleBuffer();
+        } else {
+            timestamps = LongBuffer.allocate(capacity);
+            values = DoubleBuffer.allocate(capacity);
+        }
+    }
+
+    public synchronized void add(long timestamp, double value) {
+        int index = (int) (added % capacity);
+        timestamps.put(index, timestamp);
+        values.put(index, value);
+        added++;
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(added, capacity);
+    }
+
+    /**
+     * @return timestamps of the held samples, oldest first
+     */
+    public synchronized long[] getTimestamps() {
+        long[] result = new long[size()];
+        int first = first();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = timestamps.get((first + i) % capacity);
+        }
+        return result;
+    }
+
+    /**
+     * @return values of the held samples, oldest first
+     */
+    public synchronized double[] getValues() {
+        double[] result = new double[size()];
+        int first = first();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get((first + i) % capacity);
+        }
+        return result;
+    }
+
+    /**
+     * @return timestamps and values of the held samples, oldest first, read together
+     */
+    public synchronized Object[] getSamples() {
+        return new Object[]{getTimestamps(), getValues()};
+    }
+
+    /**
+     * @return the most recent value, NaN if none
+     */
+    public synchronized double getLatest() {
+        if (added == 0) {
+            return Double.NaN;
+        }
+        return values.get((int) ((added - 1) % capacity));
+    }
+
+    private int first() {
+        return added > capacity ? (int) (added % capacity) : 0;
+    }
+}
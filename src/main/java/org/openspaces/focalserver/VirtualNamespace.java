@@ -0,0 +1,776 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+import javax.management.RuntimeOperationsException;
+
+/**
+ * An MBeanServerForwarder that serves the remote mbeans without registering
+ * a proxy mbean for each of them. Names in a remote domain (as produced by
+ * JMXConnectionFinder.convertObjectName) are resolved to the remote
+ * MBeanServerConnection when the call arrives, every other name is passed
+ * to the local mbeanserver.
+ * <p>
+ * Install it on the connector server through the connectorServer property
+ * and hand it to the JMXConnectionFinder through its virtualNamespace property.
+ */
+public class VirtualNamespace extends MBeanServerForwarderSupport {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            VirtualNamespace.class.getName()
+    );
+    public static final int DEFAULT_QUERY_THREADS = 32;
+
+    /**
+     * connected remote mbeanservers by local domain
+     */
+    private final ConcurrentMap<String, RemoteServer> remotes
+            = new ConcurrentHashMap<String, RemoteServer>();
+    /**
+     * remote mbeans not matching the filter are not visible
+     */
+    private volatile ObjectNameFilter importFilter = ObjectNameFilter.ALL;
+    /**
+     * runs the remote queries of one pattern query in parallel
+     */
+    private final ThreadPoolExecutor queryExecutor = new ThreadPoolExecutor(
+            0, DEFAULT_QUERY_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new NamedThreadFactory("FocalServer-query"),
+            new ThreadPoolExecutor.CallerRunsPolicy()
+    );
+
+// -------------------------- remote registry --------------------------
+
+    /**
+     * Start serving the remote mbeans under the remote domain prefix
+     */
+    void addRemote(RemoteServer remote) {
+        synchronized (remote) {
+            if (!remote.isRemoved()) {
+                remotes.put(remote.getDomainPrefix(), remote);
+            }
+        }
+    }
+
+    void removeRemote(RemoteServer remote) {
+        remotes.remove(remote.getDomainPrefix(), remote);
+    }
+
+    void setImportFilter(ObjectNameFilter importFilter) {
+        this.importFilter = importFilter;
+    }
+
+    public int getRemoteCount() {
+        return remotes.size();
+    }
+
+// -------------------------- routed calls --------------------------
+
+    public ObjectInstance createMBean(String className, ObjectName name)
+            throws ReflectionException, InstanceAlreadyExistsException,
+            MBeanRegistrationException, MBeanException,
+            NotCompliantMBeanException {
+        checkLocal(name);
+        return super.createMBean(className, name);
+    }
+
+    public ObjectInstance createMBean(
+            String className, ObjectName name, ObjectName loaderName
+    ) throws ReflectionException, InstanceAlreadyExistsException,
+            MBeanRegistrationException, MBeanException,
+            NotCompliantMBeanException, InstanceNotFoundException {
+        checkLocal(name);
+        return super.createMBean(className, name, loaderName);
+    }
+
+    public ObjectInstance createMBean(
+            String className, ObjectName name, Object[] params,
+            String[] signature
+    ) throws ReflectionException, InstanceAlreadyExistsException,
+            MBeanRegistrationException, MBeanException,
+            NotCompliantMBeanException {
+        checkLocal(name);
+        return super.createMBean(className, name, params, signature);
+    }
+
+    public ObjectInstance createMBean(
+            String className, ObjectName name, ObjectName loaderName,
+            Object[] params, String[] signature
+    ) throws ReflectionException, InstanceAlreadyExistsException,
+            MBeanRegistrationException, MBeanException,
+            NotCompliantMBeanException, InstanceNotFoundException {
+        checkLocal(name);
+        return super.createMBean(className, name, loaderName, params, signature);
+    }
+
+    public ObjectInstance registerMBean(Object object, ObjectName name)
+            throws InstanceAlreadyExistsException, MBeanRegistrationException,
+            NotCompliantMBeanException {
+        checkLocal(name);
+        return super.registerMBean(object, name);
+    }
+
+    public void unregisterMBean(ObjectName name)
+            throws InstanceNotFoundException, MBeanRegistrationException {
+        checkLocal(name);
+        super.unregisterMBean(name);
+    }
+
+    public ObjectInstance getObjectInstance(ObjectName name)
+            throws InstanceNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.getObjectInstance(name);
+        }
+        try {
+            ObjectInstance instance = connectionFor(remote).getObjectInstance(
+                    importedName(name)
+            );
+            return new ObjectInstance(name, instance.getClassName());
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query) {
+        Set<ObjectInstance> result = new HashSet<ObjectInstance>(
+                super.queryMBeans(name, query)
+        );
+        for (ObjectInstance instance : queryRemotes(name, true)) {
+            if (applyQuery(query, instance.getObjectName())) {
+                result.add(instance);
+            }
+        }
+        return result;
+    }
+
+    public Set<ObjectName> queryNames(ObjectName name, QueryExp query) {
+        Set<ObjectName> result = new HashSet<ObjectName>(
+                super.queryNames(name, query)
+        );
+        for (ObjectInstance instance : queryRemotes(name, false)) {
+            if (applyQuery(query, instance.getObjectName())) {
+                result.add(instance.getObjectName());
+            }
+        }
+        return result;
+    }
+
+    public boolean isRegistered(ObjectName name) {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.isRegistered(name);
+        }
+        try {
+            return connectionFor(remote).isRegistered(importedName(name));
+        } catch (InstanceNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public Integer getMBeanCount() {
+        int count = super.getMBeanCount().intValue();
+        for (RemoteServer remote : remotes.values()) {
+            MBeanServerConnection connection = remote.getConnection();
+            if (connection == null) {
+                continue;
+            }
+            try {
+                count += connection.getMBeanCount().intValue();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, e.toString(), e);
+            }
+        }
+        return Integer.valueOf(count);
+    }
+
+    public Object getAttribute(ObjectName name, final String attribute)
+            throws MBeanException, AttributeNotFoundException,
+            InstanceNotFoundException, ReflectionException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.getAttribute(name, attribute);
+        }
+        final ObjectName remoteName = importedName(name);
+        try {
+            return remote.call(RemoteOperation.GET_ATTRIBUTE, new RemoteCallGuard.Call<Object>() {
+                public Object call(MBeanServerConnection connection) throws Exception {
+                    return connection.getAttribute(remoteName, attribute);
+                }
+            });
+        } catch (MBeanException e) {
+            throw e;
+        } catch (AttributeNotFoundException e) {
+            throw e;
+        } catch (InstanceNotFoundException e) {
+            throw e;
+        } catch (ReflectionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public AttributeList getAttributes(ObjectName name, final String[] attributes)
+            throws InstanceNotFoundException, ReflectionException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.getAttributes(name, attributes);
+        }
+        final ObjectName remoteName = importedName(name);
+        try {
+            return remote.call(RemoteOperation.GET_ATTRIBUTES, new RemoteCallGuard.Call<AttributeList>() {
+                public AttributeList call(MBeanServerConnection connection) throws Exception {
+                    return connection.getAttributes(remoteName, attributes);
+                }
+            });
+        } catch (InstanceNotFoundException e) {
+            throw e;
+        } catch (ReflectionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void setAttribute(ObjectName name, final Attribute attribute)
+            throws InstanceNotFoundException, AttributeNotFoundException,
+            InvalidAttributeValueException, MBeanException,
+            ReflectionException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            super.setAttribute(name, attribute);
+            return;
+        }
+        final ObjectName remoteName = importedName(name);
+        try {
+            remote.call(RemoteOperation.SET_ATTRIBUTE, new RemoteCallGuard.Call<Object>() {
+                public Object call(MBeanServerConnection connection) throws Exception {
+                    connection.setAttribute(remoteName, attribute);
+                    return null;
+                }
+            });
+        } catch (InstanceNotFoundException e) {
+            throw e;
+        } catch (AttributeNotFoundException e) {
+            throw e;
+        } catch (InvalidAttributeValueException e) {
+            throw e;
+        } catch (MBeanException e) {
+            throw e;
+        } catch (ReflectionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public AttributeList setAttributes(
+            ObjectName name, final AttributeList attributes
+    ) throws InstanceNotFoundException, ReflectionException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.setAttributes(name, attributes);
+        }
+        final ObjectName remoteName = importedName(name);
+        try {
+            return remote.call(RemoteOperation.SET_ATTRIBUTES, new RemoteCallGuard.Call<AttributeList>() {
+                public AttributeList call(MBeanServerConnection connection) throws Exception {
+                    return connection.setAttributes(remoteName, attributes);
+                }
+            });
+        } catch (InstanceNotFoundException e) {
+            throw e;
+        } catch (ReflectionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public Object invoke(
+            ObjectName name, final String operationName, final Object[] params,
+            final String[] signature
+    ) throws InstanceNotFoundException, MBeanException, ReflectionException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.invoke(name, operationName, params, signature);
+        }
+        final ObjectName remoteName = importedName(name);
+        try {
+            return remote.call(RemoteOperation.INVOKE, new RemoteCallGuard.Call<Object>() {
+                public Object call(MBeanServerConnection connection) throws Exception {
+                    return connection.invoke(remoteName, operationName, params, signature);
+                }
+            });
+        } catch (InstanceNotFoundException e) {
+            throw e;
+        } catch (MBeanException e) {
+            throw e;
+        } catch (ReflectionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public String[] getDomains() {
+        List<String> domains = new ArrayList<String>(Arrays.asList(super.getDomains()));
+        for (RemoteServer remote : remotes.values()) {
+            if (remote.getConnection() != null) {
+                domains.add(remote.getDomainPrefix());
+            }
+        }
+        return domains.toArray(new String[domains.size()]);
+    }
+
+    public void addNotificationListener(
+            ObjectName name, NotificationListener listener,
+            NotificationFilter filter, Object handback
+    ) throws InstanceNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            super.addNotificationListener(name, listener, filter, handback);
+            return;
+        }
+        try {
+            connectionFor(remote).addNotificationListener(
+                    importedName(name), listener, filter, handback
+            );
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void addNotificationListener(
+            ObjectName name, ObjectName listener, NotificationFilter filter,
+            Object handback
+    ) throws InstanceNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            checkLocal(listener);
+            super.addNotificationListener(name, listener, filter, handback);
+            return;
+        }
+        try {
+            connectionFor(remote).addNotificationListener(
+                    importedName(name), toRemoteListener(remote, listener),
+                    filter, handback
+            );
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void removeNotificationListener(ObjectName name, ObjectName listener)
+            throws InstanceNotFoundException, ListenerNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            super.removeNotificationListener(name, listener);
+            return;
+        }
+        try {
+            connectionFor(remote).removeNotificationListener(
+                    importedName(name), toRemoteListener(remote, listener)
+            );
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void removeNotificationListener(
+            ObjectName name, ObjectName listener, NotificationFilter filter,
+            Object handback
+    ) throws InstanceNotFoundException, ListenerNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            super.removeNotificationListener(name, listener, filter, handback);
+            return;
+        }
+        try {
+            connectionFor(remote).removeNotificationListener(
+                    importedName(name), toRemoteListener(remote, listener),
+                    filter, handback
+            );
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void removeNotificationListener(
+            ObjectName name, NotificationListener listener
+    ) throws InstanceNotFoundException, ListenerNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            super.removeNotificationListener(name, listener);
+            return;
+        }
+        try {
+            connectionFor(remote).removeNotificationListener(
+                    importedName(name), listener
+            );
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public void removeNotificationListener(
+            ObjectName name, NotificationListener listener,
+            NotificationFilter filter, Object handback
+    ) throws InstanceNotFoundException, ListenerNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            super.removeNotificationListener(name, listener, filter, handback);
+            return;
+        }
+        try {
+            connectionFor(remote).removeNotificationListener(
+                    importedName(name), listener, filter, handback
+            );
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public MBeanInfo getMBeanInfo(ObjectName name)
+            throws InstanceNotFoundException, IntrospectionException,
+            ReflectionException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.getMBeanInfo(name);
+        }
+        final ObjectName remoteName = importedName(name);
+        try {
+            return remote.call(RemoteOperation.GET_MBEAN_INFO, new RemoteCallGuard.Call<MBeanInfo>() {
+                public MBeanInfo call(MBeanServerConnection connection) throws Exception {
+                    return connection.getMBeanInfo(remoteName);
+                }
+            });
+        } catch (InstanceNotFoundException e) {
+            throw e;
+        } catch (IntrospectionException e) {
+            throw e;
+        } catch (ReflectionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+    public boolean isInstanceOf(ObjectName name, String className)
+            throws InstanceNotFoundException {
+        RemoteServer remote = remoteFor(name);
+        if (remote == null) {
+            return super.isInstanceOf(name, className);
+        }
+        try {
+            return connectionFor(remote).isInstanceOf(importedName(name), className);
+        } catch (IOException e) {
+            throw new MBeanProxyException(e);
+        }
+    }
+
+// -------------------------- name mapping --------------------------
+
+    /**
+     * @return the remote serving this name, null for local names
+     */
+    RemoteServer remoteFor(ObjectName name) {
+        if (name == null || name.isDomainPattern()) {
+            return null;
+        }
+        return remotes.get(name.getDomain());
+    }
+
+    private MBeanServerConnection connectionFor(RemoteServer remote)
+            throws InstanceNotFoundException {
+        MBeanServerConnection connection = remote.getConnection();
+        if (connection == null) {
+            throw new InstanceNotFoundException(
+                    "Remote mbeanserver not connected: " + remote.getUrl()
+            );
+        }
+        return connection;
+    }
+
+    /**
+     * Inverse of JMXConnectionFinder.convertObjectName
+     */
+    static ObjectName toRemoteName(ObjectName localName)
+            throws InstanceNotFoundException {
+        Hashtable<String, String> properties
+                = new Hashtable<String, String>(localName.getKeyPropertyList());
+        String domain = properties.remove(JMXConnectionFinder.REMOTE_DOMAIN);
+        if (domain == null || properties.isEmpty()) {
+            throw new InstanceNotFoundException(localName.toString());
+        }
+        try {
+            return ObjectName.getInstance(domain, properties);
+        } catch (MalformedObjectNameException e) {
+            throw new InstanceNotFoundException(localName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the remote name of an imported mbean
+     */
+    private ObjectName importedName(ObjectName localName)
+            throws InstanceNotFoundException {
+        ObjectName remoteName = toRemoteName(localName);
+        if (!importFilter.matches(remoteName)) {
+            throw new InstanceNotFoundException(localName.toString());
+        }
+        return remoteName;
+    }
+
+    private ObjectName toRemoteListener(RemoteServer remote, ObjectName listener)
+            throws InstanceNotFoundException {
+        if (remoteFor(listener) != remote) {
+            throw new RuntimeOperationsException(new IllegalArgumentException(
+                    "Listener " + listener + " must belong to the remote mbeanserver " + remote.getUrl()
+            ));
+        }
+        return importedName(listener);
+    }
+
+    /**
+     * Remote mbeans are not registered locally, so they cannot
+     * be created, registered or unregistered through the namespace
+     */
+    private void checkLocal(ObjectName name) {
+        if (remoteFor(name) != null) {
+            throw new RuntimeOperationsException(new UnsupportedOperationException(
+                    "Remote domain is read only: " + name.getDomain()
+            ));
+        }
+    }
+
+    /**
+     * Translates a local pattern to the pattern sent to a remote mbeanserver.
+     * The remoteDomain key becomes the domain, other keys are kept.
+     * The result is never narrower than the local pattern, matches are
+     * re-checked against the local pattern after conversion.
+     *
+     * @return null if no remote name can match the pattern
+     */
+    static ObjectName toRemotePattern(ObjectName pattern) {
+        if (pattern == null) {
+            return ObjectName.WILDCARD;
+        }
+        Map<String, String> properties
+                = new Hashtable<String, String>(pattern.getKeyPropertyList());
+        String domain = properties.remove(JMXConnectionFinder.REMOTE_DOMAIN);
+        if (domain == null) {
+            if (!pattern.isPropertyListPattern()) {
+                return null;
+            }
+            domain = "*";
+        }
+        if (properties.isEmpty() && !pattern.isPropertyListPattern()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(domain).append(':');
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append(',');
+        }
+        if (pattern.isPropertyListPattern()) {
+            sb.append('*');
+        } else {
+            sb.setLength(sb.length() - 1);
+        }
+        try {
+            return ObjectName.getInstance(sb.toString());
+        } catch (MalformedObjectNameException e) {
+            return ObjectName.WILDCARD;
+        }
+    }
+
+    /**
+     * Matches an ObjectName domain pattern (* and ?) against a domain
+     */
+    static boolean domainMatches(String pattern, String domain) {
+        return wildmatch(pattern, 0, domain, 0);
+    }
+
+    private static boolean wildmatch(String pattern, int p, String str, int s) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                for (int i = str.length(); i >= s; i--) {
+                    if (wildmatch(pattern, p + 1, str, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (s >= str.length() || (c != '?' && c != str.charAt(s))) {
+                return false;
+            }
+            p++;
+            s++;
+        }
+        return s == str.length();
+    }
+
+// -------------------------- queries --------------------------
+
+    /**
+     * Queries all remotes whose domain matches the pattern in parallel.
+     * Returns local ObjectInstances, with a null class name if instances is false.
+     */
+    private Collection<ObjectInstance> queryRemotes(
+            final ObjectName pattern, final boolean instances
+    ) {
+        final ObjectName remotePattern = toRemotePattern(pattern);
+        List<ObjectInstance> result = new ArrayList<ObjectInstance>();
+        if (remotePattern == null) {
+            return result;
+        }
+        List<Future<List<ObjectInstance>>> futures
+                = new ArrayList<Future<List<ObjectInstance>>>();
+        for (final RemoteServer remote : remotes.values()) {
+            final MBeanServerConnection connection = remote.getConnection();
+            if (connection == null || (pattern != null
+                    && !domainMatches(pattern.getDomain(), remote.getDomainPrefix()))) {
+                continue;
+            }
+            futures.add(queryExecutor.submit(new Callable<List<ObjectInstance>>() {
+                public List<ObjectInstance> call() throws Exception {
+                    return queryRemote(remote, connection, remotePattern, pattern, instances);
+                }
+            }));
+        }
+        for (Future<List<ObjectInstance>> future : futures) {
+            try {
+                result.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINE, e.getCause().toString(), e.getCause());
+            }
+        }
+        return result;
+    }
+
+    private List<ObjectInstance> queryRemote(
+            RemoteServer remote, MBeanServerConnection connection,
+            ObjectName remotePattern, ObjectName pattern, boolean instances
+    ) throws IOException, MalformedObjectNameException {
+        List<ObjectInstance> result = new ArrayList<ObjectInstance>();
+        String prefix = remote.getDomainPrefix();
+        ObjectNameFilter filter = importFilter;
+        QueryExp excluded = filter.getExcludeQuery();
+        if (instances) {
+            for (ObjectInstance instance : connection.queryMBeans(remotePattern, excluded)) {
+                if (!filter.matches(instance.getObjectName())) {
+                    continue;
+                }
+                ObjectName localName = JMXConnectionFinder.convertObjectName(
+                        prefix, instance.getObjectName()
+                );
+                if (pattern == null || pattern.apply(localName)) {
+                    result.add(new ObjectInstance(localName, instance.getClassName()));
+                }
+            }
+        } else {
+            for (ObjectName remoteName : connection.queryNames(remotePattern, excluded)) {
+                if (!filter.matches(remoteName)) {
+                    continue;
+                }
+                ObjectName localName = JMXConnectionFinder.convertObjectName(
+                        prefix, remoteName
+                );
+                if (pattern == null || pattern.apply(localName)) {
+                    result.add(new ObjectInstance(localName, null));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the query against the virtual names, attribute
+     * values are read back through this namespace
+     */
+    private boolean applyQuery(QueryExp query, ObjectName name) {
+        if (query == null) {
+            return true;
+        }
+        try {
+            query.setMBeanServer(this);
+            return query.apply(name);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINEST, e.toString(), e);
+            return false;
+        }
+    }
+}
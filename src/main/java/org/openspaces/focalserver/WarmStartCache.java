@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Persists the imported topology of the JMXConnectionFinder: the remote
+ * service urls, the names imported from each of them and their MBeanInfo,
+ * every distinct MBeanInfo stored once. A restarted FocalServer loads it
+ * to serve the previous namespace before Jini discovery found anything,
+ * the finder revalidates it in the background. The file is read and
+ * written through its channel, never mapped, so the replaced file is not
+ * held open by a mapping until it is collected.
+ */
+public class WarmStartCache {
+
+    public static final String DEFAULT_FILE = "focalserver-warmstart.dat";
+    public static final long DEFAULT_SAVE_INTERVAL = 60000;
+    public static final long DEFAULT_EXPIRE_MILLIS = 300000;
+
+    private static final int MAGIC = 0x46435753;
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Logger LOGGER = Logger.getLogger(WarmStartCache.class.getName());
+
+    private volatile File file = new File(DEFAULT_FILE);
+    private volatile long saveIntervalMillis = DEFAULT_SAVE_INTERVAL;
+    private volatile long expireMillis = DEFAULT_EXPIRE_MILLIS;
+    /**
+     * length and hash of the last written content, unchanged snapshots are not written again
+     */
+    private long lastWritten = -1;
+
+    /**
+     * A remote mbeanserver as it was last imported
+     */
+    public static class Remote {
+        private final String url;
+        private final Map<ObjectName, MBeanInfo> mbeans;
+
+        /**
+         * @param mbeans remote names to their MBeanInfo, null if it was never loaded
+         */
+        public Remote(String url, Map<ObjectName, MBeanInfo> mbeans) {
+            this.url = url;
+            this.mbeans = mbeans;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Map<ObjectName, MBeanInfo> getMBeans() {
+            return mbeans;
+        }
+    }
+
+    public String getFile() {
+        return file.getPath();
+    }
+
+    public void setFile(String file) {
+        this.file = new File(file);
+    }
+
+    public long getSaveIntervalMillis() {
+        return saveIntervalMillis;
+    }
+
+    public void setSaveIntervalMillis(long saveIntervalMillis) {
+        if (saveIntervalMillis < 1) {
+            throw new IllegalArgumentException("save interval must be positive: " + saveIntervalMillis);
+        }
+        this.saveIntervalMillis = saveIntervalMillis;
+    }
+
+    /**
+     * @return time a restored remote is kept without being discovered again
+     */
+    public long getExpireMillis() {
+        return expireMillis;
+    }
+
+    public void setExpireMillis(long expireMillis) {
+        this.expireMillis = expireMillis;
+    }
+
+    /**
+     * @return the remotes of the last save, empty if there is no usable file
+     */
+    public List<Remote> load() {
+        File current = file;
+        if (!current.isFile()) {
+            return Collections.emptyList();
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(current, "r");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Too large: " + channel.size() + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //until full or the file shrank
+            }
+            buffer.flip();
+            return read(buffer);
+        } catch (StreamCorruptedException e) {
+            LOGGER.log(Level.WARNING, "Corrupt " + current, e);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + current, e);
+        } catch (RuntimeException e) {
+            //truncated or corrupt, buffer underflow or a bad index
+            LOGGER.log(Level.WARNING, "Corrupt " + current, e);
+        } catch (MalformedObjectNameException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + current, e);
+        } finally {
+            closeQuietly(raf);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Replaces the file with the given remotes. The content is written to
+     * a temporary file first so a crash never leaves a partial file behind.
+     */
+    public synchronized void save(List<Remote> remotes) throws IOException {
+        byte[] content = write(remotes);
+        long written = ((long) content.length << 32) ^ (Arrays.hashCode(content) & 0xffffffffL);
+        File current = file;
+        if (written == lastWritten && current.isFile()) {
+            return;
+        }
+        File tmp = new File(current.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            closeQuietly(raf);
+        }
+        try {
+            Files.move(tmp.toPath(), current.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), current.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        lastWritten = written;
+    }
+
+    /**
+     * magic, version, the distinct MBeanInfos as serialized bytes, then
+     * per remote its url and per name the index of its MBeanInfo, -1 for none
+     */
+    private static byte[] write(List<Remote> remotes) throws IOException {
+        Map<MBeanInfo, Integer> indexes = new IdentityHashMap<MBeanInfo, Integer>();
+        List<byte[]> infos = new ArrayList<byte[]>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(remotes.size());
+        for (Remote remote : remotes) {
+            writeString(out, remote.getUrl());
+            out.writeInt(remote.getMBeans().size());
+            for (Map.Entry<ObjectName, MBeanInfo> mbean : remote.getMBeans().entrySet()) {
+                writeString(out, mbean.getKey().getCanonicalName());
+                out.writeInt(index(mbean.getValue(), indexes, infos));
+            }
+        }
+        out.flush();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 1024);
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(infos.size());
+        for (byte[] info : infos) {
+            header.writeInt(info.length);
+            header.write(info);
+        }
+        header.flush();
+        body.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return index of the serialized info, -1 for a missing or unserializable info
+     */
+    private static int index(MBeanInfo info, Map<MBeanInfo, Integer> indexes, List<byte[]> infos) {
+        if (info == null) {
+            return -1;
+        }
+        Integer index = indexes.get(info);
+        if (index == null) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(info);
+                out.close();
+                infos.add(bytes.toByteArray());
+                index = Integer.valueOf(infos.size() - 1);
+            } catch (IOException e) {
+                //descriptor values that are not serializable, loaded again on revalidation
+                LOGGER.log(Level.FINE, "Not caching MBeanInfo of " + info.getClassName(), e);
+                index = Integer.valueOf(-1);
+            }
+            indexes.put(info, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * @throws StreamCorruptedException if a length or count does not fit the bytes left
+     */
+    private static List<Remote> read(ByteBuffer buffer)
+            throws IOException, MalformedObjectNameException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a warm start cache of this version");
+        }
+        //every info takes at least its length
+        MBeanInfo[] infos = new MBeanInfo[count(buffer, 4)];
+        for (int i = 0; i < infos.length; i++) {
+            byte[] bytes = new byte[length(buffer)];
+            buffer.get(bytes);
+            ObjectInputStream in = new InfoInputStream(new ByteArrayInputStream(bytes));
+            try {
+                infos[i] = (MBeanInfo) in.readObject();
+            } catch (ClassNotFoundException e) {
+                //a class of the descriptor is gone, loaded again on revalidation
+                LOGGER.log(Level.FINE, "Skipping a cached MBeanInfo", e);
+            } catch (InvalidClassException e) {
+                LOGGER.log(Level.FINE, "Skipping a cached MBeanInfo", e);
+            } finally {
+                in.close();
+            }
+        }
+        //every remote takes at least the lengths of its url and names
+        int count = count(buffer, 8);
+        List<Remote> remotes = new ArrayList<Remote>(count);
+        for (int i = 0; i < count; i++) {
+            String url = readString(buffer);
+            //every name takes at least its length and info index
+            int names = count(buffer, 8);
+            Map<ObjectName, MBeanInfo> mbeans = new LinkedHashMap<ObjectName, MBeanInfo>();
+            for (int j = 0; j < names; j++) {
+                ObjectName name = ObjectName.getInstance(readString(buffer));
+                int index = buffer.getInt();
+                mbeans.put(name, index < 0 ? null : infos[index]);
+            }
+            remotes.add(new Remote(url, mbeans));
+        }
+        return remotes;
+    }
+
+    /**
+     * @return a byte length that fits the bytes left
+     */
+    private static int length(ByteBuffer buffer) throws IOException {
+        return count(buffer, 1);
+    }
+
+    /**
+     * @param minBytes bytes taken by each element at least
+     * @return an element count that fits the bytes left
+     */
+    private static int count(ByteBuffer buffer, int minBytes) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minBytes) {
+            throw new StreamCorruptedException(
+                    "Count or length " + count + " at " + (buffer.position() - 4)
+            );
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[length(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void closeQuietly(RandomAccessFile raf) {
+        if (raf == null) {
+            return;
+        }
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+        }
+    }
+
+    /**
+     * Deserializes the standard classes only, as fsnio does, the cache file is
+     * read before any remote is contacted and must not run code of other classes
+     */
+    private static class InfoInputStream extends ObjectInputStream {
+
+        InfoInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            String element = NioCodec.elementName(desc.getName());
+            if (element != null && !NioCodec.isStandardClass(element)) {
+                throw new InvalidClassException(desc.getName(), "Not allowed in the warm start cache");
+            }
+            return super.resolveClass(desc);
+        }
+
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed in the warm start cache");
+        }
+    }
+}
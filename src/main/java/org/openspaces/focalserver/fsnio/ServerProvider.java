@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2006-2012 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.focalserver.fsnio;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerProvider;
+import javax.management.remote.JMXServiceURL;
+
+import org.openspaces.focalserver.NioConnectorServer;
+
+/**
+ * Creates fsnio connector servers for JMXConnectorServerFactory, see NioConnectorServer.
+ * Found through the jmx.remote.protocol.provider.pkgs environment
+ * entry set to org.openspaces.focalserver, or through META-INF/services.
+ */
+public class ServerProvider implements JMXConnectorServerProvider {
+
+    public JMXConnectorServer newJMXConnectorServer(
+            JMXServiceURL serviceURL, Map<String, ?> environment, MBeanServer mbeanServer
+    ) throws IOException {
+        return new NioConnectorServer(serviceURL, environment, mbeanServer);
+    }
+}